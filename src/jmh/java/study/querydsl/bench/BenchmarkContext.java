@@ -0,0 +1,85 @@
+package study.querydsl.bench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.QuerydslStartApplication;
+import study.querydsl.entity.MemberDSL;
+import study.querydsl.entity.TeamDSL;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 벤치마크 공용 상태. H2(MySQL 모드) 위에 스프링 컨텍스트를 띄우고 members 명을 넣어둔다.
+ * 회원 i는 team(i % TEAM_COUNT), 나이 i % 100 이다.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkContext {
+
+    static final int TEAM_COUNT = 10;
+    private static final int SEED_CHUNK = 1_000;
+
+    @Param({"1000", "100000"})
+    public int members;
+
+    ConfigurableApplicationContext context;
+    TransactionTemplate readOnly;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(QuerydslStartApplication.class)
+                .web(WebApplicationType.NONE)
+                //application.yml의 local 프로필(InitMember)을 덮어쓰기 위해 커맨드라인 인자로 넘김
+                .run("--spring.profiles.active=bench");
+        readOnly = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        readOnly.setReadOnly(true);
+        seed();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    private void seed() {
+        EntityManagerFactory emf = context.getBean(EntityManagerFactory.class);
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            List<TeamDSL> teams = new ArrayList<>();
+            for (int i = 0; i < TEAM_COUNT; i++) {
+                TeamDSL team = new TeamDSL("team" + i);
+                em.persist(team);
+                teams.add(team);
+            }
+            em.flush();
+            for (int i = 0; i < members; i++) {
+                TeamDSL team = em.getReference(TeamDSL.class, teams.get(i % TEAM_COUNT).getId());
+                //team은 프록시라 getMembers()를 건드리면 컬렉션을 읽어온다.
+                em.persist(MemberDSL.forBulkInsert("member" + i, i % 100, team));
+                if ((i + 1) % SEED_CHUNK == 0) {
+                    em.flush();
+                    em.clear();
+                }
+            }
+            em.getTransaction().commit();
+        } finally {
+            em.close();
+        }
+    }
+}
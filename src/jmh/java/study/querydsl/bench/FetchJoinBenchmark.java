@@ -0,0 +1,63 @@
+package study.querydsl.bench;
+
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import study.querydsl.entity.MemberDSL;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static study.querydsl.entity.QMemberDSL.memberDSL;
+import static study.querydsl.entity.QTeamDSL.teamDSL;
+
+/**
+ * 회원 100명을 읽고 팀 이름까지 접근. lazy는 팀 수만큼 추가 select(N+1), fetch join은 한 번.
+ * bench 프로필은 팀 2차 캐시와 default_batch_fetch_size를 끈다(켜 두면 lazy도 캐시/IN 한 번으로 끝난다).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FetchJoinBenchmark {
+
+    private static final int PAGE = 100;
+
+    private BenchmarkContext context;
+    private JPAQueryFactory queryFactory;
+
+    @Setup
+    public void setUp(BenchmarkContext context) {
+        this.context = context;
+        this.queryFactory = context.getBean(JPAQueryFactory.class);
+    }
+
+    @Benchmark
+    public int lazy() {
+        return context.readOnly.execute(status -> touchTeams(queryFactory
+                .selectFrom(memberDSL)
+                .limit(PAGE)
+                .fetch()));
+    }
+
+    @Benchmark
+    public int fetchJoin() {
+        return context.readOnly.execute(status -> touchTeams(queryFactory
+                .selectFrom(memberDSL)
+                .join(memberDSL.team, teamDSL).fetchJoin()
+                .limit(PAGE)
+                .fetch()));
+    }
+
+    private static int touchTeams(List<MemberDSL> members) {
+        int length = 0;
+        for (MemberDSL member : members) {
+            length += member.getTeam().getName().length();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,73 @@
+package study.querydsl.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.repository.MemberJpaRepository;
+import study.querydsl.repository.MemberRepository;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 동적 쿼리 방식별 비교. BooleanBuilder vs where 파라미터, 그리고 count 포함 페이징.
+ * condition: username = 단건 조회, teamAge = 팀 + 나이 범위(약 1%)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MemberSearchBenchmark {
+
+    @Param({"username", "teamAge"})
+    public String condition;
+
+    private MemberJpaRepository memberJpaRepository;
+    private MemberRepository memberRepository;
+    private MemberSearchCondition searchCondition;
+    private PageRequest deepPage;
+
+    @Setup
+    public void setUp(BenchmarkContext context) {
+        memberJpaRepository = context.getBean(MemberJpaRepository.class);
+        memberRepository = context.getBean(MemberRepository.class);
+        searchCondition = new MemberSearchCondition();
+        if ("username".equals(condition)) {
+            searchCondition.setUsername("member" + (context.members / 2));
+        } else {
+            searchCondition.setTeamName("team3");
+            searchCondition.setAgeGoe(33);
+            searchCondition.setAgeLoe(33);
+        }
+        //마지막 페이지(offset = members - 10). offset 만큼 읽고 버리는 비용을 본다.
+        deepPage = PageRequest.of(Math.max(0, context.members / 10 - 1), 10);
+    }
+
+    @Benchmark
+    public List<MemberTeamDto> searchByBuilder() {
+        return memberJpaRepository.searchByBuilder(searchCondition);
+    }
+
+    @Benchmark
+    public List<MemberTeamDto> searchByWhere() {
+        return memberJpaRepository.searchByWhere(searchCondition);
+    }
+
+    @Benchmark
+    public Page<MemberTeamDto> searchPageComplexFirstPage() {
+        return memberRepository.searchPageComplex(new MemberSearchCondition(), PageRequest.of(0, 10));
+    }
+
+    @Benchmark
+    public Page<MemberTeamDto> searchPageComplexDeepPage() {
+        return memberRepository.searchPageComplex(new MemberSearchCondition(), deepPage);
+    }
+}
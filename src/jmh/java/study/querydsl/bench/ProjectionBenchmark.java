@@ -0,0 +1,73 @@
+package study.querydsl.bench;
+
+import com.querydsl.core.types.Projections;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import study.querydsl.dto.MemberDto;
+import study.querydsl.dto.QMemberDto;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static study.querydsl.entity.QMemberDSL.memberDSL;
+
+/**
+ * DTO 프로젝션 방식별 비교(QuerydslBasicTest의 findDtoBy* 와 같은 쿼리).
+ * 한 팀(전체의 1/10)을 통째로 읽어서 DTO 생성 비용이 드러나게 한다.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ProjectionBenchmark {
+
+    private BenchmarkContext context;
+    private JPAQueryFactory queryFactory;
+
+    @Setup
+    public void setUp(BenchmarkContext context) {
+        this.context = context;
+        this.queryFactory = context.getBean(JPAQueryFactory.class);
+    }
+
+    @Benchmark
+    public List<MemberDto> bean() {
+        return context.readOnly.execute(status -> queryFactory
+                .select(Projections.bean(MemberDto.class, memberDSL.username, memberDSL.age))
+                .from(memberDSL)
+                .where(memberDSL.team.name.eq("team3"))
+                .fetch());
+    }
+
+    @Benchmark
+    public List<MemberDto> fields() {
+        return context.readOnly.execute(status -> queryFactory
+                .select(Projections.fields(MemberDto.class, memberDSL.username, memberDSL.age))
+                .from(memberDSL)
+                .where(memberDSL.team.name.eq("team3"))
+                .fetch());
+    }
+
+    @Benchmark
+    public List<MemberDto> constructor() {
+        return context.readOnly.execute(status -> queryFactory
+                .select(Projections.constructor(MemberDto.class, memberDSL.username, memberDSL.age))
+                .from(memberDSL)
+                .where(memberDSL.team.name.eq("team3"))
+                .fetch());
+    }
+
+    @Benchmark
+    public List<MemberDto> queryProjection() {
+        return context.readOnly.execute(status -> queryFactory
+                .select(new QMemberDto(memberDSL.username, memberDSL.age))
+                .from(memberDSL)
+                .where(memberDSL.team.name.eq("team3"))
+                .fetch());
+    }
+}
@@ -0,0 +1,62 @@
+package study.querydsl.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.repository.MemberFetchPlan;
+import study.querydsl.repository.MemberJpaRepository;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 회원 전체를 읽을 때 관리 엔티티 / 읽기 전용 엔티티 / DTO 프로젝션 비교.
+ * 시간보다 할당량(gc.alloc.rate.norm)과 GC 횟수를 보려는 것이므로 gc 프로파일러와 같이, 힙을 고정해서 돌린다.
+ * ./gradlew jmh -Pmembers=1000000 -PjmhIncludes=ReadOnlyBenchmark -PjmhProfilers=gc -PjmhHeap=4g
+ *
+ * 아직 1M 결과를 기록하지 않았다(이 벤치마크를 돌릴 수 있는 환경에서 측정한 적이 없음). 숫자를 남길 때는 아래 표를 채운다.
+ * JDK: (java -version)   힙: -Xms/-Xmx (jmhHeap)   members: 1000000
+ * | 메서드            | ms/op | gc.alloc.rate.norm (B/op) | gc.count | gc.time (ms) |
+ * | managedEntities  |       |                           |          |              |
+ * | readOnlyEntities |       |                           |          |              |
+ * | summaryDto       |       |                           |          |              |
+ * 1M은 H2 메모리 DB와 읽은 결과가 한 힙에 있으므로 힙이 작으면 관리 엔티티 쪽이 OOM으로 끝날 수 있다.
+ * 기대하는 차이: 읽기 전용 엔티티는 스냅샷(Object[])이 없고, DTO는 영속성 컨텍스트 항목과 팀 프록시도 없다.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReadOnlyBenchmark {
+
+    private MemberJpaRepository memberJpaRepository;
+    //관리 엔티티는 쓰기 트랜잭션 기준(스냅샷까지 만들어짐)
+    private TransactionTemplate readWrite;
+    private TransactionTemplate readOnly;
+
+    @Setup
+    public void setUp(BenchmarkContext context) {
+        this.memberJpaRepository = context.getBean(MemberJpaRepository.class);
+        this.readWrite = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        this.readOnly = context.readOnly;
+    }
+
+    @Benchmark
+    public int managedEntities() {
+        return readWrite.execute(status -> memberJpaRepository.findAll_Querydsl(MemberFetchPlan.LAZY).size());
+    }
+
+    @Benchmark
+    public int readOnlyEntities() {
+        return readWrite.execute(status -> memberJpaRepository.findAll_QuerydslReadOnly(MemberFetchPlan.LAZY).size());
+    }
+
+    @Benchmark
+    public int summaryDto() {
+        return readOnly.execute(status -> memberJpaRepository.findAllSummary().size());
+    }
+}
@@ -4,6 +4,8 @@ import com.querydsl.jpa.impl.JPAQueryFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import study.querydsl.monitor.InstrumentedJPAQueryFactory;
+import study.querydsl.monitor.QueryMetrics;
 
 import javax.persistence.EntityManager;
 
@@ -15,7 +17,8 @@ public class QuerydslStartApplication {
     }
 
     @Bean
-    JPAQueryFactory jpaQueryFactory(EntityManager em){
-        return new JPAQueryFactory(em);
+    JPAQueryFactory jpaQueryFactory(EntityManager em, QueryMetrics queryMetrics){
+        //쿼리 모양별 실행시간/row 수를 기록하는 팩토리
+        return new InstrumentedJPAQueryFactory(em, queryMetrics);
     }
 }
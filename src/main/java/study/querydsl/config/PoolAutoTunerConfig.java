@@ -0,0 +1,54 @@
+package study.querydsl.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import study.querydsl.datasource.PoolAutoTuner;
+import study.querydsl.datasource.ReplicaTarget;
+import study.querydsl.datasource.ReplicationRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * member.pool-tuner.enabled=true 일 때 Hikari 풀 크기를 자동 조절한다(prod 프로필에서 켬).
+ * routing 프로필이면 원본과 복제본 풀을 각각, 아니면 spring.datasource 풀 하나를 조절한다.
+ */
+@Configuration
+@ConditionalOnProperty(name = "member.pool-tuner.enabled", havingValue = "true")
+public class PoolAutoTunerConfig {
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public PoolAutoTuner poolAutoTuner(DataSource dataSource,
+                                       ObjectProvider<ReplicationRoutingDataSource> routingDataSource,
+                                       MeterRegistry registry,
+                                       @Value("${member.pool-tuner.min-size:5}") int minSize,
+                                       @Value("${member.pool-tuner.max-size:40}") int maxSize,
+                                       @Value("${member.pool-tuner.headroom:1.5}") double headroom,
+                                       @Value("${member.pool-tuner.shrink-after:6}") int shrinkAfter,
+                                       @Value("${member.pool-tuner.interval:10s}") Duration interval) throws SQLException {
+        List<HikariDataSource> pools = new ArrayList<>();
+        ReplicationRoutingDataSource routing = routingDataSource.getIfAvailable();
+        if (routing != null) {
+            pools.add(routing.getPrimary());
+            for (ReplicaTarget replica : routing.getReplicas()) {
+                pools.add(replica.getDataSource());
+            }
+        } else if (dataSource.isWrapperFor(HikariDataSource.class)) {
+            HikariDataSource pool = dataSource.unwrap(HikariDataSource.class);
+            //메트릭 태그(pool)로 찾으므로 이름이 있어야 한다.
+            if (pool.getPoolName() == null) {
+                pool.setPoolName(ReplicationRoutingDataSource.PRIMARY);
+            }
+            pools.add(pool);
+        }
+        return new PoolAutoTuner(pools, registry, minSize, maxSize, headroom, shrinkAfter, interval);
+    }
+}
@@ -0,0 +1,45 @@
+package study.querydsl.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * content/count 쿼리를 동시에 날릴 때 쓰는 실행기.
+ * 큐가 가득 차면 바로 거절해서 DB 커넥션 풀보다 많은 쿼리가 쌓이지 않게 한다.
+ * JDK 21 이상에서 virtual-threads=true 면 가상 스레드를 쓴다(빌드는 11 기준이라 리플렉션으로 생성).
+ */
+@Configuration
+public class QueryExecutorConfig {
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService memberQueryExecutor(@Value("${member.async.pool-size:8}") int poolSize,
+                                               @Value("${member.async.queue-capacity:64}") int queueCapacity,
+                                               @Value("${member.async.virtual-threads:false}") boolean virtualThreads) {
+        if (virtualThreads) {
+            try {
+                return (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("가상 스레드는 JDK 21 이상에서만 사용할 수 있습니다.", e);
+            }
+        }
+        AtomicInteger sequence = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "member-query-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+}
@@ -0,0 +1,83 @@
+package study.querydsl.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import study.querydsl.datasource.ReplicaHealthChecker;
+import study.querydsl.datasource.ReplicaSelector;
+import study.querydsl.datasource.ReplicaTarget;
+import study.querydsl.datasource.ReplicationRoutingDataSource;
+import study.querydsl.datasource.RoutingDataSourceProperties;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * routing 프로필에서 원본/복제본 분리. spring.datasource 대신 member.datasource.* 를 쓴다.
+ * 풀마다 이름(primary, replica 이름)이 붙은 hikaricp.* 메트릭이 나간다.
+ */
+@Configuration
+@Profile("routing")
+@EnableConfigurationProperties(RoutingDataSourceProperties.class)
+public class RoutingDataSourceConfig {
+
+    @Bean(destroyMethod = "close")
+    public ReplicationRoutingDataSource routingDataSource(RoutingDataSourceProperties properties,
+                                                          ObjectProvider<MeterRegistry> meterRegistry) {
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        HikariDataSource primary = pool(ReplicationRoutingDataSource.PRIMARY, properties.getPrimary(), registry);
+        List<ReplicaTarget> replicas = new ArrayList<>();
+        for (RoutingDataSourceProperties.Target target : properties.getReplicas()) {
+            ReplicaTarget replica = new ReplicaTarget(target.getName(), pool(target.getName(), target, registry));
+            if (registry != null) {
+                Gauge.builder("replica.lag.seconds", replica, ReplicaTarget::getLagSeconds)
+                        .tag("pool", replica.getName())
+                        .register(registry);
+                Gauge.builder("replica.healthy", replica, r -> r.isHealthy() ? 1 : 0)
+                        .tag("pool", replica.getName())
+                        .register(registry);
+            }
+            replicas.add(replica);
+        }
+        return new ReplicationRoutingDataSource(primary, new ReplicaSelector(replicas, properties.getStrategy()));
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public ReplicaHealthChecker replicaHealthChecker(ReplicationRoutingDataSource routingDataSource,
+                                                     RoutingDataSourceProperties properties) {
+        return new ReplicaHealthChecker(routingDataSource.getReplicas(), properties.getLagQuery(),
+                properties.getLagColumn(), properties.getMaxLag(), properties.getCheckInterval());
+    }
+
+    //트랜잭션의 readOnly 설정이 끝난 뒤 첫 쿼리 때 커넥션을 얻어야 라우팅이 된다.
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicationRoutingDataSource routingDataSource) {
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    private static HikariDataSource pool(String name, RoutingDataSourceProperties.Target target, MeterRegistry registry) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName(name);
+        dataSource.setJdbcUrl(target.getUrl());
+        dataSource.setUsername(target.getUsername());
+        dataSource.setPassword(target.getPassword());
+        if (target.getDriverClassName() != null) {
+            dataSource.setDriverClassName(target.getDriverClassName());
+        }
+        dataSource.setMaximumPoolSize(target.getMaximumPoolSize());
+        target.getDataSourceProperties().forEach(dataSource::addDataSourceProperty);
+        if (registry != null) {
+            dataSource.setMetricRegistry(registry);
+        }
+        return dataSource;
+    }
+}
@@ -0,0 +1,29 @@
+package study.querydsl.config;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.format.FormatterRegistry;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import study.querydsl.export.ExportFormat;
+import study.querydsl.monitor.QueryCountInterceptor;
+import study.querydsl.repository.SearchEngine;
+
+@Configuration
+@RequiredArgsConstructor
+public class WebConfig implements WebMvcConfigurer {
+
+    private final QueryCountInterceptor queryCountInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(queryCountInterceptor);
+    }
+
+    //변환 실패는 MethodArgumentTypeMismatchException이 되어 400으로 응답한다.
+    @Override
+    public void addFormatters(FormatterRegistry registry) {
+        registry.addConverter(String.class, SearchEngine.class, SearchEngine::from);
+        registry.addConverter(String.class, ExportFormat.class, ExportFormat::from);
+    }
+}
@@ -1,15 +1,19 @@
 package study.querydsl.controller;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 import study.querydsl.entity.MemberDSL;
 import study.querydsl.entity.TeamDSL;
+import study.querydsl.repository.MemberJpaRepository;
 
 import javax.annotation.PostConstruct;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.List;
 
 @Profile("local")
 @Component
@@ -28,6 +32,8 @@ public class InitMember {
 
         @PersistenceContext
         EntityManager em;
+        @Autowired
+        MemberJpaRepository memberJpaRepository;
 
         @Transactional
         public void init() {
@@ -35,10 +41,12 @@ public class InitMember {
             TeamDSL teamB = new TeamDSL("teamB");
             em.persist(teamA);
             em.persist(teamB);
+            List<MemberDSL> members = new ArrayList<>();
             for (int i = 0; i < 100; i++) {
                 TeamDSL selectedTeam = i % 2 == 0 ? teamA : teamB;
-                em.persist(new MemberDSL("member" + i, i, selectedTeam));
+                members.add(MemberDSL.forBulkInsert("member" + i, i, selectedTeam));
             }
+            memberJpaRepository.saveAll(members);
         }
     }
 }
\ No newline at end of file
@@ -1,15 +1,36 @@
 package study.querydsl.controller;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import reactor.core.publisher.Flux;
+import study.querydsl.dto.MemberCursor;
+import study.querydsl.dto.MemberKeysetPage;
 import study.querydsl.dto.MemberSearchCondition;
 import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.dto.TeamStatsDto;
+import study.querydsl.export.ExportFormat;
+import study.querydsl.export.MemberExporter;
+import study.querydsl.repository.MemberAsyncSearchRepository;
 import study.querydsl.repository.MemberJpaRepository;
+import study.querydsl.repository.MemberReactiveSearchRepository;
 import study.querydsl.repository.MemberRepository;
+import study.querydsl.repository.MemberStatsRepository;
+import study.querydsl.repository.SearchEngine;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @RestController
@@ -18,15 +39,84 @@ public class MemberController {
 
     private final MemberJpaRepository memberJpaRepository;
     private final MemberRepository memberRepository;
+    private final MemberAsyncSearchRepository memberAsyncSearchRepository;
+    private final MemberReactiveSearchRepository memberReactiveSearchRepository;
+    private final MemberExporter memberExporter;
+    private final MemberStatsRepository memberStatsRepository;
 
+    //키셋 페이지 크기 상한. /v4와 같은 값
+    @Value("${member.async.max-page-size:1000}")
+    private int maxPageSize;
+
+    //engine=columnar 면 메모리 컬럼 인덱스로 처리(준비 안 됐으면 SQL)
     @GetMapping("/v1/members")
-    public List<MemberTeamDto> searchMemberV1(MemberSearchCondition condition) {
+    public List<MemberTeamDto> searchMemberV1(MemberSearchCondition condition,
+                                              @RequestParam(defaultValue = "sql") SearchEngine engine) {
+        if (engine == SearchEngine.COLUMNAR) {
+            return memberRepository.search(condition, engine);
+        }
         return memberJpaRepository.searchByWhere(condition);
     }
 
+    //팀별 회원 수, 나이 평균/최소/최대/분포
+    @GetMapping("/v1/members/stats")
+    public List<TeamStatsDto> memberStats(MemberSearchCondition condition) {
+        return memberStatsRepository.statsByTeam(condition);
+    }
+
+    //asOf(예: 2026-01-01T00:00:00) 시점에 있던 회원. 지금은 삭제된 회원도 나온다.
+    @GetMapping("/v1/members/as-of")
+    public List<MemberTeamDto> searchMemberAsOf(MemberSearchCondition condition,
+                                                @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime asOf) {
+        return memberRepository.searchAsOf(condition, asOf);
+    }
+
+    //조건 여러 개를 한 번에. 응답은 요청한 조건 순서대로 조건별 결과 목록
+    @PostMapping("/v1/members/batch")
+    public List<List<MemberTeamDto>> searchMemberBatch(@RequestBody List<MemberSearchCondition> conditions) {
+        return memberRepository.searchBatch(conditions);
+    }
+
+    //전체 결과를 메모리에 올리지 않고 ndjson/csv로 바로 흘려보냄
+    @GetMapping("/v1/members/export")
+    public ResponseEntity<StreamingResponseBody> exportMembers(MemberSearchCondition condition,
+                                                               @RequestParam(defaultValue = "ndjson") ExportFormat format) {
+        StreamingResponseBody body = out -> memberExporter.export(condition, format, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(format.getContentType()))
+                .body(body);
+    }
+
     @GetMapping("/v2/members")
     public Page<MemberTeamDto> searchMemberV2(MemberSearchCondition condition, Pageable pageable){
-        return memberRepository.searchPageComplex(condition, pageable);
+        //content, count 쿼리를 동시에 실행
+        return memberAsyncSearchRepository.searchPageComplex(condition, pageable);
+    }
+
+    //키셋 페이징. 응답의 next 토큰을 다음 요청에 그대로 넘기면 됨. 잘못된 토큰이나 size는 400
+    @GetMapping("/v3/members")
+    public MemberKeysetPage searchMemberV3(MemberSearchCondition condition,
+                                          @RequestParam(required = false) String next,
+                                          @RequestParam(defaultValue = "20") int size) {
+        if (size < 1 || size > maxPageSize) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "size는 1 이상 " + maxPageSize + " 이하여야 합니다: " + size);
+        }
+        return memberRepository.searchByKeyset(condition, cursor(next), size);
     }
 
+    //키셋 페이지를 조회하는 대로 한 줄씩 ndjson으로 보낸다. 조회 중에 요청 스레드를 잡고 있지 않음
+    @GetMapping(value = "/v4/members", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<MemberTeamDto> searchMemberV4(MemberSearchCondition condition,
+                                              @RequestParam(defaultValue = "100") int size) {
+        return memberReactiveSearchRepository.search(condition, size);
+    }
+
+    private static MemberCursor cursor(String next) {
+        try {
+            return MemberCursor.decode(next);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
 }
@@ -0,0 +1,33 @@
+package study.querydsl.datasource;
+
+import java.util.function.Supplier;
+
+/**
+ * 스프링 트랜잭션 밖에서 직접 연 EntityManager(MemberAsyncSearchRepository 등)를 복제본으로 보내고 싶을 때 쓴다.
+ * 스프링 트랜잭션 안에서는 @Transactional(readOnly = true) 로 결정된다.
+ */
+public final class DataSourceRoute {
+
+    private static final ThreadLocal<Boolean> READ_ONLY = new ThreadLocal<>();
+
+    private DataSourceRoute() {
+    }
+
+    public static <T> T readOnly(Supplier<T> work) {
+        Boolean previous = READ_ONLY.get();
+        READ_ONLY.set(Boolean.TRUE);
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                READ_ONLY.remove();
+            } else {
+                READ_ONLY.set(previous);
+            }
+        }
+    }
+
+    static boolean isReadOnly() {
+        return Boolean.TRUE.equals(READ_ONLY.get());
+    }
+}
@@ -0,0 +1,146 @@
+package study.querydsl.datasource;
+
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 관측한 동시성으로 풀 크기(maximumPoolSize)를 조절한다.
+ * 리틀의 법칙: 평균 사용 중 커넥션 = 처리량 x 평균 점유 시간 = 구간 동안 hikaricp.connections.usage 합계 / 구간 길이.
+ * 여기에 지금 빌려간 커넥션 수와 대기 스레드 수를 더해 여유(headroom)를 곱한 값을 목표로 한다.
+ * 늘릴 때는 바로, 줄일 때는 shrinkAfter 구간 연속으로 남을 때만 절반씩 줄인다.
+ */
+@Slf4j
+public class PoolAutoTuner {
+
+    private static final String USAGE = "hikaricp.connections.usage";
+
+    private final List<Pool> pools = new ArrayList<>();
+    private final MeterRegistry registry;
+    private final int minSize;
+    private final int maxSize;
+    private final double headroom;
+    private final int shrinkAfter;
+    private final Duration interval;
+    private ScheduledExecutorService scheduler;
+
+    public PoolAutoTuner(List<HikariDataSource> dataSources, MeterRegistry registry, int minSize, int maxSize,
+                         double headroom, int shrinkAfter, Duration interval) {
+        this.registry = registry;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.headroom = headroom;
+        this.shrinkAfter = shrinkAfter;
+        this.interval = interval;
+        for (HikariDataSource dataSource : dataSources) {
+            Pool pool = new Pool(dataSource);
+            Gauge.builder("hikaricp.connections.autotune.target", pool.target, AtomicInteger::get)
+                    .tag("pool", dataSource.getPoolName())
+                    .register(registry);
+            pools.add(pool);
+        }
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pool-auto-tuner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::tuneAll, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public void tuneAll() {
+        for (Pool pool : pools) {
+            try {
+                tune(pool);
+            } catch (RuntimeException e) {
+                log.warn("풀 {} 크기 조절 실패", pool.dataSource.getPoolName(), e);
+            }
+        }
+    }
+
+    private void tune(Pool pool) {
+        HikariPoolMXBean poolBean = pool.dataSource.getHikariPoolMXBean();
+        if (poolBean == null) {
+            //아직 첫 커넥션을 얻기 전
+            return;
+        }
+        long now = System.nanoTime();
+        //구간 경계에 걸친 점유 시간은 놓을 때 한꺼번에 잡히므로 풀에 있는 커넥션 수를 넘지 않게 자른다.
+        double busy = Math.min(pool.busyConnections(now), poolBean.getTotalConnections());
+        double demand = Math.max(busy, poolBean.getActiveConnections()) + poolBean.getThreadsAwaitingConnection();
+
+        HikariConfigMXBean config = pool.dataSource.getHikariConfigMXBean();
+        int current = config.getMaximumPoolSize();
+        int desired = desiredSize(demand);
+        int next = current;
+        if (desired > current) {
+            next = desired;
+            pool.lowStreak = 0;
+        } else if (desired < current && ++pool.lowStreak >= shrinkAfter) {
+            next = current - Math.max(1, (current - desired) / 2);
+            pool.lowStreak = 0;
+        } else if (desired == current) {
+            pool.lowStreak = 0;
+        }
+        pool.target.set(desired);
+        if (next != current) {
+            log.info("풀 {} 크기 {} -> {} (사용 중 평균 {}, 대기 {})", pool.dataSource.getPoolName(), current, next,
+                    String.format("%.1f", busy), poolBean.getThreadsAwaitingConnection());
+            if (config.getMinimumIdle() > next) {
+                config.setMinimumIdle(next);
+            }
+            config.setMaximumPoolSize(next);
+        }
+    }
+
+    int desiredSize(double demand) {
+        int size = (int) Math.ceil(demand * headroom);
+        return Math.max(minSize, Math.min(maxSize, size));
+    }
+
+    private class Pool {
+
+        private final HikariDataSource dataSource;
+        private final AtomicInteger target = new AtomicInteger();
+        private long lastNanos;
+        private double lastUsageNanos;
+        private int lowStreak;
+
+        private Pool(HikariDataSource dataSource) {
+            this.dataSource = dataSource;
+            //시작 전까지 쌓인 사용 시간은 첫 구간에 넣지 않는다.
+            busyConnections(System.nanoTime());
+        }
+
+        //직전 구간의 평균 사용 중 커넥션 수. 풀에 메트릭이 연결돼 있지 않으면 0
+        private double busyConnections(long now) {
+            Timer usage = registry.find(USAGE).tag("pool", dataSource.getPoolName()).timer();
+            double usageNanos = usage != null ? usage.totalTime(TimeUnit.NANOSECONDS) : 0;
+            long elapsed = now - lastNanos;
+            double busy = elapsed > 0 ? (usageNanos - lastUsageNanos) / elapsed : 0;
+            lastNanos = now;
+            lastUsageNanos = usageNanos;
+            return busy;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package study.querydsl.datasource;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.StringUtils;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 복제본마다 주기적으로 지연을 확인한다. lagQuery가 없으면(H2 등) 접속만 확인.
+ * MySQL이면 lagQuery = "SHOW REPLICA STATUS", lagColumn = "Seconds_Behind_Source".
+ * 지연이 maxLag 보다 크거나, 복제가 멈췄거나(null), 접속이 안 되면 비정상으로 보고 라우팅에서 뺀다.
+ */
+@Slf4j
+public class ReplicaHealthChecker {
+
+    private final List<ReplicaTarget> replicas;
+    private final String lagQuery;
+    private final String lagColumn;
+    private final long maxLagSeconds;
+    private final Duration interval;
+    private ScheduledExecutorService scheduler;
+
+    public ReplicaHealthChecker(List<ReplicaTarget> replicas, String lagQuery, String lagColumn,
+                                Duration maxLag, Duration interval) {
+        this.replicas = replicas;
+        this.lagQuery = lagQuery;
+        this.lagColumn = lagColumn;
+        this.maxLagSeconds = maxLag.getSeconds();
+        this.interval = interval;
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-health-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::checkAll, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public void checkAll() {
+        for (ReplicaTarget replica : replicas) {
+            check(replica);
+        }
+    }
+
+    private void check(ReplicaTarget replica) {
+        try (Connection connection = replica.getDataSource().getConnection();
+             Statement statement = connection.createStatement()) {
+            long lag = 0;
+            if (StringUtils.hasText(lagQuery)) {
+                try (ResultSet rs = statement.executeQuery(lagQuery)) {
+                    //복제 설정이 없거나 멈춰 있으면 row가 없거나 값이 null
+                    lag = Long.MAX_VALUE;
+                    if (rs.next()) {
+                        long value = rs.getLong(lagColumn);
+                        lag = rs.wasNull() ? Long.MAX_VALUE : value;
+                    }
+                }
+            } else {
+                statement.execute("select 1");
+            }
+            boolean healthy = lag <= maxLagSeconds;
+            if (replica.isHealthy() && !healthy) {
+                log.warn("복제본 {} 지연 {}초, 원본으로 우회합니다.", replica.getName(), lag);
+            }
+            replica.update(healthy, lag);
+        } catch (Exception e) {
+            if (replica.isHealthy()) {
+                log.warn("복제본 {} 상태 확인 실패, 원본으로 우회합니다.", replica.getName(), e);
+            }
+            replica.update(false, Long.MAX_VALUE);
+        }
+    }
+}
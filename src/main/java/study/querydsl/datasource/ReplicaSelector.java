@@ -0,0 +1,46 @@
+package study.querydsl.datasource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** 정상(지연이 허용치 이내)인 복제본 중 하나를 고른다. 없으면 null → 원본(primary)으로. */
+public class ReplicaSelector {
+
+    public enum Strategy { ROUND_ROBIN, LEAST_CONNECTIONS }
+
+    private final List<ReplicaTarget> replicas;
+    private final Strategy strategy;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ReplicaSelector(List<ReplicaTarget> replicas, Strategy strategy) {
+        this.replicas = replicas;
+        this.strategy = strategy;
+    }
+
+    public ReplicaTarget select() {
+        List<ReplicaTarget> healthy = new ArrayList<>(replicas.size());
+        for (ReplicaTarget replica : replicas) {
+            if (replica.isHealthy()) {
+                healthy.add(replica);
+            }
+        }
+        if (healthy.isEmpty()) {
+            return null;
+        }
+        if (strategy == Strategy.LEAST_CONNECTIONS) {
+            ReplicaTarget least = healthy.get(0);
+            for (ReplicaTarget replica : healthy) {
+                if (replica.activeConnections() < least.activeConnections()) {
+                    least = replica;
+                }
+            }
+            return least;
+        }
+        return healthy.get(Math.floorMod(next.getAndIncrement(), healthy.size()));
+    }
+
+    public List<ReplicaTarget> getReplicas() {
+        return replicas;
+    }
+}
@@ -0,0 +1,30 @@
+package study.querydsl.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import lombok.Getter;
+
+/** 복제본 하나. 지연(lag)과 상태는 ReplicaHealthChecker가 주기적으로 갱신한다. */
+@Getter
+public class ReplicaTarget {
+
+    private final String name;
+    private final HikariDataSource dataSource;
+    private volatile boolean healthy = true;
+    private volatile long lagSeconds;
+
+    public ReplicaTarget(String name, HikariDataSource dataSource) {
+        this.name = name;
+        this.dataSource = dataSource;
+    }
+
+    void update(boolean healthy, long lagSeconds) {
+        this.healthy = healthy;
+        this.lagSeconds = lagSeconds;
+    }
+
+    int activeConnections() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        return pool != null ? pool.getActiveConnections() : 0;
+    }
+}
@@ -0,0 +1,62 @@
+package study.querydsl.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 읽기 전용 트랜잭션은 복제본으로, 나머지는 원본으로 보낸다.
+ * 트랜잭션의 readOnly 여부는 커넥션을 얻은 뒤에야 정해지므로 반드시 LazyConnectionDataSourceProxy로 감싸서 쓴다.
+ */
+public class ReplicationRoutingDataSource extends AbstractRoutingDataSource implements AutoCloseable {
+
+    public static final String PRIMARY = "primary";
+
+    private final HikariDataSource primary;
+    private final ReplicaSelector replicaSelector;
+
+    public ReplicationRoutingDataSource(HikariDataSource primary, ReplicaSelector replicaSelector) {
+        this.primary = primary;
+        this.replicaSelector = replicaSelector;
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (ReplicaTarget replica : replicaSelector.getReplicas()) {
+            targets.put(replica.getName(), replica.getDataSource());
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        boolean readOnly = TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                || DataSourceRoute.isReadOnly();
+        if (!readOnly) {
+            return PRIMARY;
+        }
+        //정상인 복제본이 없으면(지연이 크거나 죽었으면) 원본에서 읽는다.
+        ReplicaTarget replica = replicaSelector.select();
+        return replica != null ? replica.getName() : PRIMARY;
+    }
+
+    public HikariDataSource getPrimary() {
+        return primary;
+    }
+
+    public List<ReplicaTarget> getReplicas() {
+        return replicaSelector.getReplicas();
+    }
+
+    @Override
+    public void close() {
+        for (ReplicaTarget replica : replicaSelector.getReplicas()) {
+            replica.getDataSource().close();
+        }
+        primary.close();
+    }
+}
@@ -0,0 +1,37 @@
+package study.querydsl.datasource;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Getter @Setter
+@ConfigurationProperties(prefix = "member.datasource")
+public class RoutingDataSourceProperties {
+
+    private Target primary = new Target();
+    private List<Target> replicas = new ArrayList<>();
+    private ReplicaSelector.Strategy strategy = ReplicaSelector.Strategy.ROUND_ROBIN;
+    private Duration maxLag = Duration.ofSeconds(5);
+    private Duration checkInterval = Duration.ofSeconds(5);
+    //비어 있으면 접속만 확인. MySQL 8.0.22+ 는 SHOW REPLICA STATUS
+    private String lagQuery;
+    private String lagColumn = "Seconds_Behind_Source";
+
+    @Getter @Setter
+    public static class Target {
+        private String name;
+        private String url;
+        private String username;
+        private String password;
+        private String driverClassName;
+        private int maximumPoolSize = 10;
+        //드라이버 설정(cachePrepStmts 등). spring.datasource.hikari.data-source-properties 와 같다.
+        private Map<String, String> dataSourceProperties = new LinkedHashMap<>();
+    }
+}
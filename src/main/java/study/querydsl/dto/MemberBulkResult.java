@@ -0,0 +1,27 @@
+package study.querydsl.dto;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Collections;
+import java.util.List;
+
+/** 벌크 수정/삭제 결과. 청크(id 구간)별로 반영된 row 수 */
+@Getter
+@ToString
+public class MemberBulkResult {
+
+    private final List<Long> chunkCounts;
+
+    public MemberBulkResult(List<Long> chunkCounts) {
+        this.chunkCounts = Collections.unmodifiableList(chunkCounts);
+    }
+
+    public long getTotal() {
+        long total = 0;
+        for (Long count : chunkCounts) {
+            total += count;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,22 @@
+package study.querydsl.dto;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/** 키셋 페이징 결과. 다음 페이지가 없으면 next는 null */
+@Getter
+public class MemberKeysetPage {
+
+    private final List<MemberTeamDto> content;
+    private final String next;
+
+    public MemberKeysetPage(List<MemberTeamDto> content, MemberCursor nextCursor) {
+        this.content = content;
+        this.next = nextCursor != null ? nextCursor.encode() : null;
+    }
+
+    public boolean isHasNext() {
+        return next != null;
+    }
+}
@@ -2,6 +2,8 @@ package study.querydsl.dto;
 
 import lombok.Data;
 
+import static org.springframework.util.StringUtils.hasText;
+
 @Data
 public class MemberSearchCondition {
     //회원명, 팀명, 나이(ageGoe, ageLoe) 조건
@@ -9,4 +11,20 @@ public class MemberSearchCondition {
     private String teamName;
     private Integer ageGoe;
     private Integer ageLoe;
+    //username 비교 방식. null이면 EXACT
+    private UsernameMatch usernameMatch;
+
+    //캐시 키로 쓸 때 "" 와 null 을 같은 조건으로 보기 위함.
+    public MemberSearchCondition normalized() {
+        MemberSearchCondition normalized = new MemberSearchCondition();
+        normalized.setUsername(hasText(username) ? username : null);
+        normalized.setTeamName(hasText(teamName) ? teamName : null);
+        normalized.setAgeGoe(ageGoe);
+        normalized.setAgeLoe(ageLoe);
+        //EXACT와 null은 같은 조건
+        if (hasText(username) && usernameMatch != null && usernameMatch != UsernameMatch.EXACT) {
+            normalized.setUsernameMatch(usernameMatch);
+        }
+        return normalized;
+    }
 }
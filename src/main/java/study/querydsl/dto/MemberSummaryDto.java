@@ -0,0 +1,21 @@
+package study.querydsl.dto;
+
+import com.querydsl.core.annotations.QueryProjection;
+import lombok.Data;
+
+//조회 전용. 엔티티/팀 프록시 없이 team_id FK 값만 담는다.
+@Data
+public class MemberSummaryDto {
+    private Long memberId;
+    private String username;
+    private int age;
+    private Long teamId;
+
+    @QueryProjection
+    public MemberSummaryDto(Long memberId, String username, int age, Long teamId) {
+        this.memberId = memberId;
+        this.username = username;
+        this.age = age;
+        this.teamId = teamId;
+    }
+}
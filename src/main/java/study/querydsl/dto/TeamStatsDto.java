@@ -0,0 +1,33 @@
+package study.querydsl.dto;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Collections;
+import java.util.SortedMap;
+
+/** 팀별 회원 통계. 팀 없는 회원은 teamId, teamName 이 null 인 한 줄로 묶인다. */
+@Getter
+@ToString
+public class TeamStatsDto {
+
+    private final Long teamId;
+    private final String teamName;
+    private final long count;
+    private final double avgAge;
+    private final int minAge;
+    private final int maxAge;
+    //구간 시작 나이 -> 회원 수. 예) 구간 폭이 10이면 20 은 20~29살
+    private final SortedMap<Integer, Long> ageHistogram;
+
+    public TeamStatsDto(Long teamId, String teamName, long count, double avgAge, int minAge, int maxAge,
+                        SortedMap<Integer, Long> ageHistogram) {
+        this.teamId = teamId;
+        this.teamName = teamName;
+        this.count = count;
+        this.avgAge = avgAge;
+        this.minAge = minAge;
+        this.maxAge = maxAge;
+        this.ageHistogram = Collections.unmodifiableSortedMap(ageHistogram);
+    }
+}
@@ -0,0 +1,13 @@
+package study.querydsl.dto;
+
+/**
+ * 회원 이름 조건을 어떻게 비교할지. 지정하지 않으면 EXACT.
+ * PREFIX는 username 인덱스 범위 검색, CONTAINS는 n-gram 인덱스로 후보를 고른 뒤 상위 k개만.
+ * CONTAINS(3글자 이상)는 페이지 검색도 인덱스 순위 순이고 전체 건수가 k를 넘지 않으며, k번째 뒤의 페이지는 거절한다.
+ * PREFIX/CONTAINS는 대소문자를 구분하지 않는다.
+ */
+public enum UsernameMatch {
+    EXACT,
+    PREFIX,
+    CONTAINS
+}
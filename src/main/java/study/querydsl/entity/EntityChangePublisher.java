@@ -0,0 +1,114 @@
+package study.querydsl.entity;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 변경 이벤트를 즉시 한 번, 트랜잭션이 끝난 뒤(커밋/롤백 모두) 한 번 더 발행한다.
+ * 트랜잭션 도중 다른 스레드가 이전 값으로 캐시를 다시 채웠을 수 있기 때문.
+ * 트랜잭션 안에서는 변경을 트랜잭션당 하나(PerTransaction)에 모아서, 끝난 뒤에는 회원/팀 이벤트를 한 번씩만 보낸다.
+ * 회원 변경의 즉시 발행도 트랜잭션에서 처음 한 번만 한다(받는 쪽은 쓰기 트랜잭션에서 캐시를 안 쓰거나 무시한다).
+ * 팀은 같은 트랜잭션에서 바로 이름으로 찾을 수 있어야 하므로 매번 즉시 발행한다.
+ * 모으는 id가 MAX_TRACKED를 넘으면 id는 버리고 벌크 변경으로 보낸다(saveAll 백만 건에서도 메모리가 일정).
+ */
+@Component
+@RequiredArgsConstructor
+public class EntityChangePublisher {
+
+    static final int MAX_TRACKED = 1_000;
+
+    private final ApplicationEventPublisher publisher;
+
+    public void publish(Object event) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publisher.publishEvent(event);
+            return;
+        }
+        Changes changes = PerTransaction.get(this, Changes::new, completed -> completed.publishTo(publisher));
+        if (changes.add(event)) {
+            publisher.publishEvent(event);
+        }
+    }
+
+    //트랜잭션 하나에서 바뀐 회원 id와 팀
+    private static final class Changes {
+        private boolean members;
+        private boolean memberBulk;
+        private final Set<Long> memberIds = new HashSet<>();
+        private boolean teams;
+        private boolean teamBulk;
+        //PrePersist 시점에는 팀 id가 없으므로 엔티티를 들고 있다가 끝난 뒤에 id를 읽는다.
+        private final Set<TeamDSL> changedTeams = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        //지금 바로 발행해야 하면 true
+        boolean add(Object event) {
+            if (event instanceof MemberChangedEvent) {
+                return addMember((MemberChangedEvent) event);
+            }
+            if (event instanceof TeamChangedEvent) {
+                addTeam((TeamChangedEvent) event);
+            }
+            return true;
+        }
+
+        private boolean addMember(MemberChangedEvent event) {
+            boolean first = !members;
+            members = true;
+            if (event.isBulk()) {
+                memberBulk = true;
+                memberIds.clear();
+                return true;
+            }
+            if (!memberBulk) {
+                memberIds.addAll(event.getMemberIds());
+                if (event.getMemberIds().isEmpty() || memberIds.size() > MAX_TRACKED) {
+                    memberBulk = true;
+                    memberIds.clear();
+                }
+            }
+            return first;
+        }
+
+        private void addTeam(TeamChangedEvent event) {
+            teams = true;
+            if (event.isBulk() || event.getTeam() == null) {
+                teamBulk = true;
+            }
+            if (teamBulk) {
+                changedTeams.clear();
+                return;
+            }
+            changedTeams.add(event.getTeam());
+            if (changedTeams.size() > MAX_TRACKED) {
+                teamBulk = true;
+                changedTeams.clear();
+            }
+        }
+
+        void publishTo(ApplicationEventPublisher publisher) {
+            if (teams) {
+                List<Long> teamIds = new ArrayList<>();
+                for (TeamDSL team : changedTeams) {
+                    if (team.getId() == null) {
+                        teamBulk = true;
+                        break;
+                    }
+                    teamIds.add(team.getId());
+                }
+                publisher.publishEvent(teamBulk ? TeamChangedEvent.bulk() : TeamChangedEvent.committed(teamIds));
+            }
+            if (members) {
+                publisher.publishEvent(memberBulk ? MemberChangedEvent.bulk() : MemberChangedEvent.committed(memberIds));
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package study.querydsl.entity;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+/**
+ * 삭제된 회원. MemberArchiver가 memberdsl에서 옮겨 온다(insert ... select 후 delete).
+ * 살아 있는 회원 테이블과 인덱스가 삭제된 row로 커지지 않게 분리해 둔 것이고, as-of 조회에서만 읽는다.
+ * 외래 키가 없어서 운영에서는 deleted_at 기준 파티션으로 바꾸거나 통째로 옮길 수 있다.
+ * team_id는 옮길 당시의 팀. 팀은 삭제되지 않는다고 보고 이름은 조회할 때 teamdsl에서 붙인다.
+ */
+@Entity
+@Table(name = "member_archive", indexes = {
+        @Index(name = "idx_archive_deleted_created", columnList = "deleted_at, created_at")
+})
+@Getter
+@NoArgsConstructor(access = AccessLevel.PROTECTED)
+@ToString(of = {"id", "username", "age", "deletedAt"})
+public class MemberArchive {
+
+    //memberdsl의 member_id를 그대로 쓴다.
+    @Id
+    @Column(name = "member_id")
+    private Long id;
+    private String username;
+    private int age;
+    @Column(name = "team_id")
+    private Long teamId;
+    private LocalDateTime createdAt;
+    @Column(nullable = false)
+    private LocalDateTime deletedAt;
+}
@@ -0,0 +1,55 @@
+package study.querydsl.entity;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * 회원 데이터 변경 이벤트. 카운트 캐시 등 조회 결과를 들고 있는 쪽에서 받아서 무효화한다.
+ * 벌크 연산은 어떤 row가 바뀌었는지 모르므로 member가 null.
+ * 트랜잭션이 끝난 뒤에는 그 트랜잭션에서 바뀐 회원 id를 모아서 한 번(COMMITTED) 보낸다(EntityChangePublisher).
+ */
+@Getter
+@ToString
+public class MemberChangedEvent {
+
+    public enum Type { PERSIST, UPDATE, REMOVE, BULK, COMMITTED }
+
+    private final Type type;
+    private final MemberDSL member;
+    @ToString.Exclude
+    private final Set<Long> memberIds;
+
+    private MemberChangedEvent(Type type, MemberDSL member, Set<Long> memberIds) {
+        this.type = type;
+        this.member = member;
+        this.memberIds = memberIds;
+    }
+
+    public static MemberChangedEvent of(Type type, MemberDSL member) {
+        return new MemberChangedEvent(type, member, null);
+    }
+
+    public static MemberChangedEvent bulk() {
+        return new MemberChangedEvent(Type.BULK, null, Collections.emptySet());
+    }
+
+    /** 트랜잭션 하나에서 바뀐 회원들 */
+    public static MemberChangedEvent committed(Set<Long> memberIds) {
+        return new MemberChangedEvent(Type.COMMITTED, null, Collections.unmodifiableSet(memberIds));
+    }
+
+    public boolean isBulk() {
+        return type == Type.BULK;
+    }
+
+    /** 바뀐 회원 id. 벌크면 비어 있다. */
+    public Set<Long> getMemberIds() {
+        if (member != null) {
+            return member.getId() != null ? Collections.singleton(member.getId()) : Collections.emptySet();
+        }
+        return memberIds;
+    }
+}
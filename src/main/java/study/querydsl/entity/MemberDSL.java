@@ -3,18 +3,35 @@ package study.querydsl.entity;
 import lombok.*;
 
 import javax.persistence.*;
+import java.time.LocalDateTime;
 
 @Entity
+@EntityListeners(MemberEntityListener.class)
+@NamedEntityGraph(name = "MemberDSL.team", attributeNodes = @NamedAttributeNode("team"))
+//검색/키셋 페이징/카운트가 테이블을 안 읽고 인덱스만으로 끝나도록 member_id까지 포함 (IndexAdvisor 참고)
+//deleted_at을 맨 앞에 둬서 인덱스가 살아 있는 회원(null) 구간과 삭제 대기 구간으로 나뉜다.
+//검색은 deleted_at is null 등호로 앞 구간만 읽고, MemberArchiver는 뒤 구간만 범위로 읽는다.
+@Table(indexes = {
+        @Index(name = "idx_member_team_age", columnList = "deleted_at, team_id, age, member_id"),
+        @Index(name = "idx_member_age", columnList = "deleted_at, age, member_id"),
+        @Index(name = "idx_member_username", columnList = "deleted_at, username")
+})
 @Getter @Setter
 @NoArgsConstructor(access = AccessLevel.PROTECTED)
 @ToString(of = {"id", "username", "age"})   //team은 양방향 연관관계이므로 제외
 public class MemberDSL {
 
-    @Id @GeneratedValue
+    //IDENTITY나 allocationSize=1 이면 insert 마다 id를 받아와야 해서 JDBC 배치가 안 됨.
+    @Id @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "member_seq_generator")
+    @SequenceGenerator(name = "member_seq_generator", sequenceName = "member_seq", allocationSize = 50)
     @Column(name = "member_id")
     private Long id;
     private String username;
     private int age;
+    @Column(updatable = false)
+    private LocalDateTime createdAt;
+    //null이면 살아 있는 회원. 값이 있으면 삭제된 것이고 MemberArchiver가 member_archive로 옮긴다.
+    private LocalDateTime deletedAt;
 
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "team_id")
@@ -29,11 +46,33 @@ public class MemberDSL {
     public MemberDSL(String username, int age, TeamDSL team){
         this.username = username;
         this.age = age;
+        //StatelessSession insert(ETL)는 @PrePersist가 안 불리므로 생성자에서
+        this.createdAt = LocalDateTime.now();
         //왜 changeTeam 하는지 체크
         if (team != null){
             chagneTeam(team);
         }
     }
+    /**
+     * team.getMembers()에는 추가하지 않고 만든다. 연관관계 주인은 member.team이라 DB에는 똑같이 저장된다.
+     * 대량 저장(saveAll)에서 팀 하나에 붙는 회원이 팀 컬렉션에 계속 쌓이지 않게 할 때 쓴다. 팀 쪽 members는 다시 읽어야 보인다.
+     */
+    public static MemberDSL forBulkInsert(String username, int age, TeamDSL team) {
+        MemberDSL member = new MemberDSL(username, age);
+        member.team = team;
+        return member;
+    }
+    public void softDelete() {
+        if (deletedAt == null) {
+            deletedAt = LocalDateTime.now();
+        }
+    }
+    public void restore() {
+        deletedAt = null;
+    }
+    public boolean isDeleted() {
+        return deletedAt != null;
+    }
     private void chagneTeam(TeamDSL team) {
         this.team = team;
         team.getMembers().add(this);
@@ -0,0 +1,29 @@
+package study.querydsl.entity;
+
+import lombok.RequiredArgsConstructor;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+//스프링 부트가 하이버네이트에 SpringBeanContainer를 등록해주므로 생성자 주입이 된다.
+@RequiredArgsConstructor
+public class MemberEntityListener {
+
+    private final EntityChangePublisher changePublisher;
+
+    @PostPersist
+    public void postPersist(MemberDSL member) {
+        changePublisher.publish(MemberChangedEvent.of(MemberChangedEvent.Type.PERSIST, member));
+    }
+
+    @PostUpdate
+    public void postUpdate(MemberDSL member) {
+        changePublisher.publish(MemberChangedEvent.of(MemberChangedEvent.Type.UPDATE, member));
+    }
+
+    @PostRemove
+    public void postRemove(MemberDSL member) {
+        changePublisher.publish(MemberChangedEvent.of(MemberChangedEvent.Type.REMOVE, member));
+    }
+}
@@ -0,0 +1,47 @@
+package study.querydsl.entity;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 트랜잭션마다 하나만 만드는 값(key로 bindResource). 트랜잭션이 끝나면(커밋/롤백) afterCompletion을 한 번 부른다.
+ * 엔티티 이벤트마다 TransactionSynchronization을 등록하면 벌크 저장에서 건수만큼 쌓이므로 이걸로 한 곳에 모은다.
+ * REQUIRES_NEW로 바깥 트랜잭션이 멈춰 있는 동안에는 풀어 두어서 안쪽 트랜잭션은 자기 값을 따로 만든다.
+ */
+public final class PerTransaction {
+
+    private PerTransaction() {
+    }
+
+    /** 트랜잭션 동기화가 켜져 있을 때만 부른다. 이 트랜잭션에서 처음이면 create로 만든다. */
+    @SuppressWarnings("unchecked")
+    public static <T> T get(Object key, Supplier<T> create, Consumer<T> afterCompletion) {
+        T value = (T) TransactionSynchronizationManager.getResource(key);
+        if (value != null) {
+            return value;
+        }
+        T created = create.get();
+        TransactionSynchronizationManager.bindResource(key, created);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void suspend() {
+                TransactionSynchronizationManager.unbindResourceIfPossible(key);
+            }
+
+            @Override
+            public void resume() {
+                TransactionSynchronizationManager.bindResource(key, created);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(key);
+                afterCompletion.accept(created);
+            }
+        });
+        return created;
+    }
+}
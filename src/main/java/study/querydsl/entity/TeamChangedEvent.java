@@ -0,0 +1,48 @@
+package study.querydsl.entity;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 팀이 생기거나 이름이 바뀌거나 삭제됨. 팀 이름 -> id 캐시를 비우는 용도.
+ * 트랜잭션이 끝난 뒤에는 바뀐 팀 id를 모아서 한 번 보내고, 너무 많으면 어떤 팀인지 없이(bulk) 보낸다.
+ */
+@Getter
+@ToString
+public class TeamChangedEvent {
+
+    private final TeamDSL team;
+    @ToString.Exclude
+    private final List<Long> teamIds;
+    private final boolean bulk;
+
+    public TeamChangedEvent(TeamDSL team) {
+        this(team, null, false);
+    }
+
+    private TeamChangedEvent(TeamDSL team, List<Long> teamIds, boolean bulk) {
+        this.team = team;
+        this.teamIds = teamIds;
+        this.bulk = bulk;
+    }
+
+    public static TeamChangedEvent committed(Collection<Long> teamIds) {
+        return new TeamChangedEvent(null, List.copyOf(teamIds), false);
+    }
+
+    public static TeamChangedEvent bulk() {
+        return new TeamChangedEvent(null, Collections.emptyList(), true);
+    }
+
+    /** 바뀐 팀 id. 벌크거나 아직 id가 없으면 비어 있다. */
+    public List<Long> getTeamIds() {
+        if (team != null) {
+            return team.getId() != null ? Collections.singletonList(team.getId()) : Collections.emptyList();
+        }
+        return teamIds;
+    }
+}
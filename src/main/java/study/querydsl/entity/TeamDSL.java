@@ -1,23 +1,33 @@
 package study.querydsl.entity;
 
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Where;
 
 import javax.persistence.*;
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
+@EntityListeners(TeamEntityListener.class)
+@Cacheable  //팀은 거의 안 바뀌므로 2차 캐시에 둔다. member.team 지연 로딩도 캐시에서 꺼냄
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@Table(indexes = @Index(name = "idx_team_name", columnList = "name"))  //TeamIdResolver의 이름 → id 조회
 @Getter  @Setter
 @NoArgsConstructor(access = AccessLevel.PROTECTED)  //JPA는 기본생성자 필요
 @ToString(of = {"id", "name"})   //team은 양방향 연관관계이므로 제외
 public class TeamDSL {
 
-    @Id @GeneratedValue
+    @Id @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "team_seq_generator")
+    @SequenceGenerator(name = "team_seq_generator", sequenceName = "team_seq", allocationSize = 50)
     @Column(name="team_id")
     private Long id;
     private String name;
 
+    //삭제된(아직 옮기지 않은) 회원은 컬렉션에 올리지 않는다.
     @OneToMany(mappedBy="team")
+    @Where(clause = "deleted_at is null")
     private List<MemberDSL> members = new ArrayList<>();
 
     public TeamDSL(String name){
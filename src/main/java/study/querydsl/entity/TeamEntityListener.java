@@ -0,0 +1,29 @@
+package study.querydsl.entity;
+
+import lombok.RequiredArgsConstructor;
+
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+import javax.persistence.PrePersist;
+
+@RequiredArgsConstructor
+public class TeamEntityListener {
+
+    private final EntityChangePublisher changePublisher;
+
+    //PostPersist는 flush 때 불리므로, 같은 트랜잭션에서 바로 이름으로 검색해도 되도록 persist 시점에 발행
+    @PrePersist
+    public void prePersist(TeamDSL team) {
+        changePublisher.publish(new TeamChangedEvent(team));
+    }
+
+    @PostUpdate
+    public void postUpdate(TeamDSL team) {
+        changePublisher.publish(new TeamChangedEvent(team));
+    }
+
+    @PostRemove
+    public void postRemove(TeamDSL team) {
+        changePublisher.publish(new TeamChangedEvent(team));
+    }
+}
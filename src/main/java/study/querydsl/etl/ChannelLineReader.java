@@ -0,0 +1,68 @@
+package study.querydsl.etl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * FileChannel을 큰 버퍼 단위로 읽어서 '\n' 기준으로 한 줄씩 돌려준다.
+ * position()은 마지막으로 돌려준 줄의 다음 byte 위치라서, 체크포인트에 저장했다가
+ * 그 위치부터 다시 읽으면 정확히 이어진다.
+ */
+class ChannelLineReader {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private byte[] line = new byte[256];
+    private long position;
+
+    ChannelLineReader(FileChannel channel, long position, int bufferSize) throws IOException {
+        this.channel = channel;
+        this.position = position;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.buffer.flip();
+        channel.position(position);
+    }
+
+    /** 다음 줄(줄바꿈 제외). 파일 끝이면 null. 마지막 줄에 줄바꿈이 없어도 돌려준다. */
+    String readLine() throws IOException {
+        int length = 0;
+        while (true) {
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                int read = channel.read(buffer);
+                buffer.flip();
+                if (read < 0) {
+                    if (length == 0) {
+                        return null;
+                    }
+                    position += length;
+                    return decode(length);
+                }
+            }
+            byte b = buffer.get();
+            if (b == '\n') {
+                position += length + 1;
+                return decode(length);
+            }
+            if (length == line.length) {
+                line = Arrays.copyOf(line, length * 2);
+            }
+            line[length++] = b;
+        }
+    }
+
+    long position() {
+        return position;
+    }
+
+    private String decode(int length) {
+        //윈도우 줄바꿈(\r\n)도 허용
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,41 @@
+package study.querydsl.etl;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * import 파티션(파일) 하나의 진행 위치. 회원 insert와 같은 트랜잭션에서 갱신하므로
+ * 중간에 죽어도 커밋된 데까지만 기록되어 있고, 다시 돌리면 중복 없이 그 다음 줄부터 이어간다.
+ */
+@Entity
+@Getter
+@ToString
+@NoArgsConstructor(access = AccessLevel.PROTECTED)
+public class EtlCheckpoint {
+
+    //job 이름 + ":" + 파일 이름
+    @Id
+    private String id;
+    //다음에 읽을 byte 위치
+    private long position;
+    private long rowCount;
+    private boolean done;
+
+    EtlCheckpoint(String id) {
+        this.id = id;
+    }
+
+    void advance(long position, long rows) {
+        this.position = position;
+        this.rowCount += rows;
+    }
+
+    void complete() {
+        this.done = true;
+    }
+}
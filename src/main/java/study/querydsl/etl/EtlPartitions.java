@@ -0,0 +1,53 @@
+package study.querydsl.etl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 파티션 작업을 파티션 수만큼의 스레드로 동시에 돌린다. 파티션마다 세션/커넥션을 따로 쓴다.
+ * 하나가 실패하면 나머지는 끝까지 돌게 두고(각자 체크포인트까지 남김) 첫 예외를 던진다.
+ */
+final class EtlPartitions {
+
+    private EtlPartitions() {
+    }
+
+    static EtlResult run(List<Callable<Long>> partitions) {
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, partitions.size()));
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (Callable<Long> partition : partitions) {
+                futures.add(executor.submit(partition));
+            }
+            List<Long> rows = new ArrayList<>();
+            RuntimeException failure = null;
+            for (Future<Long> future : futures) {
+                try {
+                    rows.add(future.get());
+                } catch (ExecutionException e) {
+                    rows.add(0L);
+                    if (failure == null) {
+                        failure = e.getCause() instanceof RuntimeException
+                                ? (RuntimeException) e.getCause()
+                                : new IllegalStateException("ETL 파티션 실패", e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return new EtlResult(rows, System.currentTimeMillis() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("ETL이 중단되었습니다.", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
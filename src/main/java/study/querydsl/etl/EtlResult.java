@@ -0,0 +1,28 @@
+package study.querydsl.etl;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/** 파티션별 처리 건수(이번 실행분)와 전체 소요 시간 */
+@Getter
+@ToString
+public class EtlResult {
+
+    private final List<Long> partitionRows;
+    private final long elapsedMillis;
+
+    EtlResult(List<Long> partitionRows, long elapsedMillis) {
+        this.partitionRows = partitionRows;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public long getTotal() {
+        return partitionRows.stream().mapToLong(Long::longValue).sum();
+    }
+
+    public long getRowsPerSecond() {
+        return elapsedMillis == 0 ? getTotal() : getTotal() * 1000 / elapsedMillis;
+    }
+}
@@ -0,0 +1,66 @@
+package study.querydsl.etl;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import study.querydsl.export.ExportFormat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 커맨드라인 ETL. 예)
+ * --spring.profiles.active=etl --etl.mode=export --etl.dir=/tmp/members --etl.format=ndjson --etl.partitions=8
+ * --spring.profiles.active=etl --etl.mode=import --etl.dir=/tmp/members --etl.format=ndjson --etl.job=members-0101
+ * --etl.resume=true 면 export도 체크포인트부터 이어간다. import는 같은 job이면 항상 이어간다.
+ */
+@Slf4j
+@Profile("etl")
+@Component
+@RequiredArgsConstructor
+public class EtlRunner implements ApplicationRunner {
+
+    private final MemberEtlExporter exporter;
+    private final MemberEtlImporter importer;
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException {
+        String mode = option(args, "etl.mode", "export");
+        Path dir = Paths.get(option(args, "etl.dir", "."));
+        ExportFormat format = ExportFormat.from(option(args, "etl.format", "ndjson"));
+
+        EtlResult result;
+        if (mode.equals("export")) {
+            Files.createDirectories(dir);
+            int partitions = Integer.parseInt(option(args, "etl.partitions", "4"));
+            boolean resume = Boolean.parseBoolean(option(args, "etl.resume", "false"));
+            result = exporter.export(dir, format, partitions, resume);
+        } else if (mode.equals("import")) {
+            String suffix = "." + format.extension();
+            List<Path> files;
+            try (Stream<Path> list = Files.list(dir)) {
+                files = list.filter(path -> path.getFileName().toString().endsWith(suffix))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+            result = importer.importFiles(option(args, "etl.job", dir.getFileName().toString()), files, format);
+        } else {
+            throw new IllegalArgumentException("etl.mode는 export 또는 import: " + mode);
+        }
+        log.info("ETL {} 완료: {}건, {}ms, {}건/초, 파티션별 {}", mode, result.getTotal(),
+                result.getElapsedMillis(), result.getRowsPerSecond(), result.getPartitionRows());
+    }
+
+    private static String option(ApplicationArguments args, String name, String defaultValue) {
+        List<String> values = args.getOptionValues(name);
+        return values == null || values.isEmpty() ? defaultValue : values.get(0);
+    }
+}
@@ -0,0 +1,207 @@
+package study.querydsl.etl;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import study.querydsl.datasource.DataSourceRoute;
+import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.export.ExportFormat;
+import study.querydsl.export.MemberRowCodec;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * 회원 전체를 member_id 범위로 나눠서 파티션마다 파일 하나(members-000.ndjson ...)로 내보낸다.
+ * StatelessSession + 스트리밍 커서라 영속성 컨텍스트도, 결과 List도 없다.
+ * checkpointEvery 건마다 파일을 디스크에 내리고 (마지막 id, 파일 위치)를 옆 .checkpoint 파일에 남긴다.
+ * resume이면 그 위치로 파일을 잘라내고 마지막 id 다음부터 이어서 쓴다.
+ * 파티션 경계는 처음 export 때 members.<형식>.bounds 파일에 파티션 수와 같이 남기고, resume은 다시 계산하지 않고 그것을 쓴다
+ * (그 사이 회원이 늘거나 지워져도 파티션 범위가 바뀌지 않는다). 파티션 수가 다르면 resume을 거절한다.
+ */
+@Component
+public class MemberEtlExporter {
+
+    private static final String SELECT_RANGE =
+            "select new study.querydsl.dto.MemberTeamDto(m.id, m.username, m.age, t.id, t.name)" +
+            " from MemberDSL m left join m.team t" +
+            " where m.id > :from and m.id <= :to and m.deletedAt is null order by m.id";
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final SessionFactory sessionFactory;
+    private final MemberRowCodec codec;
+    private final int checkpointEvery;
+
+    public MemberEtlExporter(EntityManagerFactory emf, MemberRowCodec codec,
+                             @Value("${member.etl.checkpoint-every:10000}") int checkpointEvery) {
+        this.sessionFactory = emf.unwrap(SessionFactory.class);
+        this.codec = codec;
+        this.checkpointEvery = checkpointEvery;
+    }
+
+    public EtlResult export(Path dir, ExportFormat format, int partitions, boolean resume) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("partitions는 1 이상이어야 합니다: " + partitions);
+        }
+        Path boundsFile = dir.resolve(String.format("members.%s.bounds", format.extension()));
+        long[] bounds = resume && Files.exists(boundsFile) ? savedBounds(boundsFile, partitions) : saveBounds(boundsFile, partitions);
+        List<Callable<Long>> tasks = new ArrayList<>();
+        for (int i = 0; i + 1 < bounds.length; i++) {
+            Path file = dir.resolve(String.format("members-%03d.%s", i, format.extension()));
+            long from = bounds[i];
+            long to = bounds[i + 1];
+            tasks.add(() -> DataSourceRoute.readOnly(() -> exportRange(file, format, from, to, resume)));
+        }
+        return EtlPartitions.run(tasks);
+    }
+
+    //첫 줄은 파티션 수, 둘째 줄은 경계. 체크포인트와 같이 임시 파일 -> rename
+    private long[] saveBounds(Path boundsFile, int partitions) {
+        long[] bounds = idBounds(partitions);
+        StringBuilder line = new StringBuilder();
+        for (long bound : bounds) {
+            line.append(line.length() == 0 ? "" : " ").append(bound);
+        }
+        try {
+            Path tmp = boundsFile.resolveSibling(boundsFile.getFileName() + ".tmp");
+            Files.writeString(tmp, partitions + "\n" + line);
+            Files.move(tmp, boundsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bounds;
+    }
+
+    private static long[] savedBounds(Path boundsFile, int partitions) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(boundsFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int saved = Integer.parseInt(lines.get(0).trim());
+        if (saved != partitions) {
+            throw new IllegalArgumentException(
+                    "resume은 처음 export와 같은 partitions로 해야 합니다: " + saved + " != " + partitions);
+        }
+        String line = lines.size() > 1 ? lines.get(1).trim() : "";
+        if (line.isEmpty()) {
+            return new long[0];
+        }
+        String[] values = line.split(" ");
+        long[] bounds = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bounds[i] = Long.parseLong(values[i]);
+        }
+        return bounds;
+    }
+
+    //(bounds[i], bounds[i + 1]] 이 파티션 i. 회원이 없으면 파티션도 없다.
+    private long[] idBounds(int partitions) {
+        Object[] range = DataSourceRoute.readOnly(() -> {
+            try (StatelessSession session = sessionFactory.openStatelessSession()) {
+                return (Object[]) session.createQuery("select min(m.id), max(m.id) from MemberDSL m").uniqueResult();
+            }
+        });
+        if (range[0] == null) {
+            return new long[0];
+        }
+        long min = (Long) range[0] - 1;
+        long max = (Long) range[1];
+        long span = Math.max(1, (max - min + partitions - 1) / partitions);
+        List<Long> bounds = new ArrayList<>();
+        for (long bound = min; bound < max; bound += span) {
+            bounds.add(bound);
+        }
+        bounds.add(max);
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private long exportRange(Path file, ExportFormat format, long from, long to, boolean resume) {
+        Path checkpointFile = file.resolveSibling(file.getFileName() + ".checkpoint");
+        try {
+            long lastId = from;
+            long position = 0;
+            if (resume && Files.exists(checkpointFile)) {
+                String[] saved = Files.readString(checkpointFile).trim().split(" ");
+                lastId = Long.parseLong(saved[0]);
+                position = Long.parseLong(saved[1]);
+            }
+            if (lastId >= to) {
+                return 0L;
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 StatelessSession session = sessionFactory.openStatelessSession()) {
+                //체크포인트 뒤에 쓰다 만 부분은 버린다.
+                channel.truncate(position);
+                channel.position(position);
+                ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                if (position == 0 && format == ExportFormat.CSV) {
+                    buffer.put((MemberRowCodec.CSV_HEADER + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+                session.getTransaction().begin();
+                long rows = 0;
+                try (ScrollableResults results = session.createQuery(SELECT_RANGE)
+                        .setParameter("from", lastId)
+                        .setParameter("to", to)
+                        .setFetchSize(Integer.MIN_VALUE)   //MySQL 스트리밍
+                        .setReadOnly(true)
+                        .scroll(ScrollMode.FORWARD_ONLY)) {
+                    while (results.next()) {
+                        MemberTeamDto row = (MemberTeamDto) results.get(0);
+                        byte[] line = codec.encode(row, format);
+                        if (buffer.remaining() < line.length) {
+                            drain(buffer, channel);
+                        }
+                        if (line.length > buffer.capacity()) {
+                            channel.write(ByteBuffer.wrap(line));
+                        } else {
+                            buffer.put(line);
+                        }
+                        lastId = row.getMemberId();
+                        if (++rows % checkpointEvery == 0) {
+                            checkpoint(buffer, channel, checkpointFile, lastId);
+                        }
+                    }
+                }
+                session.getTransaction().commit();
+                //다 쓰면 범위 끝을 기록해서 resume 시 건너뛰게 한다.
+                checkpoint(buffer, channel, checkpointFile, to);
+                return rows;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    //파일 내용을 먼저 디스크에 내린 뒤에 체크포인트를 바꾼다(임시 파일 -> rename).
+    private static void checkpoint(ByteBuffer buffer, FileChannel channel, Path checkpointFile, long lastId) throws IOException {
+        drain(buffer, channel);
+        channel.force(false);
+        Path tmp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        Files.writeString(tmp, lastId + " " + channel.position());
+        Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,211 @@
+package study.querydsl.etl;
+
+import org.hibernate.PessimisticLockException;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.exception.LockAcquisitionException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.entity.EntityChangePublisher;
+import study.querydsl.entity.MemberChangedEvent;
+import study.querydsl.entity.MemberDSL;
+import study.querydsl.entity.TeamChangedEvent;
+import study.querydsl.entity.TeamDSL;
+import study.querydsl.export.ExportFormat;
+import study.querydsl.export.MemberRowCodec;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.LockModeType;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MemberEtlExporter가 만든 파일(또는 같은 형식의 파일)을 파일 하나당 파티션 하나로 동시에 넣는다.
+ * StatelessSession이라 영속성 컨텍스트/스냅샷이 없고, insert는 JDBC 배치로 묶어서 나간다.
+ * 회원 id는 새로 채번하고(파일의 memberId는 쓰지 않음), 팀은 이름으로 찾아서 없으면 만든다.
+ * 팀 이름에는 unique 제약이 없으므로(대소문자만 다른 팀이 있을 수 있음, TeamIdResolver 참고)
+ * 한 번 실행 안에서는 이름별로 한 파티션만 찾거나 만들고, 다른 실행과 겹치면 잠금으로 막는다.
+ * batchSize 건마다 커밋하면서 같은 트랜잭션에서 EtlCheckpoint를 갱신하므로 다시 돌려도 중복이 없다.
+ * StatelessSession은 엔티티 리스너를 타지 않으므로 끝나면 캐시 무효화 이벤트를 직접 보낸다.
+ */
+@Component
+public class MemberEtlImporter {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int TEAM_LOCK_RETRIES = 3;
+
+    private final SessionFactory sessionFactory;
+    private final MemberRowCodec codec;
+    private final EntityChangePublisher changePublisher;
+    private final int batchSize;
+
+    public MemberEtlImporter(EntityManagerFactory emf, MemberRowCodec codec, EntityChangePublisher changePublisher,
+                             @Value("${member.etl.batch-size:1000}") int batchSize) {
+        this.sessionFactory = emf.unwrap(SessionFactory.class);
+        this.codec = codec;
+        this.changePublisher = changePublisher;
+        this.batchSize = batchSize;
+    }
+
+    /** @param job 체크포인트 이름. 같은 job으로 다시 부르면 끝난 파일은 건너뛰고 나머지는 이어서 넣는다. */
+    public EtlResult importFiles(String job, List<Path> files, ExportFormat format) {
+        //팀 이름(소문자) -> 팀. 파티션끼리 같은 팀을 동시에 만들지 않도록 이름별로 한 번만 찾거나 만든다.
+        Map<String, CompletableFuture<TeamDSL>> teams = new ConcurrentHashMap<>();
+        List<Callable<Long>> tasks = new ArrayList<>();
+        for (Path file : files) {
+            tasks.add(() -> importFile(job + ":" + file.getFileName(), file, format, teams));
+        }
+        try {
+            return EtlPartitions.run(tasks);
+        } finally {
+            changePublisher.publish(MemberChangedEvent.bulk());
+        }
+    }
+
+    private long importFile(String checkpointId, Path file, ExportFormat format,
+                            Map<String, CompletableFuture<TeamDSL>> teams) {
+        try (StatelessSession session = sessionFactory.openStatelessSession();
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            session.setJdbcBatchSize(batchSize);
+            EtlCheckpoint checkpoint = loadCheckpoint(session, checkpointId);
+            if (checkpoint.isDone()) {
+                return 0L;
+            }
+            ChannelLineReader reader = new ChannelLineReader(channel, checkpoint.getPosition(), BUFFER_SIZE);
+            if (checkpoint.getPosition() == 0 && format == ExportFormat.CSV) {
+                reader.readLine();  //헤더
+            }
+            long total = 0;
+            long pending = 0;
+            Transaction tx = session.beginTransaction();
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    MemberTeamDto row = codec.decode(line, format);
+                    MemberDSL member = new MemberDSL(row.getUsername(), row.getAge());
+                    if (row.getTeamName() != null) {
+                        //생성자에 팀을 넘기면 team.members에 계속 쌓이므로 setTeam으로 FK만 건다.
+                        member.setTeam(team(teams, row.getTeamName()));
+                    }
+                    session.insert(member);
+                    if (++pending == batchSize) {
+                        commit(session, tx, checkpoint, reader.position(), pending);
+                        total += pending;
+                        pending = 0;
+                        tx = session.beginTransaction();
+                    }
+                }
+                checkpoint.complete();
+                commit(session, tx, checkpoint, reader.position(), pending);
+                return total + pending;
+            } catch (RuntimeException e) {
+                if (tx.isActive()) {
+                    tx.rollback();
+                }
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void commit(StatelessSession session, Transaction tx, EtlCheckpoint checkpoint, long position, long rows) {
+        checkpoint.advance(position, rows);
+        session.update(checkpoint);
+        //배치에 남은 insert를 커밋 전에 확실히 내보낸다.
+        ((SharedSessionContractImplementor) session).getJdbcCoordinator().executeBatch();
+        tx.commit();
+    }
+
+    private EtlCheckpoint loadCheckpoint(StatelessSession session, String checkpointId) {
+        Transaction tx = session.beginTransaction();
+        EtlCheckpoint checkpoint = (EtlCheckpoint) session.get(EtlCheckpoint.class, checkpointId);
+        if (checkpoint == null) {
+            checkpoint = new EtlCheckpoint(checkpointId);
+            session.insert(checkpoint);
+        }
+        tx.commit();
+        return checkpoint;
+    }
+
+    //computeIfAbsent 안에서 DB를 부르면 맵의 bin을 잡은 채로 기다리게 되므로, 자리만 먼저 잡고 조회는 밖에서 한다.
+    //collation이 대소문자를 구분하지 않으므로 키도 소문자로 맞춘다.
+    private TeamDSL team(Map<String, CompletableFuture<TeamDSL>> teams, String name) {
+        CompletableFuture<TeamDSL> created = new CompletableFuture<>();
+        CompletableFuture<TeamDSL> existing = teams.putIfAbsent(name.toLowerCase(Locale.ROOT), created);
+        if (existing != null) {
+            return existing.join();
+        }
+        try {
+            TeamDSL team = findOrCreateTeam(name);
+            created.complete(team);
+            return team;
+        } catch (RuntimeException e) {
+            created.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    //다른 import 실행과 동시에 같은 이름을 만들지 않도록 조회를 for update로 잠근다(없는 이름이면 인덱스 gap 잠금).
+    //둘 다 gap을 잡고 insert하면 한쪽이 데드락으로 롤백되는데, 다시 돌면 먼저 커밋된 팀을 찾는다.
+    private TeamDSL findOrCreateTeam(String name) {
+        for (int attempt = 1; ; attempt++) {
+            try (StatelessSession session = sessionFactory.openStatelessSession()) {
+                Transaction tx = session.beginTransaction();
+                try {
+                    List<?> found = session.createQuery("select t from TeamDSL t where t.name = :name")
+                            .setParameter("name", name)
+                            .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                            .setMaxResults(1)
+                            .list();
+                    TeamDSL team;
+                    if (found.isEmpty()) {
+                        team = new TeamDSL(name);
+                        session.insert(team);
+                    } else {
+                        team = (TeamDSL) found.get(0);
+                    }
+                    ((SharedSessionContractImplementor) session).getJdbcCoordinator().executeBatch();
+                    tx.commit();
+                    if (found.isEmpty()) {
+                        changePublisher.publish(new TeamChangedEvent(team));
+                    }
+                    return team;
+                } catch (RuntimeException e) {
+                    if (tx.isActive()) {
+                        tx.rollback();
+                    }
+                    if (attempt == TEAM_LOCK_RETRIES || !isLockConflict(e)) {
+                        throw e;
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isLockConflict(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            //JPA 예외로 감싸여 있어도 원인에 하이버네이트 예외(MySQL 1213 데드락, 1205 잠금 대기 초과)가 남아 있다.
+            if (cause instanceof LockAcquisitionException || cause instanceof PessimisticLockException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
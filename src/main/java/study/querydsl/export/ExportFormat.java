@@ -0,0 +1,29 @@
+package study.querydsl.export;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Locale;
+
+@Getter
+@RequiredArgsConstructor
+public enum ExportFormat {
+    NDJSON("application/x-ndjson"),
+    CSV("text/csv");
+
+    private final String contentType;
+
+    //WebConfig에 컨버터로 등록되어 있어서 잘못된 값은 400. 로케일(예: tr)에 따라 대소문자 변환이 달라지지 않게 ROOT
+    public static ExportFormat from(String value) {
+        try {
+            return ExportFormat.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("format은 ndjson 또는 csv: " + value, e);
+        }
+    }
+
+    /** 파일 확장자 */
+    public String extension() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,51 @@
+package study.querydsl.export;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.repository.MemberRepository;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * 검색 결과를 List로 모으지 않고 한 줄씩 바로 써 내려간다.
+ * 스트림이 열려 있는 동안 커서를 유지해야 하므로 트랜잭션 안에서 실행.
+ */
+@Component
+@RequiredArgsConstructor
+public class MemberExporter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int FLUSH_EVERY = 1_000;
+
+    private final MemberRepository memberRepository;
+    private final MemberRowCodec codec;
+
+    @Transactional(readOnly = true)
+    public long export(MemberSearchCondition condition, ExportFormat format, OutputStream output) throws IOException {
+        OutputStream out = new BufferedOutputStream(output, BUFFER_SIZE);
+        long count = 0;
+        try (Stream<MemberTeamDto> rows = memberRepository.streamSearch(condition)) {
+            if (format == ExportFormat.CSV) {
+                out.write((MemberRowCodec.CSV_HEADER + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            Iterator<MemberTeamDto> iterator = rows.iterator();
+            while (iterator.hasNext()) {
+                out.write(codec.encode(iterator.next(), format));
+                //클라이언트가 중간부터 받기 시작하도록 주기적으로 내보냄
+                if (++count % FLUSH_EVERY == 0) {
+                    out.flush();
+                }
+            }
+        }
+        out.flush();
+        return count;
+    }
+}
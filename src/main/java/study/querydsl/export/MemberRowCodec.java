@@ -0,0 +1,126 @@
+package study.querydsl.export;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import study.querydsl.dto.MemberTeamDto;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** MemberTeamDto 한 건 <-> ndjson/csv 한 줄. export 응답과 ETL 파일이 같은 형식을 쓴다. */
+@Component
+@RequiredArgsConstructor
+public class MemberRowCodec {
+
+    public static final String CSV_HEADER = "memberId,username,age,teamId,teamName";
+
+    private final ObjectMapper objectMapper;
+
+    /** 줄바꿈까지 포함한 UTF-8 바이트 */
+    public byte[] encode(MemberTeamDto row, ExportFormat format) {
+        if (format == ExportFormat.NDJSON) {
+            try {
+                byte[] json = objectMapper.writeValueAsBytes(row);
+                byte[] line = new byte[json.length + 1];
+                System.arraycopy(json, 0, line, 0, json.length);
+                line[json.length] = '\n';
+                return line;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        StringBuilder line = new StringBuilder(64)
+                .append(row.getMemberId()).append(',')
+                .append(csv(row.getUsername())).append(',')
+                .append(row.getAge()).append(',')
+                .append(row.getTeamId() != null ? row.getTeamId() : "").append(',')
+                .append(csv(row.getTeamName())).append('\n');
+        return line.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** 줄바꿈을 뺀 한 줄. csv 헤더는 호출하는 쪽에서 건너뛴다. */
+    public MemberTeamDto decode(String line, ExportFormat format) {
+        if (format == ExportFormat.NDJSON) {
+            try {
+                JsonNode node = objectMapper.readTree(line);
+                return new MemberTeamDto(
+                        longOrNull(node.get("memberId")),
+                        textOrNull(node.get("username")),
+                        node.path("age").asInt(),
+                        longOrNull(node.get("teamId")),
+                        textOrNull(node.get("teamName")));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("ndjson 형식이 아닙니다: " + line, e);
+            }
+        }
+        List<String> fields = splitCsv(line);
+        if (fields.size() != 5) {
+            throw new IllegalArgumentException("csv 컬럼이 5개가 아닙니다: " + line);
+        }
+        return new MemberTeamDto(
+                parseLong(fields.get(0)),
+                emptyToNull(fields.get(1)),
+                Integer.parseInt(fields.get(2)),
+                parseLong(fields.get(3)),
+                emptyToNull(fields.get(4)));
+    }
+
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>(5);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static Long parseLong(String value) {
+        return value.isEmpty() ? null : Long.valueOf(value);
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static Long longOrNull(JsonNode node) {
+        return node == null || node.isNull() ? null : node.asLong();
+    }
+
+    private static String textOrNull(JsonNode node) {
+        return node == null || node.isNull() ? null : node.asText();
+    }
+}
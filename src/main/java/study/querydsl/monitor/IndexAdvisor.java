@@ -0,0 +1,168 @@
+package study.querydsl.monitor;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.springframework.stereotype.Component;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.UsernameMatch;
+import study.querydsl.entity.MemberDSL;
+import study.querydsl.entity.TeamDSL;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 레포지토리에서 실제로 나간 검색 모양(어떤 조건이 있었고 무엇으로 정렬했는지)을 세고,
+ * 모양마다 member 테이블에 맞는 복합 인덱스를 추천한다.
+ * 컬럼 순서는 등호 조건 → 정렬 → 범위 조건 → member_id 순(ESR). 끝에 member_id를 붙여서
+ * 키셋 페이징 타이브레이크와 count까지 인덱스만 보고 끝나게 한다.
+ * 검색은 항상 deleted_at is null 이므로 deleted_at을 맨 앞 등호 컬럼으로 둔다.
+ */
+@Component
+public class IndexAdvisor {
+
+    private static final String ID = "member_id";
+    private static final String DELETED_AT = "deleted_at";
+
+    private final Map<SearchShape, LongAdder> observed = new ConcurrentHashMap<>();
+    private final EntityManagerFactory emf;
+
+    public IndexAdvisor(EntityManagerFactory emf) {
+        this.emf = emf;
+    }
+
+    /** @param sortColumns 정렬 컬럼(물리 컬럼명). 정렬 없으면 비워둔다. */
+    public void record(MemberSearchCondition condition, String... sortColumns) {
+        SearchShape shape = new SearchShape(
+                //CONTAINS는 username 인덱스를 못 쓴다.
+                condition.getUsername() != null && !condition.getUsername().isEmpty()
+                        && condition.getUsernameMatch() != UsernameMatch.CONTAINS,
+                condition.getTeamName() != null && !condition.getTeamName().isEmpty(),
+                condition.getAgeGoe() != null || condition.getAgeLoe() != null,
+                String.join(",", sortColumns));
+        observed.computeIfAbsent(shape, key -> new LongAdder()).increment();
+    }
+
+    /** 추천 인덱스 컬럼 목록 → 그 인덱스를 쓰는 검색 횟수. 많이 쓰이는 순 */
+    public Map<List<String>, Long> recommendations() {
+        Map<List<String>, Long> counts = new LinkedHashMap<>();
+        observed.forEach((shape, count) -> {
+            List<String> columns = shape.indexColumns();
+            if (!columns.isEmpty()) {
+                counts.merge(columns, count.sum(), Long::sum);
+            }
+        });
+        Map<List<String>, Long> sorted = new LinkedHashMap<>();
+        counts.entrySet().stream()
+                .sorted(Map.Entry.<List<String>, Long>comparingByValue().reversed())
+                .forEach(e -> sorted.put(e.getKey(), e.getValue()));
+        return sorted;
+    }
+
+    public Map<String, Long> observedShapes() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        observed.forEach((shape, count) -> result.put(shape.toString(), count.sum()));
+        return result;
+    }
+
+    /** 추천 인덱스 DDL. 팀 이름 조건이 있으면 team(name) 인덱스도 같이 */
+    public List<String> ddl() {
+        String memberTable = tableName(MemberDSL.class);
+        List<String> statements = new ArrayList<>();
+        boolean teamName = false;
+        for (List<String> columns : recommendations().keySet()) {
+            statements.add("create index idx_member_" + String.join("_", columns).replace(ID, "id")
+                    + " on " + memberTable + " (" + String.join(", ", columns) + ");");
+        }
+        for (SearchShape shape : observed.keySet()) {
+            teamName |= shape.teamName;
+        }
+        if (teamName) {
+            statements.add("create index idx_team_name on " + tableName(TeamDSL.class) + " (name);");
+        }
+        return statements;
+    }
+
+    /** Flyway 마이그레이션 파일 내용(V{version}__member_search_indexes.sql) */
+    public String flywayMigration(String version) {
+        StringBuilder sql = new StringBuilder()
+                .append("-- V").append(version).append("__member_search_indexes.sql\n")
+                .append("-- IndexAdvisor가 관찰한 검색 모양 기준 추천 인덱스\n");
+        for (String statement : ddl()) {
+            sql.append(statement).append('\n');
+        }
+        return sql.toString();
+    }
+
+    public String tableName(Class<?> entityType) {
+        SessionFactoryImplementor sessionFactory = emf.unwrap(SessionFactoryImplementor.class);
+        return ((AbstractEntityPersister) sessionFactory.getMetamodel().entityPersister(entityType)).getTableName();
+    }
+
+    private static final class SearchShape {
+        private final boolean username;
+        private final boolean teamName;
+        private final boolean ageRange;
+        private final String sort;
+
+        private SearchShape(boolean username, boolean teamName, boolean ageRange, String sort) {
+            this.username = username;
+            this.teamName = teamName;
+            this.ageRange = ageRange;
+            this.sort = sort;
+        }
+
+        private List<String> indexColumns() {
+            Set<String> columns = new LinkedHashSet<>();
+            if (teamName) {
+                columns.add("team_id");
+            }
+            if (username) {
+                columns.add("username");
+            }
+            if (!sort.isEmpty()) {
+                for (String column : sort.split(",")) {
+                    columns.add(column);
+                }
+            }
+            if (ageRange) {
+                columns.add("age");
+            }
+            if (columns.isEmpty()) {
+                return new ArrayList<>();
+            }
+            columns.add(ID);
+            List<String> indexColumns = new ArrayList<>();
+            indexColumns.add(DELETED_AT);
+            indexColumns.addAll(columns);
+            return indexColumns;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SearchShape)) {
+                return false;
+            }
+            SearchShape other = (SearchShape) o;
+            return username == other.username && teamName == other.teamName
+                    && ageRange == other.ageRange && sort.equals(other.sort);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((username ? 1 : 0) | (teamName ? 2 : 0) | (ageRange ? 4 : 0)) * 31 + sort.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "username=" + username + ", teamName=" + teamName + ", ageRange=" + ageRange + ", sort=[" + sort + "]";
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package study.querydsl.monitor;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * /actuator/indexadvisor : 관찰한 검색 모양, 추천 인덱스와 DDL
+ * /actuator/indexadvisor/{version} : 같은 DDL을 Flyway 마이그레이션 파일(V{version}__member_search_indexes.sql) 내용으로
+ * (src/main/resources/db/migration에 V2까지 있으므로 version은 3부터)
+ */
+@Component
+@Endpoint(id = "indexadvisor")
+@RequiredArgsConstructor
+public class IndexAdvisorEndpoint {
+
+    private final IndexAdvisor indexAdvisor;
+
+    @ReadOperation
+    public Map<String, Object> advise() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("shapes", indexAdvisor.observedShapes());
+        result.put("recommendations", indexAdvisor.recommendations().entrySet().stream()
+                .map(e -> String.join(", ", e.getKey()) + " (" + e.getValue() + ")")
+                .toArray());
+        result.put("ddl", indexAdvisor.ddl());
+        return result;
+    }
+
+    @ReadOperation(produces = "text/plain")
+    public String migration(@Selector String version) {
+        return indexAdvisor.flywayMigration(version);
+    }
+}
@@ -0,0 +1,109 @@
+package study.querydsl.monitor;
+
+import com.mysema.commons.lang.CloseableIterator;
+import com.querydsl.jpa.JPQLSerializer;
+import com.querydsl.jpa.impl.JPAQuery;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * fetch/fetchOne/stream/iterate 시간을 QueryMetrics에 기록하는 JPAQuery.
+ * JPQL은 AbstractJPAQuery.createQuery가 em.createQuery에 넘기려고 만든 문자열을 logQuery에서 그대로 받아서 쓴다
+ * (serializer.toString()을 한 번 더 불러 같은 문자열을 다시 만들지 않음).
+ * stream/iterate는 row를 다 읽고 닫을 때까지를 한 번으로 기록한다(닫지 않으면 기록되지 않는다).
+ */
+public class InstrumentedJPAQuery<T> extends JPAQuery<T> {
+
+    private final QueryMetrics metrics;
+    private String jpql;
+    private Object constants;
+
+    public InstrumentedJPAQuery(EntityManager em, QueryMetrics metrics) {
+        super(em);
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected JPQLSerializer serialize(boolean forCountRow) {
+        JPQLSerializer serializer = super.serialize(forCountRow);
+        constants = serializer.getConstants();
+        return serializer;
+    }
+
+    //createQuery에서 serialize 바로 뒤에 불린다.
+    @Override
+    protected void logQuery(String queryString) {
+        jpql = queryString;
+        super.logQuery(queryString);
+    }
+
+    @Override
+    public List<T> fetch() {
+        long jdbcStart = QueryCounter.jdbcNanos();
+        long start = System.nanoTime();
+        List<T> result = super.fetch();
+        record(start, jdbcStart, result.size());
+        return result;
+    }
+
+    @Override
+    public T fetchOne() {
+        long jdbcStart = QueryCounter.jdbcNanos();
+        long start = System.nanoTime();
+        T result = super.fetchOne();
+        record(start, jdbcStart, result != null ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public Stream<T> stream() {
+        long jdbcStart = QueryCounter.jdbcNanos();
+        long start = System.nanoTime();
+        AtomicInteger rows = new AtomicInteger();
+        return super.stream()
+                .peek(row -> rows.incrementAndGet())
+                .onClose(() -> record(start, jdbcStart, rows.get()));
+    }
+
+    @Override
+    public CloseableIterator<T> iterate() {
+        long jdbcStart = QueryCounter.jdbcNanos();
+        long start = System.nanoTime();
+        CloseableIterator<T> iterator = super.iterate();
+        return new CloseableIterator<T>() {
+            private int rows;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                T row = iterator.next();
+                rows++;
+                return row;
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+            }
+
+            @Override
+            public void close() {
+                iterator.close();
+                record(start, jdbcStart, rows);
+            }
+        };
+    }
+
+    private void record(long start, long jdbcStart, int rows) {
+        if (jpql != null) {
+            metrics.record(jpql, constants, System.nanoTime() - start, QueryCounter.jdbcNanos() - jdbcStart, rows);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package study.querydsl.monitor;
+
+import com.querydsl.jpa.impl.JPAQuery;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+
+import javax.persistence.EntityManager;
+
+/**
+ * JPAQueryFactory 대신 쓰면 select/selectFrom/from 으로 만든 쿼리가 모두 InstrumentedJPAQuery가 된다.
+ * update/delete 는 계측하지 않는다.
+ */
+public class InstrumentedJPAQueryFactory extends JPAQueryFactory {
+
+    private final EntityManager em;
+    private final QueryMetrics metrics;
+
+    public InstrumentedJPAQueryFactory(EntityManager em, QueryMetrics metrics) {
+        super(em);
+        this.em = em;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public JPAQuery<?> query() {
+        return new InstrumentedJPAQuery<Void>(em, metrics);
+    }
+}
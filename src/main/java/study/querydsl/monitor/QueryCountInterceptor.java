@@ -0,0 +1,63 @@
+package study.querydsl.monitor;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * 요청 하나에서 나간 SQL 개수가 threshold를 넘으면 N+1을 의심하고 경고 로그.
+ * fail-on-exceed=true 면 postHandle에서 예외를 던져 요청(테스트)을 실패시킨다.
+ * afterCompletion에서 던지면 스프링이 로그만 남기고 삼키므로 거기서는 정리만 한다.
+ * Flux, StreamingResponseBody 처럼 비동기로 넘어가는 요청은 나머지 쿼리가 다른 스레드에서 나가므로 세지 않는다.
+ */
+@Slf4j
+@Component
+public class QueryCountInterceptor implements AsyncHandlerInterceptor {
+
+    private final long threshold;
+    private final boolean failOnExceed;
+
+    public QueryCountInterceptor(@Value("${member.query-count.threshold:10}") long threshold,
+                                 @Value("${member.query-count.fail-on-exceed:false}") boolean failOnExceed) {
+        this.threshold = threshold;
+        this.failOnExceed = failOnExceed;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        QueryCounter.start();
+        return true;
+    }
+
+    //@ResponseBody는 핸들러 안에서 직렬화까지 끝나므로(지연 로딩 포함) 여기서 세면 전부 잡힌다.
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+                           ModelAndView modelAndView) {
+        long count = QueryCounter.count();
+        if (count <= threshold) {
+            return;
+        }
+        String message = String.format("N+1 의심: %s %s 에서 SQL %d개 실행 (기준 %d)",
+                request.getMethod(), request.getRequestURI(), count, threshold);
+        log.warn(message);
+        if (failOnExceed) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        QueryCounter.stop();
+    }
+
+    //비동기 요청은 afterCompletion이 다른 스레드에서 불리므로 요청 스레드의 카운터는 여기서 치운다.
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        QueryCounter.stop();
+    }
+}
@@ -0,0 +1,24 @@
+package study.querydsl.monitor;
+
+import com.p6spy.engine.common.ResultSetInformation;
+import com.p6spy.engine.common.StatementInformation;
+import com.p6spy.engine.event.JdbcEventListener;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+
+//p6spy 스타터가 JdbcEventListener 빈을 자동으로 등록해준다.
+@Component
+public class QueryCountListener extends JdbcEventListener {
+
+    @Override
+    public void onAfterAnyExecute(StatementInformation statementInformation, long timeElapsedNanos, SQLException e) {
+        QueryCounter.record(timeElapsedNanos);
+    }
+
+    //row를 받아오는 시간. 실행 시간과 합쳐서 JDBC 시간으로 본다.
+    @Override
+    public void onAfterResultSetNext(ResultSetInformation resultSetInformation, long timeElapsedNanos, boolean hasNext, SQLException e) {
+        QueryCounter.recordFetch(timeElapsedNanos);
+    }
+}
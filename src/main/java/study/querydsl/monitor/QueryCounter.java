@@ -0,0 +1,57 @@
+package study.querydsl.monitor;
+
+/**
+ * 스레드(=요청) 단위로 실행된 SQL 개수를 센다. start() 한 스레드에서만 센다.
+ * 다른 스레드(MemberAsyncSearchRepository 등)에서 실행된 쿼리는 포함되지 않는다.
+ * JDBC 시간 누적치(jdbcNanos)는 start() 여부와 상관없이 항상 센다. 쿼리 앞뒤 차이로 JDBC 시간을 구하는 용도.
+ */
+public final class QueryCounter {
+
+    private static final ThreadLocal<Counter> CURRENT = new ThreadLocal<>();
+    private static final ThreadLocal<long[]> JDBC_NANOS = ThreadLocal.withInitial(() -> new long[1]);
+
+    private QueryCounter() {
+    }
+
+    public static void start() {
+        CURRENT.set(new Counter());
+    }
+
+    public static void stop() {
+        CURRENT.remove();
+    }
+
+    public static long count() {
+        Counter counter = CURRENT.get();
+        return counter != null ? counter.statements : 0;
+    }
+
+    /** JDBC 실행에 걸린 시간 합계(나노초) */
+    public static long elapsedNanos() {
+        Counter counter = CURRENT.get();
+        return counter != null ? counter.elapsedNanos : 0;
+    }
+
+    /** 이 스레드에서 지금까지 JDBC(실행 + ResultSet.next)에 쓴 시간 누적(나노초) */
+    public static long jdbcNanos() {
+        return JDBC_NANOS.get()[0];
+    }
+
+    static void recordFetch(long elapsedNanos) {
+        JDBC_NANOS.get()[0] += elapsedNanos;
+    }
+
+    static void record(long elapsedNanos) {
+        JDBC_NANOS.get()[0] += elapsedNanos;
+        Counter counter = CURRENT.get();
+        if (counter != null) {
+            counter.statements++;
+            counter.elapsedNanos += elapsedNanos;
+        }
+    }
+
+    private static class Counter {
+        private long statements;
+        private long elapsedNanos;
+    }
+}
@@ -0,0 +1,153 @@
+package study.querydsl.monitor;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 쿼리 모양(JPQL)별 실행 시간, row 수, JDBC 시간/엔티티·DTO 생성(hydration) 시간을 Micrometer로 기록.
+ * JPQL 문자열은 실행할 때 어차피 만들어지는 것을 키로만 쓰고, 태그에는 짧은 id(q1, q2...)를 쓴다.
+ * 느린 쿼리는 최근 N개만 남긴다. 문자열을 만드는 건 느린 쿼리일 때뿐.
+ * 느린 쿼리 목록은 actuator로 나가므로 바인딩 값(이름, 검색어 등)은 남기지 않고 타입(컬렉션은 크기)만 남긴다.
+ */
+@Component
+public class QueryMetrics {
+
+    private static final String OTHER = "other";
+
+    private final MeterRegistry registry;
+    private final Map<String, Shape> shapes = new ConcurrentHashMap<>();
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final int maxShapes;
+    private final long slowNanos;
+    private final int maxSamples;
+    private final Deque<SlowQuery> slowQueries = new ArrayDeque<>();
+    private final Shape other;
+
+    public QueryMetrics(MeterRegistry registry,
+                        @Value("${member.query-metrics.max-shapes:200}") int maxShapes,
+                        @Value("${member.query-metrics.slow-threshold:200ms}") Duration slowThreshold,
+                        @Value("${member.query-metrics.slow-samples:50}") int maxSamples) {
+        this.registry = registry;
+        this.maxShapes = maxShapes;
+        this.slowNanos = slowThreshold.toNanos();
+        this.maxSamples = maxSamples;
+        this.other = new Shape(OTHER, OTHER, registry);
+    }
+
+    /**
+     * @param jpql      실행한 JPQL
+     * @param params    바인딩 파라미터. 느린 쿼리일 때만 타입만 뽑는다(값은 남기지 않음).
+     * @param totalNanos 쿼리 전체 시간
+     * @param jdbcNanos  그 중 JDBC 실행 + row fetch 시간(p6spy 기준)
+     */
+    public void record(String jpql, Object params, long totalNanos, long jdbcNanos, int rows) {
+        Shape shape = shapeOf(jpql);
+        shape.total.record(totalNanos, TimeUnit.NANOSECONDS);
+        shape.jdbc.record(jdbcNanos, TimeUnit.NANOSECONDS);
+        shape.hydration.record(Math.max(0, totalNanos - jdbcNanos), TimeUnit.NANOSECONDS);
+        shape.rows.record(rows);
+        if (totalNanos >= slowNanos) {
+            addSlowQuery(new SlowQuery(shape.id, jpql, paramTypes(params),
+                    TimeUnit.NANOSECONDS.toMillis(totalNanos), rows, System.currentTimeMillis()));
+        }
+    }
+
+    public Collection<Shape> getShapes() {
+        return shapes.values();
+    }
+
+    public synchronized List<SlowQuery> getSlowQueries() {
+        return new ArrayList<>(slowQueries);
+    }
+
+    //IN 절 목록처럼 컬렉션이면 원소 대신 크기만 적는다.
+    static List<String> paramTypes(Object params) {
+        Collection<?> values = params instanceof Map ? ((Map<?, ?>) params).values()
+                : params instanceof Collection ? (Collection<?>) params
+                : params == null ? List.of() : List.of(params);
+        List<String> types = new ArrayList<>(values.size());
+        for (Object value : values) {
+            if (value == null) {
+                types.add("null");
+            } else if (value instanceof Collection) {
+                types.add("Collection(" + ((Collection<?>) value).size() + ")");
+            } else {
+                types.add(value.getClass().getSimpleName());
+            }
+        }
+        return types;
+    }
+
+    private Shape shapeOf(String jpql) {
+        Shape shape = shapes.get(jpql);
+        if (shape != null) {
+            return shape;
+        }
+        //모양 수가 계속 늘면(리터럴이 JPQL에 박히는 경우 등) 메트릭 폭증을 막기 위해 other로 묶는다.
+        if (shapes.size() >= maxShapes) {
+            return other;
+        }
+        return shapes.computeIfAbsent(jpql, key -> new Shape("q" + sequence.incrementAndGet(), key, registry));
+    }
+
+    private synchronized void addSlowQuery(SlowQuery slowQuery) {
+        if (slowQueries.size() >= maxSamples) {
+            slowQueries.removeFirst();
+        }
+        slowQueries.addLast(slowQuery);
+    }
+
+    public static class Shape {
+        @Getter
+        private final String id;
+        @Getter
+        private final String jpql;
+        private final Timer total;
+        private final Timer jdbc;
+        private final Timer hydration;
+        private final DistributionSummary rows;
+
+        private Shape(String id, String jpql, MeterRegistry registry) {
+            this.id = id;
+            this.jpql = jpql;
+            this.total = Timer.builder("querydsl.query").tag("shape", id).register(registry);
+            this.jdbc = Timer.builder("querydsl.query.jdbc").tag("shape", id).register(registry);
+            this.hydration = Timer.builder("querydsl.query.hydration").tag("shape", id).register(registry);
+            this.rows = DistributionSummary.builder("querydsl.query.rows").tag("shape", id).register(registry);
+        }
+    }
+
+    @Getter
+    public static class SlowQuery {
+        private final String shape;
+        private final String jpql;
+        private final List<String> paramTypes;
+        private final long elapsedMillis;
+        private final int rows;
+        private final long timestamp;
+
+        private SlowQuery(String shape, String jpql, List<String> paramTypes, long elapsedMillis, int rows, long timestamp) {
+            this.shape = shape;
+            this.jpql = jpql;
+            this.paramTypes = paramTypes;
+            this.elapsedMillis = elapsedMillis;
+            this.rows = rows;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package study.querydsl.monitor;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** /actuator/queryshapes : 메트릭 태그의 shape id가 어떤 JPQL인지, 최근 느린 쿼리 목록(바인딩 값 없이 타입만) */
+@Component
+@Endpoint(id = "queryshapes")
+@RequiredArgsConstructor
+public class QueryMetricsEndpoint {
+
+    private final QueryMetrics queryMetrics;
+
+    @ReadOperation
+    public Map<String, Object> shapes() {
+        Map<String, String> shapes = new TreeMap<>();
+        for (QueryMetrics.Shape shape : queryMetrics.getShapes()) {
+            shapes.put(shape.getId(), shape.getJpql());
+        }
+        List<QueryMetrics.SlowQuery> slowQueries = queryMetrics.getSlowQueries();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("shapes", shapes);
+        result.put("slowQueries", slowQueries);
+        return result;
+    }
+}
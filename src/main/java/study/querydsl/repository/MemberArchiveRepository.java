@@ -0,0 +1,146 @@
+package study.querydsl.repository;
+
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.jpa.impl.JPAQuery;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.dto.QMemberTeamDto;
+import study.querydsl.dto.UsernameMatch;
+
+import javax.persistence.EntityManager;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.springframework.util.StringUtils.hasText;
+import static study.querydsl.entity.QMemberArchive.memberArchive;
+import static study.querydsl.entity.QMemberDSL.memberDSL;
+import static study.querydsl.entity.QTeamDSL.teamDSL;
+
+/**
+ * 삭제된 회원을 memberdsl에서 member_archive로 옮기고, as-of 조회에서 옮겨진 회원을 읽는다.
+ * 옮기는 건 batchSize 개씩 트랜잭션 하나에 insert ... select 와 delete 한 번씩.
+ * 살아 있는 회원 검색은 이 테이블을 읽지 않는다.
+ */
+@Repository
+public class MemberArchiveRepository {
+
+    private static final String ARCHIVE =
+            "insert into MemberArchive (id, username, age, teamId, createdAt, deletedAt)" +
+            " select m.id, m.username, m.age, m.team.id, m.createdAt, m.deletedAt" +
+            " from MemberDSL m where m.id in :ids and m.deletedAt < :cutoff";
+
+    private final JPAQueryFactory queryFactory;
+    private final EntityManager em;
+    private final TeamIdResolver teamIdResolver;
+    private final TransactionTemplate batchTransaction;
+    private final int batchSize;
+
+    public MemberArchiveRepository(JPAQueryFactory queryFactory, EntityManager em, TeamIdResolver teamIdResolver,
+                                   PlatformTransactionManager transactionManager,
+                                   @Value("${member.archive.batch-size:1000}") int batchSize) {
+        this.queryFactory = queryFactory;
+        this.em = em;
+        this.teamIdResolver = teamIdResolver;
+        this.batchTransaction = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * cutoff 전에 삭제된 회원을 모두 옮긴다. 호출자 트랜잭션이 없으면 배치마다 커밋된다.
+     * 고른 뒤 복구(deletedAt = null)된 회원은 insert/delete 둘 다 조건을 다시 걸어서 건드리지 않는다.
+     * @return 옮긴 회원 수
+     */
+    public long archiveDeleted(LocalDateTime cutoff) {
+        long archived = 0;
+        while (true) {
+            Integer moved = batchTransaction.execute(status -> archiveBatch(cutoff));
+            archived += moved != null ? moved : 0;
+            if (moved == null || moved < batchSize) {
+                return archived;
+            }
+        }
+    }
+
+    private int archiveBatch(LocalDateTime cutoff) {
+        //idx_member_age(deleted_at, ...) 의 삭제 대기 구간만 범위로 읽는다.
+        List<Long> ids = queryFactory
+                .select(memberDSL.id)
+                .from(memberDSL)
+                .where(memberDSL.deletedAt.lt(cutoff))
+                .orderBy(memberDSL.deletedAt.asc())
+                .limit(batchSize)
+                .fetch();
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        em.createQuery(ARCHIVE)
+                .setParameter("ids", ids)
+                .setParameter("cutoff", cutoff)
+                .executeUpdate();
+        long deleted = queryFactory
+                .delete(memberDSL)
+                .where(memberDSL.id.in(ids), memberDSL.deletedAt.lt(cutoff))
+                .execute();
+        //회원은 2차 캐시 대상이 아니고 이 트랜잭션은 id만 읽었으므로 비울 엔티티가 없다.
+        //검색 결과는 이미 삭제 시점에 바뀌었으므로 이벤트도 없다.
+        return (int) deleted;
+    }
+
+    /** asOf 시점에 살아 있었지만 지금은 member_archive로 옮겨진 회원. 팀 이름은 지금 이름 */
+    public List<MemberTeamDto> searchAsOf(MemberSearchCondition condition, LocalDateTime asOf) {
+        MemberSearchCondition normalized = condition.normalized();
+        JPAQuery<MemberTeamDto> query = queryFactory
+                .select(new QMemberTeamDto(
+                        memberArchive.id.as("memberId"),
+                        memberArchive.username,
+                        memberArchive.age,
+                        teamDSL.id.as("teamId"),
+                        teamDSL.name.as("teamName")
+                ))
+                .from(memberArchive);
+        Long teamId = hasText(normalized.getTeamName()) ? teamIdResolver.resolve(normalized.getTeamName()) : null;
+        if (teamId == null && hasText(normalized.getTeamName())) {
+            query.join(teamDSL).on(teamDSL.id.eq(memberArchive.teamId));
+        } else {
+            query.leftJoin(teamDSL).on(teamDSL.id.eq(memberArchive.teamId));
+        }
+        return query
+                .where(
+                        memberArchive.deletedAt.gt(asOf),
+                        //created_at 컬럼이 생기기 전부터 있던 회원(null)은 처음부터 있었던 것으로 본다.
+                        memberArchive.createdAt.isNull().or(memberArchive.createdAt.loe(asOf)),
+                        usernameMatches(normalized.getUsername(), normalized.getUsernameMatch()),
+                        teamId != null ? memberArchive.teamId.eq(teamId) : teamNameEq(normalized.getTeamName()),
+                        ageGoe(normalized.getAgeGoe()),
+                        ageLoe(normalized.getAgeLoe())
+                )
+                .fetch();
+    }
+
+    private static BooleanExpression usernameMatches(String username, UsernameMatch match) {
+        if (!hasText(username)) {
+            return null;
+        }
+        if (match == UsernameMatch.PREFIX) {
+            return memberArchive.username.startsWith(username);
+        }
+        if (match == UsernameMatch.CONTAINS) {
+            return memberArchive.username.contains(username);
+        }
+        return memberArchive.username.eq(username);
+    }
+    private static BooleanExpression teamNameEq(String teamName) {
+        return hasText(teamName) ? teamDSL.name.eq(teamName) : null;
+    }
+    private static BooleanExpression ageGoe(Integer ageGoe) {
+        return ageGoe != null ? memberArchive.age.goe(ageGoe) : null;
+    }
+    private static BooleanExpression ageLoe(Integer ageLoe) {
+        return ageLoe != null ? memberArchive.age.loe(ageLoe) : null;
+    }
+}
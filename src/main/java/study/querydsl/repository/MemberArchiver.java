@@ -0,0 +1,71 @@
+package study.querydsl.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 삭제된 지 grace 가 지난 회원을 주기적으로 member_archive로 옮긴다.
+ * grace 동안은 memberdsl에 남아 있어서 복구(restore)할 수 있고, 그 뒤로는 as-of 조회에서만 보인다.
+ */
+@Slf4j
+@Component
+public class MemberArchiver {
+
+    private final MemberArchiveRepository archiveRepository;
+    private final boolean enabled;
+    private final Duration grace;
+    private final Duration interval;
+    private final ScheduledExecutorService scheduler;
+
+    public MemberArchiver(MemberArchiveRepository archiveRepository,
+                          @Value("${member.archive.enabled:true}") boolean enabled,
+                          @Value("${member.archive.grace:10m}") Duration grace,
+                          @Value("${member.archive.interval:1m}") Duration interval) {
+        this.archiveRepository = archiveRepository;
+        this.enabled = enabled;
+        this.grace = grace;
+        this.interval = interval;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "member-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startOnReady() {
+        if (enabled) {
+            scheduler.scheduleWithFixedDelay(this::archive, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** 지금 스레드에서 한 번 옮긴다. */
+    public long archive() {
+        try {
+            long archived = archiveRepository.archiveDeleted(LocalDateTime.now().minus(grace));
+            if (archived > 0) {
+                log.info("삭제된 회원 {}명을 member_archive로 옮겼습니다.", archived);
+            }
+            return archived;
+        } catch (RuntimeException e) {
+            //다음 주기에 다시 시도한다. 이미 옮긴 배치는 커밋되어 있다.
+            log.warn("삭제된 회원을 옮기지 못했습니다.", e);
+            return 0;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,222 @@
+package study.querydsl.repository;
+
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.hibernate.annotations.QueryHints;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Repository;
+import study.querydsl.datasource.DataSourceRoute;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.dto.QMemberTeamDto;
+import study.querydsl.monitor.InstrumentedJPAQueryFactory;
+import study.querydsl.monitor.QueryMetrics;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static study.querydsl.entity.QMemberDSL.memberDSL;
+import static study.querydsl.entity.QTeamDSL.teamDSL;
+
+/**
+ * searchPageComplex의 비동기 버전. content 쿼리와 count 쿼리를 각각 별도 EntityManager(=별도 커넥션)에서
+ * 동시에 실행하므로 응답 시간이 두 쿼리의 합이 아니라 느린 쪽 하나가 된다.
+ * 스프링 트랜잭션 밖에서 돌기 때문에 호출자의 트랜잭션에서 flush 안 된 변경은 보이지 않는다.
+ * 실행기가 가득 차면 MemberSearchBusyException(503), timeout 안에 끝나지 않으면 QueryTimeoutException.
+ */
+@Slf4j
+@Repository
+public class MemberAsyncSearchRepository {
+
+    private final EntityManagerFactory emf;
+    private final ExecutorService executor;
+    private final MemberCountCache countCache;
+    private final MemberResultCache resultCache;
+    private final TeamIdResolver teamIdResolver;
+    private final UsernameNgramIndex usernameIndex;
+    private final QueryMetrics queryMetrics;
+    private final Semaphore permits;
+    private final Duration timeout;
+
+    public MemberAsyncSearchRepository(EntityManagerFactory emf,
+                                       @Qualifier("memberQueryExecutor") ExecutorService executor,
+                                       MemberCountCache countCache,
+                                       MemberResultCache resultCache,
+                                       TeamIdResolver teamIdResolver,
+                                       UsernameNgramIndex usernameIndex,
+                                       QueryMetrics queryMetrics,
+                                       @Value("${member.async.pool-size:8}") int maxConcurrent,
+                                       @Value("${member.async.timeout:3s}") Duration timeout) {
+        this.emf = emf;
+        this.executor = executor;
+        this.countCache = countCache;
+        this.resultCache = resultCache;
+        this.teamIdResolver = teamIdResolver;
+        this.usernameIndex = usernameIndex;
+        this.queryMetrics = queryMetrics;
+        this.permits = new Semaphore(maxConcurrent);
+        this.timeout = timeout;
+    }
+
+    //같은 조건/페이지로 동시에 들어오면 조회는 한 번만 나간다.
+    public CompletableFuture<Page<MemberTeamDto>> searchPageComplexAsync(MemberSearchCondition condition, Pageable pageable) {
+        return resultCache.pageAsync(condition, pageable, () -> load(condition, pageable));
+    }
+
+    private CompletableFuture<Page<MemberTeamDto>> load(MemberSearchCondition condition, Pageable pageable) {
+        MemberSearchPlan plan = MemberSearchPlan.of(condition, teamIdResolver, usernameIndex);
+        RunningQueries running = new RunningQueries();
+        CompletableFuture<List<MemberTeamDto>> content;
+        CompletableFuture<Long> total;
+        try {
+            content = supply(running, queryFactory -> plan.page(queryFactory
+                            .select(new QMemberTeamDto(
+                                    memberDSL.id.as("memberId"),
+                                    memberDSL.username,
+                                    memberDSL.age,
+                                    teamDSL.id.as("teamId"),
+                                    teamDSL.name.as("teamName")
+                            ))
+                            .from(memberDSL), pageable, MemberTeamDto::getMemberId));
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(busy(e));
+        }
+        try {
+            total = supply(running, queryFactory -> countCache.total(condition, plan, queryFactory, pageable));
+        } catch (RejectedExecutionException e) {
+            //content는 이미 돌고 있을 수 있으므로 같이 끊는다.
+            content.cancel(false);
+            running.cancel();
+            return CompletableFuture.failedFuture(busy(e));
+        }
+
+        CompletableFuture<Page<MemberTeamDto>> page =
+                content.thenCombine(total, (list, count) -> (Page<MemberTeamDto>) new PageImpl<>(list, pageable, count));
+        //thenCombine은 둘 다 끝나야 끝나므로 한쪽이 실패하면 다른 쪽을 기다리지 않고 바로 실패시킨다.
+        BiConsumer<Object, Throwable> failFast = (result, e) -> {
+            if (e != null) {
+                page.completeExceptionally(e);
+            }
+        };
+        content.whenComplete(failFast);
+        total.whenComplete(failFast);
+        //타임아웃이나 실패면 아직 시작 안 한 쪽은 취소하고, 실행 중인 쿼리는 DB에서 끊는다.
+        page.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((result, e) -> {
+                    if (e != null) {
+                        content.cancel(false);
+                        total.cancel(false);
+                        running.cancel();
+                    }
+                });
+        return page;
+    }
+
+    /** MemberController에서 쓰는 동기 버전. 타임아웃이면 QueryTimeoutException */
+    public Page<MemberTeamDto> searchPageComplex(MemberSearchCondition condition, Pageable pageable) {
+        try {
+            return searchPageComplexAsync(condition, pageable).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TimeoutException) {
+                throw new QueryTimeoutException("회원 검색이 " + timeout + " 안에 끝나지 않았습니다.", cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+
+    private <T> CompletableFuture<T> supply(RunningQueries running, Function<JPAQueryFactory, T> work) {
+        return CompletableFuture.supplyAsync(() -> withQueryFactory(running, work), executor);
+    }
+
+    private MemberSearchBusyException busy(RejectedExecutionException e) {
+        return new MemberSearchBusyException("회원 검색 실행기가 가득 찼습니다.", e);
+    }
+
+    //쿼리마다 EntityManager를 새로 열고 닫는다. 동시에 열리는 개수는 permits로 제한.
+    private <T> T withQueryFactory(RunningQueries running, Function<JPAQueryFactory, T> work) {
+        boolean acquired = false;
+        EntityManager em = null;
+        Session session = null;
+        try {
+            acquired = permits.tryAcquire(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            if (!acquired) {
+                throw new MemberSearchBusyException("회원 검색 동시 실행 한도를 초과했습니다.");
+            }
+            em = emf.createEntityManager();
+            //이 EntityManager에서 만드는 쿼리(content, count) 모두에 JDBC 쿼리 타임아웃이 걸린다.
+            em.setProperty(QueryHints.TIMEOUT_JPA, timeout.toMillis());
+            session = em.unwrap(Session.class);
+            if (!running.register(session)) {
+                throw new QueryTimeoutException("회원 검색이 취소되었습니다.");
+            }
+            EntityManager queryEm = em;
+            //스프링 트랜잭션 밖이므로 읽기 전용임을 직접 표시해서 복제본으로 보낸다.
+            return DataSourceRoute.readOnly(() -> work.apply(new InstrumentedJPAQueryFactory(queryEm, queryMetrics)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueryTimeoutException("회원 검색이 중단되었습니다.", e);
+        } finally {
+            if (session != null) {
+                running.unregister(session);
+            }
+            if (em != null) {
+                em.close();
+            }
+            if (acquired) {
+                permits.release();
+            }
+        }
+    }
+
+    /** 검색 한 번(content + count)에서 쿼리를 실행 중인 세션들 */
+    private static class RunningQueries {
+
+        private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+        private volatile boolean cancelled;
+
+        //등록한 뒤에 cancelled를 보므로 cancel()과 엇갈려도 둘 중 하나는 반드시 알아챈다.
+        boolean register(Session session) {
+            sessions.add(session);
+            return !cancelled;
+        }
+
+        void unregister(Session session) {
+            sessions.remove(session);
+        }
+
+        //Session.cancelQuery는 다른 스레드에서 불러도 되는 유일한 메서드(Statement.cancel)
+        void cancel() {
+            cancelled = true;
+            for (Session session : sessions) {
+                try {
+                    session.cancelQuery();
+                } catch (RuntimeException e) {
+                    log.debug("회원 검색 쿼리 취소 실패", e);
+                }
+            }
+        }
+    }
+}
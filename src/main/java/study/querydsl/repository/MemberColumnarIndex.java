@@ -0,0 +1,545 @@
+package study.querydsl.repository;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.annotations.QueryHints;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.dto.QMemberTeamDto;
+import study.querydsl.entity.MemberChangedEvent;
+import study.querydsl.entity.TeamChangedEvent;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import static study.querydsl.entity.QMemberDSL.memberDSL;
+import static study.querydsl.entity.QTeamDSL.teamDSL;
+
+/**
+ * 회원 전체를 컬럼별 기본형 배열로 들고 있는 메모리 인덱스. search(condition, COLUMNAR)에서 쓴다.
+ * row는 (age, member_id) 순으로 정렬해 두므로 나이 조건은 이진 탐색으로 구간을 자르고,
+ * 팀 이름은 팀별 BitSet, 회원 이름은 사전 코드(int) 비교로 거른다. 이름 비교는 DB 콜레이션처럼 대소문자를 무시한다.
+ * 회원/팀 변경은 UsernameNgramIndex처럼 커밋 후에 id만 모아 두었다가 백그라운드에서 DB의 현재 값으로 다시 읽어
+ * 그 row만 반영한다. 반영 전까지는 사용 불가(SQL로 처리). 벌크 연산이나 바뀐 row가 많이 쌓이면 통째로 다시 만든다.
+ */
+@Slf4j
+@Component
+public class MemberColumnarIndex {
+
+    private static final int REFRESH_CHUNK = 1_000;
+
+    private final JPAQueryFactory queryFactory;
+    private final TransactionTemplate readOnly;
+    private final boolean enabled;
+    private final ExecutorService refresher;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Set<Long> pendingMemberIds = ConcurrentHashMap.newKeySet();
+    private final Set<Long> pendingTeamIds = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean rebuildRequested = new AtomicBoolean();
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+    //받은 변경 수와 반영이 끝난 변경 수. 같아야 최신 상태
+    private final AtomicLong changes = new AtomicLong();
+    private volatile long applied;
+    //null이면 사용 불가(로딩 전이거나 갱신 실패)
+    private Columns columns;
+
+    public MemberColumnarIndex(JPAQueryFactory queryFactory, PlatformTransactionManager transactionManager,
+                               @Value("${member.columnar.enabled:false}") boolean enabled) {
+        this.queryFactory = queryFactory;
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+        this.enabled = enabled;
+        this.refresher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "member-columnar-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** 최신 상태로 만들어져 있어서 바로 답할 수 있는지 */
+    public boolean isReady() {
+        lock.readLock().lock();
+        try {
+            return columns != null && applied == changes.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** 준비가 안 되어 있거나 처리할 수 없는 조건이면 null. 호출하는 쪽이 SQL로 처리한다. */
+    public List<MemberTeamDto> search(MemberSearchCondition condition) {
+        MemberSearchCondition normalized = condition.normalized();
+        //회원 이름은 정확히 일치만 사전 코드로 비교할 수 있다.
+        if (normalized.getUsernameMatch() != null) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            if (columns == null || applied != changes.get()) {
+                return null;
+            }
+            return columns.search(normalized);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        if (enabled) {
+            rebuildRequested.set(true);
+            changes.incrementAndGet();
+            scheduleRefresh();
+        }
+    }
+
+    @EventListener
+    public void onMemberChanged(MemberChangedEvent event) {
+        //트랜잭션 안에서 바로 온 이벤트는 무시하고, 커밋/롤백 후에 다시 오는 이벤트로 반영한다.
+        if (!enabled || TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        if (event.isBulk()) {
+            rebuildRequested.set(true);
+        } else {
+            pendingMemberIds.addAll(event.getMemberIds());
+        }
+        changes.incrementAndGet();
+        scheduleRefresh();
+    }
+
+    @EventListener
+    public void onTeamChanged(TeamChangedEvent event) {
+        if (!enabled || TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        if (event.isBulk()) {
+            rebuildRequested.set(true);
+        } else {
+            pendingTeamIds.addAll(event.getTeamIds());
+        }
+        changes.incrementAndGet();
+        scheduleRefresh();
+    }
+
+    /** 지금 스레드에서 통째로 다시 만든다. 호출자의 트랜잭션이 있으면 그 안에서 읽는다. */
+    public void rebuild() {
+        Columns loaded = readOnly.execute(status -> load());
+        lock.writeLock().lock();
+        try {
+            columns = loaded;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    //변경이 연달아 와도 갱신 작업은 하나만 대기시킨다.
+    private void scheduleRefresh() {
+        if (!refreshScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        refresher.execute(() -> {
+            refreshScheduled.set(false);
+            try {
+                refresh();
+            } catch (RuntimeException e) {
+                //반영 못 한 변경이 있을 수 있으므로 다음 변경 때 통째로 다시 만든다. 그 전까지는 SQL.
+                log.warn("회원 컬럼 인덱스를 갱신하지 못했습니다. SQL로 처리합니다.", e);
+                rebuildRequested.set(true);
+                lock.writeLock().lock();
+                try {
+                    columns = null;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        });
+    }
+
+    //다시 만드는 동안 들어온 변경은 pending에 남아 있다가 그 다음에 반영된다(같은 row를 두 번 반영해도 결과는 같다).
+    private void refresh() {
+        long target = changes.get();
+        if (rebuildRequested.getAndSet(false)) {
+            rebuild();
+        }
+        List<Long> memberIds = new ArrayList<>(pendingMemberIds);
+        pendingMemberIds.removeAll(memberIds);
+        List<Long> teamIds = new ArrayList<>(pendingTeamIds);
+        pendingTeamIds.removeAll(teamIds);
+        applyChanges(memberIds, teamIds);
+        boolean fragmented;
+        lock.writeLock().lock();
+        try {
+            fragmented = columns != null && columns.isFragmented();
+            if (!fragmented) {
+                applied = target;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (fragmented) {
+            rebuildRequested.set(true);
+            changes.incrementAndGet();
+            scheduleRefresh();
+        }
+    }
+
+    /** 지금 스레드에서 회원/팀 몇 개만 DB의 현재 값으로 다시 읽어 반영한다. 호출자의 트랜잭션이 있으면 그 안에서 읽는다. */
+    void applyChanges(Collection<Long> memberIds, Collection<Long> teamIds) {
+        List<Long> members = new ArrayList<>(memberIds);
+        for (int from = 0; from < members.size(); from += REFRESH_CHUNK) {
+            List<Long> chunk = members.subList(from, Math.min(members.size(), from + REFRESH_CHUNK));
+            List<MemberTeamDto> rows = readOnly.execute(status -> queryFactory
+                    .select(new QMemberTeamDto(memberDSL.id, memberDSL.username, memberDSL.age, teamDSL.id, teamDSL.name))
+                    .from(memberDSL)
+                    .leftJoin(memberDSL.team, teamDSL)
+                    //삭제된 회원은 없는 것으로 보고 인덱스에서 뺀다.
+                    .where(memberDSL.id.in(chunk), MemberSearchPlan.live())
+                    .fetch());
+            Map<Long, MemberTeamDto> current = new HashMap<>();
+            for (MemberTeamDto row : rows) {
+                current.put(row.getMemberId(), row);
+            }
+            lock.writeLock().lock();
+            try {
+                if (columns == null) {
+                    return;
+                }
+                for (Long id : chunk) {
+                    columns.put(id, current.get(id));
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        if (teamIds.isEmpty()) {
+            return;
+        }
+        List<Tuple> teams = readOnly.execute(status -> queryFactory
+                .select(teamDSL.id, teamDSL.name)
+                .from(teamDSL)
+                .where(teamDSL.id.in(teamIds))
+                .fetch());
+        lock.writeLock().lock();
+        try {
+            if (columns == null) {
+                return;
+            }
+            //삭제된 팀은 그 팀 회원이 먼저 옮겨지거나 지워졌으므로 그대로 둔다.
+            for (Tuple team : teams) {
+                columns.renameTeam(team.get(teamDSL.id), team.get(teamDSL.name));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Columns load() {
+        Columns.Builder builder = new Columns.Builder();
+        try (Stream<MemberTeamDto> rows = queryFactory
+                .select(new QMemberTeamDto(memberDSL.id, memberDSL.username, memberDSL.age, teamDSL.id, teamDSL.name))
+                .from(memberDSL)
+                .leftJoin(memberDSL.team, teamDSL)
+                .where(MemberSearchPlan.live())
+                .orderBy(memberDSL.age.asc(), memberDSL.id.asc())
+                .setHint(QueryHints.FETCH_SIZE, Integer.MIN_VALUE)
+                .setHint(QueryHints.READ_ONLY, true)
+                .stream()) {
+            Iterator<MemberTeamDto> iterator = rows.iterator();
+            while (iterator.hasNext()) {
+                builder.add(iterator.next());
+            }
+        }
+        return builder.build();
+    }
+
+    //DB 콜레이션(_ci)처럼 대소문자만 맞춘다. 악센트/끝 공백 규칙까지 따라 하지는 않는다.
+    static String fold(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 처음 만든 배열(base)은 바뀌지 않고, 바뀐 회원은 base row를 죽은 것으로 표시한 뒤 changed에 따로 둔다.
+     * 팀 이름은 팀 번호(ordinal)별로 한 곳에만 있어서 이름이 바뀌면 그 칸만 고친다. 잠금은 바깥에서 건다.
+     */
+    static final class Columns {
+        //팀/회원 이름이 없는 row
+        private static final int NONE = -1;
+
+        private final int size;
+        private final long[] ids;
+        private final int[] ages;
+        private final int[] teamOrdinals;
+        private final int[] usernameCodes;
+        //member_id 오름차순과 그 id의 row. id로 base row를 찾을 때 이진 탐색
+        private final long[] sortedIds;
+        private final int[] rowOfSortedId;
+        private final String[] usernames;
+        //회원 이름 코드 -> 대소문자 무시 코드
+        private final int[] foldedCodes;
+        private final Map<String, Integer> foldedDictionary;
+        private final BitSet[] rowsByTeam;
+        private final BitSet dead = new BitSet();
+        private int deadCount;
+        private final Map<Long, Row> changed = new HashMap<>();
+        private final List<Long> teamIds;
+        private final List<String> teamNames;
+        private final Map<Long, Integer> teamOrdinalById;
+
+        private Columns(Builder builder) {
+            this.size = builder.size;
+            this.ids = Arrays.copyOf(builder.ids, size);
+            this.ages = Arrays.copyOf(builder.ages, size);
+            this.teamOrdinals = Arrays.copyOf(builder.teamOrdinals, size);
+            this.usernameCodes = Arrays.copyOf(builder.usernameCodes, size);
+            this.usernames = builder.usernames.toArray(new String[0]);
+            this.foldedCodes = new int[usernames.length];
+            this.foldedDictionary = new HashMap<>();
+            for (int code = 0; code < usernames.length; code++) {
+                foldedCodes[code] = foldedDictionary.computeIfAbsent(fold(usernames[code]), name -> foldedDictionary.size());
+            }
+            this.teamIds = builder.teamIds;
+            this.teamNames = builder.teamNames;
+            this.teamOrdinalById = builder.teamOrdinalById;
+            this.rowsByTeam = new BitSet[teamIds.size()];
+            for (int row = 0; row < size; row++) {
+                int team = teamOrdinals[row];
+                if (team != NONE) {
+                    if (rowsByTeam[team] == null) {
+                        rowsByTeam[team] = new BitSet(size);
+                    }
+                    rowsByTeam[team].set(row);
+                }
+            }
+            Integer[] byId = new Integer[size];
+            for (int row = 0; row < size; row++) {
+                byId[row] = row;
+            }
+            Arrays.sort(byId, Comparator.comparingLong(row -> ids[row]));
+            this.sortedIds = new long[size];
+            this.rowOfSortedId = new int[size];
+            for (int i = 0; i < size; i++) {
+                sortedIds[i] = ids[byId[i]];
+                rowOfSortedId[i] = byId[i];
+            }
+        }
+
+        List<MemberTeamDto> search(MemberSearchCondition condition) {
+            List<MemberTeamDto> result = new ArrayList<>();
+            String username = condition.getUsername() != null ? fold(condition.getUsername()) : null;
+            BitSet teams = condition.getTeamName() != null ? teamsNamed(fold(condition.getTeamName())) : null;
+            if (teams != null && teams.isEmpty()) {
+                return result;
+            }
+            searchBase(condition, username, teams, result);
+            for (Row row : changed.values()) {
+                if ((condition.getAgeGoe() == null || row.age >= condition.getAgeGoe())
+                        && (condition.getAgeLoe() == null || row.age <= condition.getAgeLoe())
+                        && (username == null || username.equals(row.foldedUsername))
+                        && (teams == null || (row.team != NONE && teams.get(row.team)))) {
+                    result.add(toDto(row.id, row.username, row.age, row.team));
+                }
+            }
+            return result;
+        }
+
+        private void searchBase(MemberSearchCondition condition, String username, BitSet teams, List<MemberTeamDto> result) {
+            int from = condition.getAgeGoe() != null ? lowerBound(condition.getAgeGoe()) : 0;
+            int to = condition.getAgeLoe() != null ? lowerBound(condition.getAgeLoe() + 1L) : size;
+            if (from >= to) {
+                return;
+            }
+            int foldedCode = NONE;
+            if (username != null) {
+                Integer code = foldedDictionary.get(username);
+                if (code == null) {
+                    return;
+                }
+                foldedCode = code;
+            }
+            BitSet rows = null;
+            if (teams != null) {
+                rows = new BitSet(size);
+                for (int team = teams.nextSetBit(0); team >= 0 && team < rowsByTeam.length; team = teams.nextSetBit(team + 1)) {
+                    if (rowsByTeam[team] != null) {
+                        rows.or(rowsByTeam[team]);
+                    }
+                }
+            }
+            int row = rows != null ? rows.nextSetBit(from) : from;
+            while (row >= 0 && row < to) {
+                if (!dead.get(row) && (foldedCode == NONE
+                        || (usernameCodes[row] != NONE && foldedCodes[usernameCodes[row]] == foldedCode))) {
+                    String name = usernameCodes[row] == NONE ? null : usernames[usernameCodes[row]];
+                    result.add(toDto(ids[row], name, ages[row], teamOrdinals[row]));
+                }
+                row = rows != null ? rows.nextSetBit(row + 1) : row + 1;
+            }
+        }
+
+        //row가 null이면 삭제
+        void put(long id, MemberTeamDto row) {
+            int index = Arrays.binarySearch(sortedIds, id);
+            if (index >= 0 && !dead.get(rowOfSortedId[index])) {
+                dead.set(rowOfSortedId[index]);
+                deadCount++;
+            }
+            if (row == null) {
+                changed.remove(id);
+                return;
+            }
+            int team = row.getTeamId() == null ? NONE : teamOrdinal(row.getTeamId(), row.getTeamName());
+            String username = row.getUsername();
+            changed.put(id, new Row(id, username, username != null ? fold(username) : null, row.getAge(), team));
+        }
+
+        void renameTeam(long teamId, String name) {
+            Integer team = teamOrdinalById.get(teamId);
+            if (team != null) {
+                teamNames.set(team, name);
+            }
+        }
+
+        //따로 들고 있는 row가 많으면 검색이 느려지므로 다시 만든다.
+        boolean isFragmented() {
+            return changed.size() + deadCount > Math.max(1024, size / 8);
+        }
+
+        int size() {
+            return size - deadCount + changed.size();
+        }
+
+        //이름이 (대소문자 무시) 같은 팀 번호들. 팀 수만큼만 돈다.
+        private BitSet teamsNamed(String foldedName) {
+            BitSet teams = new BitSet(teamNames.size());
+            for (int team = 0; team < teamNames.size(); team++) {
+                if (teamNames.get(team) != null && fold(teamNames.get(team)).equals(foldedName)) {
+                    teams.set(team);
+                }
+            }
+            return teams;
+        }
+
+        private int teamOrdinal(Long teamId, String teamName) {
+            Integer team = teamOrdinalById.get(teamId);
+            if (team != null) {
+                teamNames.set(team, teamName);
+                return team;
+            }
+            teamIds.add(teamId);
+            teamNames.add(teamName);
+            teamOrdinalById.put(teamId, teamIds.size() - 1);
+            return teamIds.size() - 1;
+        }
+
+        //age >= value 인 첫 row
+        private int lowerBound(long value) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ages[mid] < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private MemberTeamDto toDto(long id, String username, int age, int team) {
+            return team == NONE
+                    ? new MemberTeamDto(id, username, age, null, null)
+                    : new MemberTeamDto(id, username, age, teamIds.get(team), teamNames.get(team));
+        }
+
+        private static final class Row {
+            private final long id;
+            private final String username;
+            private final String foldedUsername;
+            private final int age;
+            private final int team;
+
+            private Row(long id, String username, String foldedUsername, int age, int team) {
+                this.id = id;
+                this.username = username;
+                this.foldedUsername = foldedUsername;
+                this.age = age;
+                this.team = team;
+            }
+        }
+
+        static final class Builder {
+            private int size;
+            private long[] ids = new long[1024];
+            private int[] ages = new int[1024];
+            private int[] teamOrdinals = new int[1024];
+            private int[] usernameCodes = new int[1024];
+            private final List<Long> teamIds = new ArrayList<>();
+            private final List<String> teamNames = new ArrayList<>();
+            private final Map<Long, Integer> teamOrdinalById = new HashMap<>();
+            private final List<String> usernames = new ArrayList<>();
+            private final Map<String, Integer> usernameDictionary = new HashMap<>();
+
+            //(age, member_id) 순서로 넣어야 한다.
+            void add(MemberTeamDto row) {
+                if (size == ids.length) {
+                    int capacity = size * 2;
+                    ids = Arrays.copyOf(ids, capacity);
+                    ages = Arrays.copyOf(ages, capacity);
+                    teamOrdinals = Arrays.copyOf(teamOrdinals, capacity);
+                    usernameCodes = Arrays.copyOf(usernameCodes, capacity);
+                }
+                ids[size] = row.getMemberId();
+                ages[size] = row.getAge();
+                teamOrdinals[size] = row.getTeamId() == null ? NONE
+                        : teamOrdinalById.computeIfAbsent(row.getTeamId(), id -> {
+                            teamIds.add(id);
+                            teamNames.add(row.getTeamName());
+                            return teamIds.size() - 1;
+                        });
+                usernameCodes[size] = row.getUsername() == null ? NONE
+                        : usernameDictionary.computeIfAbsent(row.getUsername(), name -> {
+                            usernames.add(name);
+                            return usernames.size() - 1;
+                        });
+                size++;
+            }
+
+            Columns build() {
+                return new Columns(this);
+            }
+        }
+    }
+}
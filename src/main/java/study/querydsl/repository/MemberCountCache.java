@@ -0,0 +1,139 @@
+package study.querydsl.repository;
+
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.entity.MemberChangedEvent;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import static study.querydsl.entity.QMemberDSL.memberDSL;
+
+/**
+ * searchPageComplex의 전체 카운트 캐시. 정규화한 검색 조건을 키로 TTL 동안 재사용하고,
+ * 회원이 저장/수정/삭제되거나 벌크 연산이 나가면 전부 비운다.
+ * estimateLimit > 0 이면 그 이상은 세지 않고 "limit + 1 이상" 으로만 본다(추정 카운트).
+ */
+@Component
+public class MemberCountCache {
+
+    private final Map<MemberSearchCondition, Entry> entries = new ConcurrentHashMap<>();
+    private final long ttlNanos;
+    private final int maxSize;
+    private final long estimateLimit;
+    private final boolean enabled;
+
+    public MemberCountCache(@Value("${member.count-cache.enabled:true}") boolean enabled,
+                            @Value("${member.count-cache.ttl:30s}") Duration ttl,
+                            @Value("${member.count-cache.max-size:1000}") int maxSize,
+                            @Value("${member.count-cache.estimate-limit:0}") long estimateLimit) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxSize = maxSize;
+        this.estimateLimit = estimateLimit;
+        this.enabled = enabled;
+    }
+
+    public long get(MemberSearchCondition condition, LongSupplier counter) {
+        if (!cacheable()) {
+            return counter.getAsLong();
+        }
+        MemberSearchCondition key = condition.normalized();
+        long now = System.nanoTime();
+        Entry entry = entries.get(key);
+        if (entry != null && now - entry.loadedAt < ttlNanos) {
+            return entry.count;
+        }
+        long count = counter.getAsLong();
+        if (entries.size() >= maxSize) {
+            entries.clear();
+        }
+        entries.put(key, new Entry(count, now));
+        return count;
+    }
+
+    /** searchPageComplex 용 전체 카운트. 캐시를 먼저 보고, 없으면 count 쿼리를 날린다. */
+    long total(MemberSearchCondition condition, MemberSearchPlan plan, JPAQueryFactory queryFactory, Pageable pageable) {
+        long total = get(condition, () -> countMembers(plan, queryFactory));
+        //추정 모드에서 limit을 넘으면 정확한 값은 모르므로, 이 페이지 끝에서 다음 페이지가 있는지만 본다.
+        if (isEstimateEnabled() && total > estimateLimit) {
+            return Math.max(total, pageEnd(plan, queryFactory, pageable));
+        }
+        return total;
+    }
+
+    /**
+     * 이 페이지의 마지막 자리와 그 다음 자리에 row가 있는지 2개만 읽어 본다(정렬과 무관하게 개수는 같다).
+     * 둘 다 있으면 다음 페이지가 있으므로 end + 1, 마지막 자리만 있으면 정확히 end,
+     * 없으면 페이지가 덜 찼으므로 0(세어 둔 하한을 그대로 쓴다).
+     */
+    private long pageEnd(MemberSearchPlan plan, JPAQueryFactory queryFactory, Pageable pageable) {
+        long end = pageable.getOffset() + pageable.getPageSize();
+        int rows = plan.forCount(queryFactory
+                        .select(memberDSL.id)
+                        .from(memberDSL))
+                .offset(end - 1)
+                .limit(2)
+                .fetch()
+                .size();
+        return rows == 0 ? 0 : end + rows - 1;
+    }
+
+    /** fetchCount(), fetchResult() deprecated에 따른 count 쿼리 */
+    private long countMembers(MemberSearchPlan plan, JPAQueryFactory queryFactory) {
+        if (isEstimateEnabled()) {
+            //limit + 1 개까지만 읽고 멈춘다. 전체를 스캔하는 count(*) 보다 싸다.
+            return plan.forCount(queryFactory
+                            .select(memberDSL.id)
+                            .from(memberDSL))
+                    .limit(estimateLimit + 1)
+                    .fetch()
+                    .size();
+        }
+        //팀 조건이 없으면 팀 조인 없이 member 테이블만 센다.
+        Long count = plan.forCount(queryFactory
+                        .select(memberDSL.count())
+                        .from(memberDSL))
+                .fetchOne();
+        return count != null ? count : 0L;
+    }
+
+    public boolean isEstimateEnabled() {
+        return estimateLimit > 0;
+    }
+
+    public long getEstimateLimit() {
+        return estimateLimit;
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    @EventListener
+    public void onMemberChanged(MemberChangedEvent event) {
+        invalidateAll();
+    }
+
+    //쓰기 트랜잭션 안에서는 flush 안 된 변경이 있을 수 있으므로 캐시를 쓰지 않는다.
+    private boolean cacheable() {
+        return enabled && (!TransactionSynchronizationManager.isActualTransactionActive()
+                || TransactionSynchronizationManager.isCurrentTransactionReadOnly());
+    }
+
+    private static class Entry {
+        private final long count;
+        private final long loadedAt;
+
+        private Entry(long count, long loadedAt) {
+            this.count = count;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package study.querydsl.repository;
+
+import com.querydsl.jpa.impl.JPAQuery;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import javax.persistence.EntityManager;
+
+/**
+ * 엔티티 조회 시 연관관계를 어디까지 같이 가져올지. TEAM이면 MemberDSL에 정의한
+ * 엔티티 그래프로 team을 한 번에 가져와서, 결과를 돌면서 getTeam().getName() 해도 N+1이 안 생긴다.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum MemberFetchPlan {
+    LAZY(null),
+    TEAM("MemberDSL.team");
+
+    private static final String LOAD_GRAPH = "javax.persistence.loadgraph";
+
+    private final String graphName;
+
+    <T> JPAQuery<T> apply(JPAQuery<T> query, EntityManager em) {
+        if (graphName == null) {
+            return query;
+        }
+        return query.setHint(LOAD_GRAPH, em.getEntityGraph(graphName));
+    }
+}
@@ -5,14 +5,21 @@ import com.querydsl.core.types.Predicate;
 import com.querydsl.core.types.dsl.BooleanExpression;
 import com.querydsl.jpa.impl.JPAQueryFactory;
 import lombok.RequiredArgsConstructor;
+import org.hibernate.annotations.QueryHints;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
 import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberSummaryDto;
+import study.querydsl.dto.QMemberSummaryDto;
 import study.querydsl.dto.MemberTeamDto;
 import study.querydsl.dto.QMemberTeamDto;
 import study.querydsl.entity.MemberDSL;
 import study.querydsl.entity.QMemberDSL;
 import study.querydsl.entity.QTeamDSL;
+import study.querydsl.monitor.InstrumentedJPAQueryFactory;
+import study.querydsl.monitor.QueryMetrics;
 
 import javax.persistence.EntityManager;
 import java.util.List;
@@ -23,58 +30,143 @@ import static study.querydsl.entity.QMemberDSL.*;
 import static study.querydsl.entity.QTeamDSL.*;
 
 
+/**
+ * 조회 메서드는 모두 삭제 대기(soft delete) 회원을 뺀다. 삭제된 회원까지 봐야 하면 em.find나 as-of 검색을 쓴다.
+ */
 @Repository
+@Transactional(readOnly = true)     //조회는 복제본으로. 저장은 메서드에 따로 @Transactional
 //@RequiredArgsConstructor
 public class MemberJpaRepository {
 
     private final EntityManager em;
     private final JPAQueryFactory queryFactory;
+    private final MemberSearchExecutor searchExecutor;
+    private final int batchSize;
 
     //이렇게 주입 시에 queryFactory를 만들어줘도 되고,
     //메인클래스 등에 @Bean으로 등록해줘도 되긴 한다.
-    public MemberJpaRepository(EntityManager em) {
+    public MemberJpaRepository(EntityManager em, MemberSearchExecutor searchExecutor, QueryMetrics queryMetrics,
+                               @Value("${member.batch.size:1000}") int batchSize) {
         this.em = em;
-        this.queryFactory = new JPAQueryFactory(em);
+        this.queryFactory = new InstrumentedJPAQueryFactory(em, queryMetrics);
+        this.searchExecutor = searchExecutor;
+        this.batchSize = batchSize;
     }
 
+    @Transactional
     public void save(MemberDSL member) {
         em.persist(member);
     }
 
+    /**
+     * 대량 저장. batchSize 마다 flush(JDBC 배치 insert) 하고 영속성 컨텍스트를 비워서
+     * 1차 캐시와 스냅샷이 계속 쌓이지 않게 한다. 끝나면 넘긴 엔티티는 모두 준영속 상태.
+     * 트랜잭션이 없으면 새로 열고, 호출하는 쪽 트랜잭션이 있으면 참여한다(그 트랜잭션의 다른 관리 엔티티도 같이 준영속이 된다).
+     * new MemberDSL(username, age, team)은 team.getMembers()에도 추가해서 팀 컬렉션이 넘긴 회원 수만큼 커지므로,
+     * 많이 넣을 때는 MemberDSL.forBulkInsert로 만든다.
+     */
+    @Transactional
+    public int saveAll(Iterable<MemberDSL> members) {
+        int count = 0;
+        for (MemberDSL member : members) {
+            em.persist(member);
+            if (++count % batchSize == 0) {
+                em.flush();
+                em.clear();
+            }
+        }
+        em.flush();
+        em.clear();
+        return count;
+    }
+
+    //em.find는 조건을 걸 수 없으므로 찾은 뒤 거른다.
     public Optional<MemberDSL> findById(Long id) {
         MemberDSL findMember = em.find(MemberDSL.class, id);
-        return Optional.of(findMember);
+        return Optional.ofNullable(findMember).filter(member -> !member.isDeleted());
     }
 
     public List<MemberDSL> findAll() {
-        return em.createQuery("select m from MemberDSL m", MemberDSL.class)
+        return em.createQuery("select m from MemberDSL m where m.deletedAt is null", MemberDSL.class)
                 .getResultList();
     }
 
     public List<MemberDSL> findAll_Querydsl() {
+        return findAll_Querydsl(MemberFetchPlan.LAZY);
+    }
+
+    //팀까지 쓸 거면 MemberFetchPlan.TEAM. 결과 수만큼 팀 select가 나가는 N+1을 막는다.
+    public List<MemberDSL> findAll_Querydsl(MemberFetchPlan fetchPlan) {
+        return fetchPlan.apply(queryFactory
+                        .selectFrom(memberDSL)
+                        .where(MemberSearchPlan.live()), em)
+                .fetch();
+    }
+
+    /**
+     * 읽기 전용 엔티티 조회. 하이버네이트가 dirty checking 스냅샷을 만들지 않아서
+     * 쓰기 트랜잭션 안에서 불러도 flush 대상이 아니다. 수정해도 DB에 반영되지 않음.
+     * 영속성 컨텍스트 등록과 team 프록시는 그대로이므로, 엔티티가 필요 없으면 findAllSummary.
+     */
+    public List<MemberDSL> findAll_QuerydslReadOnly(MemberFetchPlan fetchPlan) {
+        return fetchPlan.apply(queryFactory
+                        .selectFrom(memberDSL)
+                        .where(MemberSearchPlan.live()), em)
+                .setHint(QueryHints.READ_ONLY, true)
+                .fetch();
+    }
+
+    //엔티티 대신 DTO로 바로. team.id는 FK 컬럼이라 팀 조인도, 팀 프록시도 없다.
+    public List<MemberSummaryDto> findAllSummary() {
         return queryFactory
-                .selectFrom(memberDSL)
+                .select(summary())
+                .from(memberDSL)
+                .where(MemberSearchPlan.live())
                 .fetch();
     }
 
     public List<MemberDSL> findByUsername(String username) {
         return em.createQuery("select m from MemberDSL m" +
-                        " where m.username = :username", MemberDSL.class)
+                        " where m.username = :username and m.deletedAt is null", MemberDSL.class)
                 .setParameter("username", username)
                 .getResultList();
     }
 
     public List<MemberDSL> findByUsername_QueryDSL(String username) {
+        return findByUsername_QueryDSL(username, MemberFetchPlan.LAZY);
+    }
+
+    public List<MemberDSL> findByUsername_QueryDSL(String username, MemberFetchPlan fetchPlan) {
+        return fetchPlan.apply(queryFactory
+                        .selectFrom(memberDSL)
+                        .where(MemberSearchPlan.live(), memberDSL.username.eq(username)), em)
+                .fetch();
+    }
+
+    public List<MemberDSL> findByUsername_QueryDSLReadOnly(String username, MemberFetchPlan fetchPlan) {
+        return fetchPlan.apply(queryFactory
+                        .selectFrom(memberDSL)
+                        .where(MemberSearchPlan.live(), memberDSL.username.eq(username)), em)
+                .setHint(QueryHints.READ_ONLY, true)
+                .fetch();
+    }
+
+    public List<MemberSummaryDto> findSummaryByUsername(String username) {
         return queryFactory
-                .selectFrom(memberDSL)
-                .where(memberDSL.username.eq(username))
+                .select(summary())
+                .from(memberDSL)
+                .where(MemberSearchPlan.live(), memberDSL.username.eq(username))
                 .fetch();
     }
 
+    private static QMemberSummaryDto summary() {
+        return new QMemberSummaryDto(memberDSL.id, memberDSL.username, memberDSL.age, memberDSL.team.id);
+    }
+
     //검색 조건 추가 (동적 쿼리)
     public List<MemberTeamDto> searchByBuilder(MemberSearchCondition condition){
         //builder
-        BooleanBuilder builder = new BooleanBuilder();
+        BooleanBuilder builder = new BooleanBuilder(MemberSearchPlan.live());
         //username이 null이나 "" 등으로 넘어올 수 있음. 이때 hasText 쓰면 됨.
         if(hasText(condition.getUsername())){
             builder.and(memberDSL.username.eq(condition.getUsername()));
@@ -102,36 +194,9 @@ public class MemberJpaRepository {
                 .fetch();
     }
 
-    //where절 파라미터 동적 쿼리
+    //where절 파라미터 동적 쿼리. 조건 조합별 where/조인 규칙은 MemberSearchPlan 한 곳에 있다.
     public List<MemberTeamDto> searchByWhere(MemberSearchCondition condition){
-        return queryFactory
-                .select(new QMemberTeamDto(
-                        memberDSL.id.as("memberId"),
-                        memberDSL.username,
-                        memberDSL.age,
-                        teamDSL.id.as("teamId"),
-                        teamDSL.name.as("teamName")
-                ))
-                .from(memberDSL)
-                .where(usernameEq(condition.getUsername()),
-                        teamNameEq(condition.getTeamName()),
-                        ageGoe(condition.getAgeGoe()),
-                        ageLoe(condition.getAgeLoe()))
-                .leftJoin(memberDSL.team, teamDSL)
-                .fetch();
-    }
-    //Predicate가 아닌, BooleanExpression으로 해야 조합 가능.
-    private BooleanExpression usernameEq(String username) {
-        return hasText(username) ? memberDSL.username.eq(username) : null ;
-    }
-    private BooleanExpression teamNameEq(String teamName) {
-        return hasText(teamName) ? teamDSL.name.eq(teamName) : null;
-    }
-    private BooleanExpression ageGoe(Integer ageGoe) {
-        return ageGoe != null ? memberDSL.age.goe(ageGoe) : null;
-    }
-    private BooleanExpression ageLoe(Integer ageLoe) {
-        return ageLoe != null ? memberDSL.age.loe(ageLoe) : null;
+        return searchExecutor.search(condition);
     }
 
 }
@@ -0,0 +1,94 @@
+package study.querydsl.repository;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import study.querydsl.dto.MemberCursor;
+import study.querydsl.dto.MemberKeysetPage;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberTeamDto;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 검색 결과를 Flux로 흘려보낸다. JDBC는 블로킹이므로 키셋 페이지 조회는 memberQueryExecutor
+ * (크기 제한 풀, 또는 가상 스레드)에서 하고, 요청 스레드는 기다리지 않는다.
+ * 구독자가 앞 페이지의 row를 다 받고 다음 row를 요청할 때만 다음 페이지를 조회하므로(backpressure)
+ * 느린 클라이언트 때문에 결과가 메모리에 쌓이지 않는다(미리 읽어두는 페이지 없음).
+ * 실행기가 가득 차면 기다리지 않고 바로 MemberSearchBusyException(503).
+ * 페이지 쿼리마다 member.async.timeout을 JDBC 쿼리 타임아웃으로 걸어서 DB에서도 끊는다.
+ */
+@Repository
+public class MemberReactiveSearchRepository {
+
+    private final MemberRepository memberRepository;
+    private final Scheduler scheduler;
+    private final Duration timeout;
+    private final int maxPageSize;
+
+    public MemberReactiveSearchRepository(MemberRepository memberRepository,
+                                          @Qualifier("memberQueryExecutor") ExecutorService executor,
+                                          @Value("${member.async.timeout:3s}") Duration timeout,
+                                          @Value("${member.async.max-page-size:1000}") int maxPageSize) {
+        this.memberRepository = memberRepository;
+        this.scheduler = Schedulers.fromExecutorService(executor, "member-query");
+        this.timeout = timeout;
+        this.maxPageSize = maxPageSize;
+    }
+
+    /** (age, member_id) 순. 페이지마다 읽기 전용 트랜잭션(복제본)이 따로 열린다. */
+    public Flux<MemberTeamDto> search(MemberSearchCondition condition, int pageSize) {
+        if (pageSize < 1 || pageSize > maxPageSize) {
+            return Flux.error(new IllegalArgumentException(
+                    "size는 1 이상 " + maxPageSize + " 이하여야 합니다: " + pageSize));
+        }
+        //generate는 요청받은 개수만큼만 불리고, subscribeOn이 요청마다 실행기에서 돌린다.
+        return Flux.<MemberTeamDto, Pages>generate(() -> new Pages(condition, pageSize), (pages, sink) -> {
+                    MemberTeamDto row = pages.next();
+                    if (row == null) {
+                        sink.complete();
+                    } else {
+                        sink.next(row);
+                    }
+                    return pages;
+                })
+                .subscribeOn(scheduler)
+                .onErrorMap(RejectedExecutionException.class,
+                        e -> new MemberSearchBusyException("회원 검색 실행기가 가득 찼습니다.", e));
+    }
+
+    //지금 페이지의 row를 다 내보낸 뒤에야 다음 페이지를 조회한다.
+    private class Pages {
+
+        private final MemberSearchCondition condition;
+        private final int pageSize;
+        private Iterator<MemberTeamDto> rows = Collections.emptyIterator();
+        private MemberCursor cursor;
+        private boolean last;
+
+        Pages(MemberSearchCondition condition, int pageSize) {
+            this.condition = condition;
+            this.pageSize = pageSize;
+        }
+
+        MemberTeamDto next() {
+            while (!rows.hasNext()) {
+                if (last) {
+                    return null;
+                }
+                MemberKeysetPage page = memberRepository.searchByKeyset(condition, cursor, pageSize, timeout);
+                rows = page.getContent().iterator();
+                last = !page.isHasNext();
+                cursor = last ? null : MemberCursor.decode(page.getNext());
+            }
+            return rows.next();
+        }
+    }
+}
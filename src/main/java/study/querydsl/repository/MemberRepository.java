@@ -1,11 +1,44 @@
 package study.querydsl.repository;
 
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import study.querydsl.dto.MemberSummaryDto;
 import study.querydsl.entity.MemberDSL;
 
+import javax.persistence.QueryHint;
+
 import java.util.List;
 
+/**
+ * 여기 선언한 finder와 검색(MemberRepositoryCustom)은 삭제 대기(soft delete) 회원을 뺀다.
+ * JpaRepository에서 물려받은 findById/findAll/getById 등은 엔티티 그대로의 조회라서 삭제 대기 회원도 나온다
+ * (복구, 아카이브 같은 관리용).
+ */
 public interface MemberRepository extends JpaRepository<MemberDSL, Long>, MemberRepositoryCustom {
     //스프링 데이터 JPA에서 제공하지 않는 메서드만.
-    List<MemberDSL> findByUsername(String username);
+    @Transactional(readOnly = true)
+    @Query("select m from MemberDSL m where m.username = :username and m.deletedAt is null")
+    List<MemberDSL> findByUsername(@Param("username") String username);
+
+    //team까지 한 번에 조회 (MemberDSL의 @NamedEntityGraph)
+    @Transactional(readOnly = true)
+    @EntityGraph("MemberDSL.team")
+    @Query("select m from MemberDSL m where m.username = :username and m.deletedAt is null")
+    List<MemberDSL> findWithTeamByUsername(@Param("username") String username);
+
+    //스냅샷 없이 읽기 전용 엔티티로 조회. 값을 바꿔도 flush 되지 않음
+    @Transactional(readOnly = true)
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true"))
+    @Query("select m from MemberDSL m where m.username = :username and m.deletedAt is null")
+    List<MemberDSL> findReadOnlyByUsername(@Param("username") String username);
+
+    //DTO 프로젝션. m.team.id는 FK 컬럼이라 팀 조인이 없다.
+    @Transactional(readOnly = true)
+    @Query("select new study.querydsl.dto.MemberSummaryDto(m.id, m.username, m.age, m.team.id)" +
+            " from MemberDSL m where m.username = :username and m.deletedAt is null")
+    List<MemberSummaryDto> findSummaryByUsername(@Param("username") String username);
 }
@@ -2,13 +2,32 @@ package study.querydsl.repository;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import study.querydsl.dto.MemberBulkResult;
+import study.querydsl.dto.MemberCursor;
+import study.querydsl.dto.MemberKeysetPage;
 import study.querydsl.dto.MemberSearchCondition;
 import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.entity.MemberDSL;
+import study.querydsl.entity.TeamDSL;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface MemberRepositoryCustom {
     List<MemberTeamDto> search(MemberSearchCondition condition);
+    List<MemberTeamDto> search(MemberSearchCondition condition, SearchEngine engine);
     List<MemberTeamDto> searchPageSimple(MemberSearchCondition condition, Pageable pageable);
+    List<List<MemberTeamDto>> searchBatch(List<MemberSearchCondition> conditions);
     Page<MemberTeamDto> searchPageComplex(MemberSearchCondition condition, Pageable pageable);
+    Page<MemberDSL> searchEntityPage(MemberSearchCondition condition, Pageable pageable);
+    Page<TeamDSL> searchTeamPage(MemberSearchCondition condition, Pageable pageable);
+    Stream<MemberTeamDto> streamSearch(MemberSearchCondition condition);
+    MemberKeysetPage searchByKeyset(MemberSearchCondition condition, MemberCursor cursor, int size);
+    MemberKeysetPage searchByKeyset(MemberSearchCondition condition, MemberCursor cursor, int size, Duration queryTimeout);
+    List<MemberTeamDto> searchAsOf(MemberSearchCondition condition, LocalDateTime asOf);
+    MemberBulkResult bulkAddAge(MemberSearchCondition condition, int delta);
+    MemberBulkResult bulkDelete(MemberSearchCondition condition);
+    MemberBulkResult bulkSoftDelete(MemberSearchCondition condition);
 }
@@ -1,64 +1,170 @@
 package study.querydsl.repository;
 
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Expression;
 import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.Expressions;
 import com.querydsl.jpa.impl.JPAQuery;
 import com.querydsl.jpa.impl.JPAQueryFactory;
 import lombok.RequiredArgsConstructor;
+import org.hibernate.Hibernate;
+import org.hibernate.annotations.QueryHints;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.support.PageableExecutionUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.dto.MemberBulkResult;
+import study.querydsl.dto.MemberCursor;
+import study.querydsl.dto.MemberKeysetPage;
 import study.querydsl.dto.MemberSearchCondition;
 import study.querydsl.dto.MemberTeamDto;
 import study.querydsl.dto.QMemberTeamDto;
+import study.querydsl.entity.EntityChangePublisher;
+import study.querydsl.entity.MemberChangedEvent;
+import study.querydsl.entity.MemberDSL;
+import study.querydsl.entity.TeamDSL;
+import study.querydsl.monitor.IndexAdvisor;
 
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
 
 import static com.querydsl.core.types.ExpressionUtils.count;
-import static org.springframework.util.StringUtils.hasText;
 import static study.querydsl.entity.QMemberDSL.memberDSL;
 import static study.querydsl.entity.QTeamDSL.teamDSL;
 
 @RequiredArgsConstructor
 public class MemberRepositoryImpl implements MemberRepositoryCustom {
 
+    private static final int BATCH_COLUMNS = 5;
+
     private final JPAQueryFactory queryFactory;
+    private final MemberCountCache countCache;
+    private final MemberSearchExecutor searchExecutor;
+    private final MemberResultCache resultCache;
+    private final MemberColumnarIndex columnarIndex;
+    private final TeamIdResolver teamIdResolver;
+    private final UsernameNgramIndex usernameIndex;
+    private final MemberArchiveRepository archiveRepository;
+    private final IndexAdvisor indexAdvisor;
+    private final EntityChangePublisher changePublisher;
+    private final PlatformTransactionManager transactionManager;
+    private final EntityManager em;
+
+    @Value("${member.bulk.chunk-size:1000}")
+    private int bulkChunkSize;
+    @Value("${member.batch-search.max-conditions:50}")
+    private int batchMaxConditions;
+    @Value("${member.batch-search.max-rows-per-condition:1000}")
+    private int batchMaxRows;
 
+    //조건 조합별로 한 번 만든 JPQL에 파라미터만 바인딩
     @Override
+    @Transactional(readOnly = true)
     public List<MemberTeamDto> search(MemberSearchCondition condition) {
+        return resultCache.search(condition, () -> searchExecutor.search(condition));
+    }
+
+    /**
+     * COLUMNAR면 메모리 컬럼 인덱스에서 거른다. 인덱스가 준비 안 됐거나(로딩/재생성 중),
+     * 쓰기 트랜잭션 안이라 flush 안 된 변경이 있을 수 있으면 SQL. 결과 순서는 보장하지 않는다.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public List<MemberTeamDto> search(MemberSearchCondition condition, SearchEngine engine) {
+        if (engine == SearchEngine.COLUMNAR && TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            List<MemberTeamDto> result = columnarIndex.search(condition);
+            if (result != null) {
+                return result;
+            }
+        }
+        return search(condition);
+    }
+
+    /**
+     * 조건 N개를 where (조건1) or (조건2) ... 쿼리로 조회한다. 조건마다 case when (조건i) then 1 else 0 end 컬럼을
+     * 같이 select 해서 어느 조건에 걸린 row인지 DB가 판정한다(대소문자 규칙 등이 search와 같다). 같은 조건은 한 번만 넣는다.
+     * 조건마다 member_id 순으로 앞의 batchMaxRows 개까지만 돌려준다. member_id 키셋으로 읽고, 다 찬 조건은
+     * 다음 쿼리의 or에서 뺀다. 한 번에 batchMaxRows x 남은 조건 수 만큼 읽으므로 한 번 읽을 때마다 적어도
+     * 한 조건은 다 차거나 더 읽을 row가 없다. 쿼리는 많아야 조건 수 + 1 번, 보통 한 번.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public List<List<MemberTeamDto>> searchBatch(List<MemberSearchCondition> conditions) {
+        if (conditions.size() > batchMaxConditions) {
+            throw new IllegalArgumentException("한 번에 검색할 수 있는 조건은 " + batchMaxConditions + "개까지입니다: " + conditions.size());
+        }
+        Map<MemberSearchCondition, List<MemberTeamDto>> results = new LinkedHashMap<>();
+        for (MemberSearchCondition condition : conditions) {
+            results.put(condition.normalized(), new ArrayList<>());
+        }
+        List<MemberSearchCondition> pending = new ArrayList<>(results.keySet());
+        Long lastId = null;
+        while (!pending.isEmpty()) {
+            int limit = batchMaxRows * pending.size();
+            List<Tuple> rows = selectBatch(pending, lastId, limit);
+            for (Tuple row : rows) {
+                MemberTeamDto dto = new MemberTeamDto(row.get(memberDSL.id), row.get(memberDSL.username),
+                        row.get(memberDSL.age), row.get(teamDSL.id), row.get(teamDSL.name));
+                for (int i = 0; i < pending.size(); i++) {
+                    List<MemberTeamDto> matched = results.get(pending.get(i));
+                    if (Integer.valueOf(1).equals(row.get(BATCH_COLUMNS + i, Integer.class)) && matched.size() < batchMaxRows) {
+                        matched.add(dto);
+                    }
+                }
+            }
+            if (rows.size() < limit) {
+                break;
+            }
+            lastId = rows.get(rows.size() - 1).get(memberDSL.id);
+            pending.removeIf(condition -> results.get(condition).size() >= batchMaxRows);
+        }
+
+        List<List<MemberTeamDto>> demultiplexed = new ArrayList<>(conditions.size());
+        for (MemberSearchCondition condition : conditions) {
+            demultiplexed.add(results.get(condition.normalized()));
+        }
+        return demultiplexed;
+    }
+
+    //회원/팀 컬럼 다음에 조건마다 0/1 컬럼
+    private List<Tuple> selectBatch(List<MemberSearchCondition> conditions, Long lastId, int limit) {
+        List<Expression<?>> select = new ArrayList<>(List.of(memberDSL.id, memberDSL.username, memberDSL.age, teamDSL.id, teamDSL.name));
+        BooleanExpression[] predicates = new BooleanExpression[conditions.size()];
+        for (int i = 0; i < predicates.length; i++) {
+            //조건마다 최대 batchMaxRows건까지 읽어야 하므로 CONTAINS도 n-gram 상위 k개로 줄이지 않는다.
+            predicates[i] = MemberSearchPlan.of(conditions.get(i), teamIdResolver, usernameIndex).unrankedPredicate();
+            //CaseBuilder는 하이버네이트용 템플릿에서 조건 안의 값까지 리터럴로 박으므로 템플릿으로 써서 파라미터로 둔다.
+            select.add(Expressions.numberTemplate(Integer.class, "case when {0} then 1 else 0 end", predicates[i]));
+        }
         return queryFactory
-                .select(new QMemberTeamDto(
-                        memberDSL.id.as("memberId"),
-                        memberDSL.username,
-                        memberDSL.age,
-                        teamDSL.id.as("teamId"),
-                        teamDSL.name.as("teamName")
-                ))
+                .select(select.toArray(new Expression<?>[0]))
                 .from(memberDSL)
                 .leftJoin(memberDSL.team, teamDSL)
-                .where(usernameEq(condition.getUsername()),
-                        teamNameEq(condition.getTeamName()),
-                        ageGoe(condition.getAgeGoe()),
-                        ageLoe(condition.getAgeLoe()))
+                .where(Expressions.anyOf(predicates), lastId != null ? memberDSL.id.gt(lastId) : null)
+                .orderBy(memberDSL.id.asc())
+                .limit(limit)
                 .fetch();
     }
-    //Predicate가 아닌, BooleanExpression으로 해야 조합 가능.
-    private BooleanExpression usernameEq(String username) {
-        return hasText(username) ? memberDSL.username.eq(username) : null ;
-    }
-    private BooleanExpression teamNameEq(String teamName) {
-        return hasText(teamName) ? teamDSL.name.eq(teamName) : null;
-    }
-    private BooleanExpression ageGoe(Integer ageGoe) {
-        return ageGoe != null ? memberDSL.age.goe(ageGoe) : null;
-    }
-    private BooleanExpression ageLoe(Integer ageLoe) {
-        return ageLoe != null ? memberDSL.age.loe(ageLoe) : null;
-    }
 
-    /** 이건 잘못된 메서드. */
-    @Override
-    public List<MemberTeamDto> searchPageSimple(MemberSearchCondition condition, Pageable pageable) {
+    //조인과 where는 MemberSearchPlan이 조건을 보고 붙인다.
+    private JPAQuery<MemberTeamDto> selectMemberTeam() {
         return queryFactory
                 .select(new QMemberTeamDto(
                         memberDSL.id.as("memberId"),
@@ -67,56 +173,284 @@ public class MemberRepositoryImpl implements MemberRepositoryCustom {
                         teamDSL.id.as("teamId"),
                         teamDSL.name.as("teamName")
                 ))
-                .from(memberDSL)
-                .leftJoin(memberDSL.team, teamDSL)
-                .where(usernameEq(condition.getUsername()),
-                        teamNameEq(condition.getTeamName()),
-                        ageGoe(condition.getAgeGoe()),
-                        ageLoe(condition.getAgeLoe()))
-                .offset(pageable.getOffset())
-                .limit(pageable.getPageSize())
-                .fetch();
+                .from(memberDSL);
     }
 
-    /** 데이터와 전체 카운트 별도로 조회. 위의 Simple 버전은 원래 fetchResult 쓰려 했던 것 */
+    /**
+     * 결과를 List로 모으지 않고 커서로 한 row씩 읽는다. MySQL 드라이버는 fetchSize가
+     * Integer.MIN_VALUE 일 때만 서버 커서(스트리밍)로 읽는다. DTO 프로젝션이라 영속성 컨텍스트에
+     * 엔티티가 쌓이지 않는다. 반드시 트랜잭션 안에서 쓰고 다 읽으면 close 해야 함.
+     */
     @Override
+    public Stream<MemberTeamDto> streamSearch(MemberSearchCondition condition) {
+        return MemberSearchPlan.of(condition, teamIdResolver, usernameIndex).forContentUnranked(selectMemberTeam())
+                .setHint(QueryHints.FETCH_SIZE, Integer.MIN_VALUE)
+                .setHint(QueryHints.READ_ONLY, true)
+                .stream();
+    }
+
+    /** 이건 잘못된 메서드. */
+    @Override
+    @Transactional(readOnly = true)
+    public List<MemberTeamDto> searchPageSimple(MemberSearchCondition condition, Pageable pageable) {
+        indexAdvisor.record(condition);
+        return MemberSearchPlan.of(condition, teamIdResolver, usernameIndex)
+                .page(selectMemberTeam(), pageable, MemberTeamDto::getMemberId);
+    }
+
+    /**
+     * 데이터와 전체 카운트 별도로 조회. 위의 Simple 버전은 원래 fetchResult 쓰려 했던 것.
+     * username CONTAINS는 n-gram 인덱스 상위 k개 안에서만 페이징한다(MemberSearchPlan.page).
+     */
+    @Override
+    @Transactional(readOnly = true)
     public Page<MemberTeamDto> searchPageComplex(MemberSearchCondition condition, Pageable pageable) {
-        List<MemberTeamDto> content = queryFactory
-                                .select(new QMemberTeamDto(
-                                        memberDSL.id.as("memberId"),
-                                        memberDSL.username,
-                                        memberDSL.age,
-                                        teamDSL.id.as("teamId"),
-                                        teamDSL.name.as("teamName")
-                                ))
-                                .from(memberDSL)
-                                .leftJoin(memberDSL.team, teamDSL)
-                                .where(usernameEq(condition.getUsername()),
-                                        teamNameEq(condition.getTeamName()),
-                                        ageGoe(condition.getAgeGoe()),
-                                        ageLoe(condition.getAgeLoe()))
-                                .offset(pageable.getOffset())
-                                .limit(pageable.getPageSize())
-                                .fetch();
-
-        /** fetchCount(), fetchResult() deprecated에 따른 count 쿼리 */
-        JPAQuery<Long> countQuery = queryFactory
-                .select(memberDSL.count())
-                .from(memberDSL)
-                .leftJoin(memberDSL.team, teamDSL)
-                .where(
-                        usernameEq(condition.getUsername()),
-                        teamNameEq(condition.getTeamName()),
-                        ageGoe(condition.getAgeGoe()),
-                        ageLoe(condition.getAgeLoe())
-                );
+        indexAdvisor.record(condition);
+        return resultCache.page(condition, pageable, () -> loadPageComplex(condition, pageable));
+    }
+
+    private Page<MemberTeamDto> loadPageComplex(MemberSearchCondition condition, Pageable pageable) {
+        MemberSearchPlan plan = MemberSearchPlan.of(condition, teamIdResolver, usernameIndex);
+        List<MemberTeamDto> content = plan.page(selectMemberTeam(), pageable, MemberTeamDto::getMemberId);
 
         /**
-         이렇게 리턴하면, 맨 마지막 fetchOne 메서드는, content와 pageable이 조건에 맞을 때만 실행됨.
+         이렇게 리턴하면, 맨 마지막 count 람다는, content와 pageable이 조건에 맞을 때만 실행됨.
          첫번째 페이지 사이즈가 100인데 컨텐츠 갯수가 3이면, 토탈 카운트 날릴 필요가 없음.
-         마지막은 람다식으로 풀면 () -> countQuery.fetchOne()
+         카운트가 필요해도 같은 조건이면 캐시된 값을 먼저 씀.
          */
-        return PageableExecutionUtils.getPage(content, pageable, countQuery::fetchOne);
+        return PageableExecutionUtils.getPage(content, pageable, () -> countCache.total(condition, plan, queryFactory, pageable));
         //return new PageImpl<>(content, pageable, total);
     }
+
+    /**
+     * 엔티티 페이징. 페치 조인에 offset/limit을 걸면 컬렉션이 끼는 순간 하이버네이트가 전부 읽고
+     * 메모리에서 자르므로(HHH000104), 1) 조건에 맞는 id 한 페이지만 읽고 2) 그 id로 엔티티 그래프를 읽어서
+     * id 순서대로 되돌린다. 쿼리는 id, 엔티티(team은 to-one 페치 조인), 필요할 때 count. member_id 순.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public Page<MemberDSL> searchEntityPage(MemberSearchCondition condition, Pageable pageable) {
+        MemberSearchPlan plan = MemberSearchPlan.of(condition, teamIdResolver, usernameIndex);
+        List<Long> ids = plan.forCount(queryFactory
+                        .select(memberDSL.id)
+                        .from(memberDSL))
+                .orderBy(memberDSL.id.asc())
+                .offset(pageable.getOffset())
+                .limit(pageable.getPageSize())
+                .fetch();
+        List<MemberDSL> content = ids.isEmpty() ? new ArrayList<>() : inIdOrder(ids, queryFactory
+                .selectFrom(memberDSL)
+                .leftJoin(memberDSL.team, teamDSL).fetchJoin()
+                .where(memberDSL.id.in(ids))
+                .fetch(), MemberDSL::getId);
+        return PageableExecutionUtils.getPage(content, pageable, () -> countCache.total(condition, plan, queryFactory, pageable));
+    }
+
+    /**
+     * 조건에 맞는 회원이 있는 팀을 team_id 순으로 페이징. members는 조건과 상관없이 팀의 (살아 있는) 회원 전체.
+     * members 컬렉션은 페치 조인 대신 default_batch_fetch_size 로 이 페이지의 팀들을 묶어서
+     * where team_id in (...) 한 번에 초기화한다. 쿼리는 팀 id, 팀, 회원(팀 batch 개마다 하나), 필요할 때 count.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public Page<TeamDSL> searchTeamPage(MemberSearchCondition condition, Pageable pageable) {
+        MemberSearchPlan plan = MemberSearchPlan.of(condition, teamIdResolver, usernameIndex);
+        List<Long> ids = plan.forCount(queryFactory
+                        .select(memberDSL.team.id).distinct()
+                        .from(memberDSL))
+                .where(memberDSL.team.isNotNull())
+                .orderBy(memberDSL.team.id.asc())
+                .offset(pageable.getOffset())
+                .limit(pageable.getPageSize())
+                .fetch();
+        List<TeamDSL> content = ids.isEmpty() ? new ArrayList<>() : inIdOrder(ids, queryFactory
+                .selectFrom(teamDSL)
+                .where(teamDSL.id.in(ids))
+                .fetch(), TeamDSL::getId);
+        for (TeamDSL team : content) {
+            //첫 번째 초기화 때 아직 안 읽은 팀들의 members가 같이 채워지고, 나머지는 이미 초기화되어 있다.
+            Hibernate.initialize(team.getMembers());
+        }
+        return PageableExecutionUtils.getPage(content, pageable, () -> {
+            Long count = plan.forCount(queryFactory
+                            .select(memberDSL.team.id.countDistinct())
+                            .from(memberDSL))
+                    .where(memberDSL.team.isNotNull())
+                    .fetchOne();
+            return count != null ? count : 0L;
+        });
+    }
+
+    //id 목록 순서대로. 그 사이 지워진 row는 빠진다.
+    private static <T> List<T> inIdOrder(List<Long> ids, List<T> rows, Function<T, Long> idOf) {
+        Map<Long, T> byId = new HashMap<>();
+        for (T row : rows) {
+            byId.put(idOf.apply(row), row);
+        }
+        List<T> ordered = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            T row = byId.get(id);
+            if (row != null) {
+                ordered.add(row);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * 키셋(seek) 페이징. offset 대신 마지막으로 읽은 (age, member_id) 다음부터 읽으므로
+     * 앞 페이지 row를 버리는 비용이 없다. size + 1개를 조회해서 다음 페이지 여부를 판단.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public MemberKeysetPage searchByKeyset(MemberSearchCondition condition, MemberCursor cursor, int size) {
+        return searchByKeyset(condition, cursor, size, null);
+    }
+
+    //queryTimeout이 있으면 JDBC statement에 걸어서 DB에서도 쿼리를 끊는다.
+    @Override
+    @Transactional(readOnly = true)
+    public MemberKeysetPage searchByKeyset(MemberSearchCondition condition, MemberCursor cursor, int size, Duration queryTimeout) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size는 1 이상이어야 합니다: " + size);
+        }
+        indexAdvisor.record(condition, "age", "member_id");
+        JPAQuery<MemberTeamDto> query = MemberSearchPlan.of(condition, teamIdResolver, usernameIndex).forContent(selectMemberTeam())
+                .where(after(cursor))
+                .orderBy(memberDSL.age.asc(), memberDSL.id.asc())
+                .limit(size + 1);
+        if (queryTimeout != null) {
+            query.setHint(QueryHints.TIMEOUT_JPA, queryTimeout.toMillis());
+        }
+        List<MemberTeamDto> content = query.fetch();
+
+        if (content.size() <= size) {
+            return new MemberKeysetPage(content, null);
+        }
+        content = content.subList(0, size);
+        return new MemberKeysetPage(content, MemberCursor.after(content.get(size - 1)));
+    }
+    /**
+     * asOf 시점의 회원. memberdsl에 남아 있는 회원(삭제 대기 포함)과 이미 member_archive로 옮겨진 회원을 합친다.
+     * 두 테이블에 같은 회원이 동시에 있을 수는 없다(옮길 때 한 트랜잭션에서 insert 후 delete). member_id 순.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public List<MemberTeamDto> searchAsOf(MemberSearchCondition condition, LocalDateTime asOf) {
+        List<MemberTeamDto> result = new ArrayList<>(MemberSearchPlan.asOf(condition, teamIdResolver, asOf)
+                .forContent(selectMemberTeam())
+                .fetch());
+        result.addAll(archiveRepository.searchAsOf(condition, asOf));
+        result.sort(Comparator.comparing(MemberTeamDto::getMemberId));
+        return result;
+    }
+
+    //(age, id) > (lastAge, lastId) 를 풀어쓴 것
+    private BooleanExpression after(MemberCursor cursor) {
+        if (cursor == null) {
+            return null;
+        }
+        return memberDSL.age.gt(cursor.getAge())
+                .or(memberDSL.age.eq(cursor.getAge()).and(memberDSL.id.gt(cursor.getMemberId())));
+    }
+
+    @Override
+    public MemberBulkResult bulkAddAge(MemberSearchCondition condition, int delta) {
+        return bulkByIdChunks(condition, chunk -> queryFactory
+                .update(memberDSL)
+                .set(memberDSL.age, memberDSL.age.add(delta))
+                .where(chunk)
+                .execute());
+    }
+
+    @Override
+    public MemberBulkResult bulkDelete(MemberSearchCondition condition) {
+        return bulkByIdChunks(condition, chunk -> queryFactory
+                .delete(memberDSL)
+                .where(chunk)
+                .execute());
+    }
+
+    //삭제 시각만 남긴다. 검색에서는 바로 빠지고, member.archive.grace 가 지나면 MemberArchiver가 옮긴다.
+    @Override
+    public MemberBulkResult bulkSoftDelete(MemberSearchCondition condition) {
+        LocalDateTime now = LocalDateTime.now();
+        return bulkByIdChunks(condition, chunk -> queryFactory
+                .update(memberDSL)
+                .set(memberDSL.deletedAt, now)
+                .where(chunk)
+                .execute());
+    }
+
+    /**
+     * 대상 id를 bulkChunkSize 개씩 끊어서(id 순 키셋) 수정한다. 한 번에 전체를 update 하면
+     * row 락이 오래 잡히고 undo 로그가 커지므로, 트랜잭션 밖에서 호출하면 청크마다 커밋된다.
+     * 호출자 트랜잭션 안이면 그 트랜잭션에 참여한다. 청크 트랜잭션은 쓰기라서 항상 원본(primary)으로 간다.
+     * 벌크 쿼리는 영속성 컨텍스트를 거치지 않으므로 전에 flush 하고, 끝나면 바뀐 회원만 detach 해서 em에 옛 값이 남지 않게 함.
+     * 회원은 2차 캐시 대상이 아니고, 쿼리 캐시는 하이버네이트가 벌크 쿼리의 테이블을 보고 알아서 비운다.
+     */
+    private MemberBulkResult bulkByIdChunks(MemberSearchCondition condition, ToLongFunction<BooleanExpression> mutation) {
+        BooleanExpression[] predicates = MemberSearchPlan.of(condition, teamIdResolver, usernameIndex).joinFreePredicates();
+        boolean inTransaction = TransactionSynchronizationManager.isActualTransactionActive();
+        if (inTransaction) {
+            em.flush();
+        }
+        TransactionTemplate chunkTransaction = new TransactionTemplate(transactionManager);
+        List<Long> chunkCounts = new ArrayList<>();
+        List<Long> touchedIds = new ArrayList<>();
+        Long lastId = null;
+        while (true) {
+            BooleanExpression after = lastId != null ? memberDSL.id.gt(lastId) : null;
+            List<Long> ids = chunkTransaction.execute(status -> {
+                List<Long> chunk = queryFactory
+                        .select(memberDSL.id)
+                        .from(memberDSL)
+                        .where(predicates)
+                        .where(after)
+                        .orderBy(memberDSL.id.asc())
+                        .limit(bulkChunkSize)
+                        .fetch();
+                if (!chunk.isEmpty()) {
+                    //고른 뒤 조건이 바뀐 row는 건드리지 않도록 조건을 다시 건다.
+                    chunkCounts.add(mutation.applyAsLong(memberDSL.id.in(chunk).and(allOf(predicates))));
+                }
+                return chunk;
+            });
+            if (inTransaction && ids != null) {
+                touchedIds.addAll(ids);
+            }
+            if (ids == null || ids.size() < bulkChunkSize) {
+                break;
+            }
+            lastId = ids.get(ids.size() - 1);
+        }
+
+        changePublisher.publish(MemberChangedEvent.bulk());
+        if (inTransaction) {
+            detachMembers(touchedIds);
+        }
+        return new MemberBulkResult(chunkCounts);
+    }
+
+    //em.clear()는 호출자가 들고 있는 다른 엔티티까지 떼어내므로, 영속 상태인 대상 회원만 뗀다.
+    private void detachMembers(List<Long> ids) {
+        SessionImplementor session = em.unwrap(SessionImplementor.class);
+        EntityPersister persister = session.getFactory().getMetamodel().entityPersister(MemberDSL.class);
+        for (Long id : ids) {
+            Object managed = session.getPersistenceContextInternal().getEntity(session.generateEntityKey(id, persister));
+            if (managed != null) {
+                em.detach(managed);
+            }
+        }
+    }
+
+    private static BooleanExpression allOf(BooleanExpression[] predicates) {
+        BooleanExpression result = null;
+        for (BooleanExpression predicate : predicates) {
+            if (predicate != null) {
+                result = result == null ? predicate : result.and(predicate);
+            }
+        }
+        return result;
+    }
 }
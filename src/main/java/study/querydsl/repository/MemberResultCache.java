@@ -0,0 +1,169 @@
+package study.querydsl.repository;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.entity.MemberChangedEvent;
+import study.querydsl.entity.TeamChangedEvent;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * search / searchPageComplex 결과 캐시. 정규화한 조건 + 페이지(offset, size, sort)가 키.
+ * Caffeine(W-TinyLFU)이라 자주 쓰는 조건 조합만 남고, 크기는 결과 row 수로 제한한다.
+ * 같은 키로 동시에 들어온 요청은 먼저 온 요청의 조회 결과(future)를 같이 기다린다(single-flight).
+ * 동기 조회는 캐시에 빈 future만 넣고 compute 밖에서 채우므로, DB 조회 중에 Caffeine 내부 락을 잡고 있지 않다.
+ * 회원/팀이 바뀌면 전부 비우고, 조회 중이던 future도 같이 버려서 옛 결과가 다시 들어오지 않는다.
+ * 카운트 캐시와 마찬가지로 쓰기 트랜잭션 안에서는 쓰지 않는다.
+ */
+@Component
+public class MemberResultCache {
+
+    private final AsyncCache<Key, Object> results;
+    private final boolean enabled;
+
+    public MemberResultCache(@Value("${member.result-cache.enabled:true}") boolean enabled,
+                             @Value("${member.result-cache.max-rows:100000}") long maxRows,
+                             @Value("${member.result-cache.ttl:5s}") Duration ttl,
+                             MeterRegistry registry) {
+        this.enabled = enabled;
+        this.results = Caffeine.newBuilder()
+                .maximumWeight(maxRows)
+                .weigher((Key key, Object value) -> weight(value))
+                .expireAfterWrite(ttl)
+                //정리 작업(만료, 크기 제한)은 호출한 스레드에서
+                .executor(Runnable::run)
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(registry, results.synchronous(), "member.result-cache");
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<MemberTeamDto> search(MemberSearchCondition condition, Supplier<List<MemberTeamDto>> loader) {
+        if (!cacheable()) {
+            return loader.get();
+        }
+        return (List<MemberTeamDto>) load(new Key(condition.normalized(), null),
+                () -> Collections.unmodifiableList(loader.get()));
+    }
+
+    @SuppressWarnings("unchecked")
+    public Page<MemberTeamDto> page(MemberSearchCondition condition, Pageable pageable, Supplier<Page<MemberTeamDto>> loader) {
+        if (!cacheable()) {
+            return loader.get();
+        }
+        return (Page<MemberTeamDto>) load(new Key(condition.normalized(), pageable), loader);
+    }
+
+    /** 트랜잭션 밖에서 도는 비동기 검색용. 조회 중인 future를 그대로 공유한다. */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Page<MemberTeamDto>> pageAsync(MemberSearchCondition condition, Pageable pageable,
+                                                            Supplier<CompletableFuture<Page<MemberTeamDto>>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        CompletableFuture<Object> future = results.get(new Key(condition.normalized(), pageable),
+                (key, executor) -> loader.get().thenApply(page -> (Object) page));
+        return future.thenApply(page -> (Page<MemberTeamDto>) page);
+    }
+
+    public void invalidateAll() {
+        results.synchronous().invalidateAll();
+    }
+
+    @EventListener
+    public void onMemberChanged(MemberChangedEvent event) {
+        invalidateAll();
+    }
+
+    //결과에 팀 이름이 들어가므로 팀 변경도 비운다.
+    @EventListener
+    public void onTeamChanged(TeamChangedEvent event) {
+        invalidateAll();
+    }
+
+    //future를 넣은 요청만 조회한다. 조회는 호출한 스레드(=호출자의 트랜잭션, EntityManager)에서 실행
+    private Object load(Key key, Supplier<?> loader) {
+        CompletableFuture<Object> created = new CompletableFuture<>();
+        CompletableFuture<Object> future = results.get(key, (k, executor) -> created);
+        if (future == created) {
+            try {
+                created.complete(loader.get());
+            } catch (RuntimeException | Error e) {
+                //실패한 future는 Caffeine이 캐시에서 뺀다.
+                created.completeExceptionally(e);
+            }
+        }
+        return join(future);
+    }
+
+    //조회 중 예외는 CompletionException으로 감싸져 나오므로 원래 예외로 돌려준다.
+    private static Object join(CompletableFuture<Object> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static int weight(Object value) {
+        int rows = value instanceof Page ? ((Page<?>) value).getNumberOfElements() : ((List<?>) value).size();
+        return Math.max(1, rows);
+    }
+
+    private boolean cacheable() {
+        return enabled && (!TransactionSynchronizationManager.isActualTransactionActive()
+                || TransactionSynchronizationManager.isCurrentTransactionReadOnly());
+    }
+
+    private static final class Key {
+        private final MemberSearchCondition condition;
+        private final boolean page;
+        private final long offset;
+        private final int size;
+        private final Sort sort;
+
+        private Key(MemberSearchCondition condition, Pageable pageable) {
+            this.condition = condition;
+            this.page = pageable != null;
+            //search는 페이지가 없으므로 -1로 구분
+            this.offset = pageable != null && pageable.isPaged() ? pageable.getOffset() : -1;
+            this.size = pageable != null && pageable.isPaged() ? pageable.getPageSize() : -1;
+            this.sort = pageable != null ? pageable.getSort() : Sort.unsorted();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return page == other.page && offset == other.offset && size == other.size
+                    && condition.equals(other.condition) && sort.equals(other.sort);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(condition, page, offset, size, sort);
+        }
+    }
+}
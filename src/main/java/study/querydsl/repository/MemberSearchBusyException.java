@@ -0,0 +1,21 @@
+package study.querydsl.repository;
+
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * 검색 실행기(memberQueryExecutor)나 동시 실행 한도가 가득 차서 받지 못한 검색.
+ * 쿼리가 느린 게 아니라 잠시 뒤 다시 시도하면 되는 상황이므로 503으로 응답한다.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class MemberSearchBusyException extends TransientDataAccessResourceException {
+
+    public MemberSearchBusyException(String msg) {
+        super(msg);
+    }
+
+    public MemberSearchBusyException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
@@ -0,0 +1,132 @@
+package study.querydsl.repository;
+
+import com.querydsl.core.types.dsl.Param;
+import com.querydsl.jpa.JPAProvider;
+import com.querydsl.jpa.JPQLSerializer;
+import com.querydsl.jpa.impl.JPAQuery;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.dto.QMemberTeamDto;
+import study.querydsl.monitor.IndexAdvisor;
+import study.querydsl.monitor.QueryCounter;
+import study.querydsl.monitor.QueryMetrics;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static study.querydsl.entity.QMemberDSL.memberDSL;
+import static study.querydsl.entity.QTeamDSL.teamDSL;
+
+/**
+ * where절 파라미터 검색(search, searchByWhere)을 MemberSearchPlan으로 실행한다.
+ * 조건 조합(shape)은 256가지 이하라서 shape 별로 MemberSearchPlan.template(shape)을 한 번만 JPQL로 만들어 두고,
+ * 호출마다 파라미터만 바인딩한다. 조인/조건 규칙은 MemberSearchPlan 한 곳에 있다.
+ * 같은 JPQL 문자열이면 하이버네이트 QueryPlanCache가 파싱 결과도 재사용한다.
+ */
+@Component
+public class MemberSearchExecutor {
+
+    private static final QMemberTeamDto PROJECTION =
+            new QMemberTeamDto(memberDSL.id, memberDSL.username, memberDSL.age, teamDSL.id, teamDSL.name);
+
+    private final AtomicReferenceArray<Template> templates = new AtomicReferenceArray<>(MemberSearchPlan.SHAPE_COUNT);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final EntityManager em;
+    private final JPAQueryFactory queryFactory;
+    private final TeamIdResolver teamIdResolver;
+    private final UsernameNgramIndex usernameIndex;
+    private final IndexAdvisor indexAdvisor;
+    private final QueryMetrics queryMetrics;
+
+    public MemberSearchExecutor(EntityManager em, JPAQueryFactory queryFactory, TeamIdResolver teamIdResolver,
+                                UsernameNgramIndex usernameIndex, IndexAdvisor indexAdvisor, QueryMetrics queryMetrics,
+                                MeterRegistry registry) {
+        this.em = em;
+        this.queryFactory = queryFactory;
+        this.teamIdResolver = teamIdResolver;
+        this.usernameIndex = usernameIndex;
+        this.indexAdvisor = indexAdvisor;
+        this.queryMetrics = queryMetrics;
+        FunctionCounter.builder("member.search.query-cache", hits, AtomicLong::get)
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("member.search.query-cache", misses, AtomicLong::get)
+                .tag("result", "miss")
+                .register(registry);
+    }
+
+    public List<MemberTeamDto> search(MemberSearchCondition condition) {
+        MemberSearchCondition normalized = condition.normalized();
+        indexAdvisor.record(normalized);
+        MemberSearchPlan plan = MemberSearchPlan.of(normalized, teamIdResolver, usernameIndex);
+        if (plan.matchesNothing()) {
+            return new ArrayList<>();
+        }
+        Template template = template(plan.shape());
+        Query query = em.createQuery(template.jpql);
+        Map<Param<?>, Object> bindings = plan.bindings();
+        //JPAUtil.setConstants와 같이 Param 자리는 값으로 바꿔서 위치 파라미터로 넣는다.
+        for (int i = 0; i < template.constants.size(); i++) {
+            Object constant = template.constants.get(i);
+            query.setParameter(i + 1, constant instanceof Param ? bindings.get(constant) : constant);
+        }
+        long jdbcStart = QueryCounter.jdbcNanos();
+        long start = System.nanoTime();
+        List<?> rows = query.getResultList();
+        List<MemberTeamDto> result = new ArrayList<>(rows.size());
+        for (Object row : rows) {
+            result.add(PROJECTION.newInstance((Object[]) row));
+        }
+        queryMetrics.record(template.jpql, normalized, System.nanoTime() - start, QueryCounter.jdbcNanos() - jdbcStart, result.size());
+        return plan.inRankOrder(result, MemberTeamDto::getMemberId);
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private Template template(int shape) {
+        Template template = templates.get(shape);
+        if (template != null) {
+            hits.incrementAndGet();
+            return template;
+        }
+        misses.incrementAndGet();
+        template = build(shape);
+        //동시에 만들어도 결과는 같으므로 먼저 들어간 것을 쓴다.
+        return templates.compareAndSet(shape, null, template) ? template : templates.get(shape);
+    }
+
+    private Template build(int shape) {
+        JPAQuery<MemberTeamDto> query = MemberSearchPlan.template(shape)
+                .forContent(queryFactory.select(PROJECTION).from(memberDSL));
+        JPQLSerializer serializer = new JPQLSerializer(JPAProvider.getTemplates(em), em);
+        serializer.serialize(query.getMetadata(), false, null);
+        return new Template(serializer.toString(), new ArrayList<>(serializer.getConstants()));
+    }
+
+    //shape 하나의 JPQL과 위치 파라미터 순서(Param 또는 상수)
+    private static class Template {
+        private final String jpql;
+        private final List<Object> constants;
+
+        private Template(String jpql, List<Object> constants) {
+            this.jpql = jpql;
+            this.constants = constants;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package study.querydsl.repository;
+
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.Param;
+import com.querydsl.jpa.JPAExpressions;
+import com.querydsl.jpa.impl.JPAQuery;
+import org.springframework.data.domain.Pageable;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.UsernameMatch;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.springframework.util.StringUtils.hasText;
+import static study.querydsl.entity.QMemberDSL.memberDSL;
+import static study.querydsl.entity.QTeamDSL.teamDSL;
+
+/**
+ * 검색 조건 중 실제로 값이 있는 것만 보고 where 절과 조인을 결정한다.
+ * team은 ManyToOne(to-one)이라 left join은 row 수를 바꾸지 않으므로,
+ * 팀 조건도 없고 팀 컬럼도 안 쓰는 쿼리(count 등)에서는 조인 자체를 뺀다.
+ * 팀 이름의 id를 알면 팀 이름 조건도 member.team_id = ? 로 바꿔서 조인이 필요 없게 한다.
+ * 삭제 여부는 항상 deleted_at is null 로 건다. 인덱스 맨 앞 컬럼이라 등호로 살아 있는 구간만 읽는다.
+ * as-of 조회만 삭제 시각과 비교하고, 이미 member_archive로 옮겨진 회원은 MemberArchiveRepository가 따로 읽는다.
+ * CONTAINS를 n-gram 인덱스로 줄였으면 결과는 인덱스 상위 k개뿐이고(count도 k 이하), 순서도 인덱스 순위를 따른다.
+ * 어떤 조건이 있는지(shape)는 비트마스크로 나타내고, template(shape)은 값 대신 Param을 넣은 같은 규칙의 plan이다.
+ */
+class MemberSearchPlan {
+
+    static final int USERNAME = 1;
+    static final int USERNAME_PREFIX = 1 << 1;
+    static final int USERNAME_CONTAINS = 1 << 2;
+    //CONTAINS 후보를 n-gram 인덱스가 고른 id로 줄인 것
+    static final int USERNAME_IDS = 1 << 3;
+    static final int TEAM_NAME = 1 << 4;
+    //팀 이름을 id로 바꾼 것
+    static final int TEAM_ID = 1 << 5;
+    static final int AGE_GOE = 1 << 6;
+    static final int AGE_LOE = 1 << 7;
+    static final int SHAPE_COUNT = 1 << 8;
+
+    private static final Param<String> USERNAME_VALUE = new Param<>(String.class, "username");
+    //PREFIX/CONTAINS의 like 패턴(escape 포함)
+    private static final Param<String> USERNAME_PATTERN = new Param<>(String.class, "usernamePattern");
+    private static final Param<Object> USERNAME_IDS_VALUE = new Param<>(Object.class, "usernameIds");
+    private static final Param<String> TEAM_NAME_VALUE = new Param<>(String.class, "teamName");
+    private static final Param<Long> TEAM_ID_VALUE = new Param<>(Long.class, "teamId");
+    private static final Param<Integer> AGE_GOE_VALUE = new Param<>(Integer.class, "ageGoe");
+    private static final Param<Integer> AGE_LOE_VALUE = new Param<>(Integer.class, "ageLoe");
+    //QueryDSL startsWith/contains와 같은 escape 문자
+    private static final char LIKE_ESCAPE = '!';
+
+    private final BooleanExpression[] predicates;
+    private final boolean teamPredicate;
+    private final String teamName;
+    //CONTAINS를 n-gram 인덱스 상위 k개로 줄이지 않은 원래 조건(벌크 연산용)
+    private final BooleanExpression fullUsernamePredicate;
+    //n-gram 인덱스가 고른 id(순위 순)와 그 최대 개수. 인덱스를 안 썼으면 null, 0
+    private final List<Long> rankedIds;
+    private final int rankLimit;
+    //shape, 바인딩 값 계산용. template이면 null
+    private final MemberSearchCondition condition;
+    private final Long teamId;
+
+    private MemberSearchPlan(MemberSearchCondition condition, TeamIdResolver teamIdResolver, UsernameNgramIndex usernameIndex,
+                             BooleanExpression state) {
+        Long teamId = hasText(condition.getTeamName()) ? teamIdResolver.resolve(condition.getTeamName()) : null;
+        this.fullUsernamePredicate = usernameMatches(condition.getUsername(), condition.getUsernameMatch());
+        this.rankedIds = rankedIds(condition, fullUsernamePredicate, usernameIndex);
+        this.rankLimit = rankedIds != null ? usernameIndex.getTopK() : 0;
+        this.predicates = new BooleanExpression[]{
+                usernameIndexed(fullUsernamePredicate, rankedIds),
+                teamId != null ? memberDSL.team.id.eq(teamId) : teamNameEq(condition.getTeamName()),
+                ageGoe(condition.getAgeGoe()),
+                ageLoe(condition.getAgeLoe()),
+                state
+        };
+        this.teamPredicate = teamId == null && predicates[1] != null;
+        this.teamName = condition.getTeamName();
+        this.condition = condition;
+        this.teamId = teamId;
+    }
+
+    //template용. 조인/조건 순서는 위 생성자와 같고 값 자리에 Param이 들어간다.
+    private MemberSearchPlan(int shape) {
+        BooleanExpression username = (shape & USERNAME) != 0 ? memberDSL.username.eq(USERNAME_VALUE)
+                : (shape & (USERNAME_PREFIX | USERNAME_CONTAINS)) != 0 ? memberDSL.username.like(USERNAME_PATTERN, LIKE_ESCAPE)
+                : null;
+        this.fullUsernamePredicate = username;
+        this.rankedIds = null;
+        this.rankLimit = 0;
+        this.predicates = new BooleanExpression[]{
+                (shape & USERNAME_IDS) != 0
+                        ? Expressions.booleanTemplate("{0} in ({1})", memberDSL.id, USERNAME_IDS_VALUE).and(username)
+                        : username,
+                (shape & TEAM_ID) != 0 ? memberDSL.team.id.eq(TEAM_ID_VALUE)
+                        : (shape & TEAM_NAME) != 0 ? teamDSL.name.eq(TEAM_NAME_VALUE)
+                        : null,
+                (shape & AGE_GOE) != 0 ? memberDSL.age.goe(AGE_GOE_VALUE) : null,
+                (shape & AGE_LOE) != 0 ? memberDSL.age.loe(AGE_LOE_VALUE) : null,
+                live()
+        };
+        this.teamPredicate = (shape & TEAM_NAME) != 0;
+        this.teamName = null;
+        this.condition = null;
+        this.teamId = null;
+    }
+
+    static MemberSearchPlan of(MemberSearchCondition condition, TeamIdResolver teamIdResolver, UsernameNgramIndex usernameIndex) {
+        return new MemberSearchPlan(condition, teamIdResolver, usernameIndex, live());
+    }
+
+    /**
+     * asOf 시점에 있던 회원(그 전에 가입했고 그때까지 삭제되지 않은). 삭제 대기 구간도 읽어야 해서 live 보다 느리다.
+     * n-gram 인덱스는 살아 있는 회원만 들고 있으므로 CONTAINS도 like로 처리한다.
+     */
+    static MemberSearchPlan asOf(MemberSearchCondition condition, TeamIdResolver teamIdResolver, LocalDateTime asOf) {
+        return new MemberSearchPlan(condition, teamIdResolver, null, visibleAt(asOf));
+    }
+
+    /** shape의 조건 자리에 Param을 넣은 plan. 같은 shape인 of(...) plan과 JPQL이 같고, 값은 bindings()로 채운다. */
+    static MemberSearchPlan template(int shape) {
+        return new MemberSearchPlan(shape);
+    }
+
+    /** 살아 있는 회원. 검색 인덱스가 모두 deleted_at으로 시작한다. */
+    static BooleanExpression live() {
+        return memberDSL.deletedAt.isNull();
+    }
+
+    /** 팀 컬럼을 select 하는 쿼리 */
+    <T> JPAQuery<T> forContent(JPAQuery<T> query) {
+        return apply(query, true);
+    }
+
+    /** 회원만 세는 쿼리 */
+    <T> JPAQuery<T> forCount(JPAQuery<T> query) {
+        return apply(query, false);
+    }
+
+    /**
+     * 팀 컬럼을 select 하지만 CONTAINS를 n-gram 인덱스 상위 k개로 줄이지 않는 쿼리.
+     * export, 통계, 배치 검색처럼 조건에 맞는 회원이 전부 필요한 곳에서 쓴다(like로 끝까지 읽는다).
+     */
+    <T> JPAQuery<T> forContentUnranked(JPAQuery<T> query) {
+        join(query, true);
+        return query.where(unranked());
+    }
+
+    /** forContentUnranked의 조건 전체를 and로 묶은 것. 조건이 하나도 없으면 null(전체) */
+    BooleanExpression unrankedPredicate() {
+        return Expressions.allOf(unranked());
+    }
+
+    /**
+     * update/delete 처럼 조인을 쓸 수 없는 쿼리용 조건.
+     * 팀 이름이 id로 안 바뀌었으면 서브쿼리로 team_id를 고른다.
+     */
+    BooleanExpression[] joinFreePredicates() {
+        BooleanExpression[] joinFree = unranked();
+        if (!teamPredicate) {
+            return joinFree;
+        }
+        joinFree[1] = memberDSL.team.id.in(JPAExpressions
+                .select(teamDSL.id)
+                .from(teamDSL)
+                .where(teamDSL.name.eq(teamName)));
+        return joinFree;
+    }
+
+    /**
+     * offset 페이지 content. CONTAINS를 인덱스로 줄였으면 결과가 k건 이하이므로 다 읽어서 인덱스 순위 순으로 자른다
+     * (id in (...) 은 순서가 없어서 SQL에서 자르면 상위 k개 안에서 순서가 섞인다).
+     * 상위 k개에서 잘린 결과의 그 뒤 페이지는 빈 페이지로 주면 결과가 끝난 것처럼 보이므로 거절한다.
+     */
+    <T> List<T> page(JPAQuery<T> query, Pageable pageable, Function<T, Long> idOf) {
+        forContent(query);
+        if (rankedIds == null) {
+            return query.offset(pageable.getOffset()).limit(pageable.getPageSize()).fetch();
+        }
+        if (rankedIds.size() >= rankLimit && pageable.getOffset() >= rankLimit) {
+            throw new IllegalArgumentException(
+                    "username CONTAINS 검색은 상위 " + rankLimit + "건까지만 페이지로 볼 수 있습니다: offset " + pageable.getOffset());
+        }
+        List<T> ranked = inRankOrder(query.fetch(), idOf);
+        int from = (int) Math.min(pageable.getOffset(), ranked.size());
+        return new ArrayList<>(ranked.subList(from, Math.min(ranked.size(), from + pageable.getPageSize())));
+    }
+
+    /** CONTAINS를 인덱스로 줄였으면 인덱스 순위 순으로, 아니면 그대로 */
+    <T> List<T> inRankOrder(List<T> rows, Function<T, Long> idOf) {
+        if (rankedIds == null) {
+            return rows;
+        }
+        Map<Long, Integer> rank = new HashMap<>();
+        for (int i = 0; i < rankedIds.size(); i++) {
+            rank.put(rankedIds.get(i), i);
+        }
+        List<T> ordered = new ArrayList<>(rows);
+        ordered.sort(Comparator.comparingInt((T row) -> rank.getOrDefault(idOf.apply(row), rankedIds.size())));
+        return ordered;
+    }
+
+    /** 조건 조합(값이 아니라 어떤 조건이 있는지). of(...)로 만든 plan만 */
+    int shape() {
+        int shape = 0;
+        if (fullUsernamePredicate != null) {
+            UsernameMatch match = condition.getUsernameMatch();
+            shape |= match == UsernameMatch.PREFIX ? USERNAME_PREFIX
+                    : match == UsernameMatch.CONTAINS ? USERNAME_CONTAINS
+                    : USERNAME;
+        }
+        if (rankedIds != null) {
+            shape |= USERNAME_IDS;
+        }
+        if (teamId != null) {
+            shape |= TEAM_ID;
+        } else if (teamPredicate) {
+            shape |= TEAM_NAME;
+        }
+        if (predicates[2] != null) {
+            shape |= AGE_GOE;
+        }
+        if (predicates[3] != null) {
+            shape |= AGE_LOE;
+        }
+        return shape;
+    }
+
+    /** template(shape())의 Param에 넣을 값 */
+    Map<Param<?>, Object> bindings() {
+        int shape = shape();
+        Map<Param<?>, Object> bindings = new HashMap<>();
+        if ((shape & USERNAME) != 0) {
+            bindings.put(USERNAME_VALUE, condition.getUsername());
+        }
+        if ((shape & USERNAME_PREFIX) != 0) {
+            bindings.put(USERNAME_PATTERN, escapeLike(condition.getUsername()) + "%");
+        }
+        if ((shape & USERNAME_CONTAINS) != 0) {
+            bindings.put(USERNAME_PATTERN, "%" + escapeLike(condition.getUsername()) + "%");
+        }
+        if ((shape & USERNAME_IDS) != 0) {
+            bindings.put(USERNAME_IDS_VALUE, rankedIds);
+        }
+        if ((shape & TEAM_NAME) != 0) {
+            bindings.put(TEAM_NAME_VALUE, teamName);
+        }
+        if ((shape & TEAM_ID) != 0) {
+            bindings.put(TEAM_ID_VALUE, teamId);
+        }
+        if ((shape & AGE_GOE) != 0) {
+            bindings.put(AGE_GOE_VALUE, condition.getAgeGoe());
+        }
+        if ((shape & AGE_LOE) != 0) {
+            bindings.put(AGE_LOE_VALUE, condition.getAgeLoe());
+        }
+        return bindings;
+    }
+
+    /** n-gram 인덱스가 고른 후보가 없어서 결과가 항상 비는지 */
+    boolean matchesNothing() {
+        return rankedIds != null && rankedIds.isEmpty();
+    }
+
+    /** 팀 이름 조건이 team_id로 바뀌지 않아서 팀 조인이 꼭 필요한지 */
+    boolean requiresTeamJoin() {
+        return teamPredicate;
+    }
+
+    private <T> JPAQuery<T> apply(JPAQuery<T> query, boolean projectsTeam) {
+        join(query, projectsTeam);
+        return query.where(predicates);
+    }
+
+    private void join(JPAQuery<?> query, boolean projectsTeam) {
+        if (teamPredicate) {
+            //팀 이름 조건이 있으면 팀 없는 회원은 어차피 걸러지므로 inner join과 같다.
+            query.join(memberDSL.team, teamDSL);
+        } else if (projectsTeam) {
+            query.leftJoin(memberDSL.team, teamDSL);
+        }
+    }
+
+    //username 자리를 인덱스로 줄이기 전의 조건으로 바꾼 것
+    private BooleanExpression[] unranked() {
+        BooleanExpression[] unranked = predicates.clone();
+        unranked[0] = fullUsernamePredicate;
+        return unranked;
+    }
+
+    //Predicate가 아닌, BooleanExpression으로 해야 조합 가능.
+    private static BooleanExpression usernameMatches(String username, UsernameMatch match) {
+        if (!hasText(username)) {
+            return null;
+        }
+        //lower()를 씌우면 인덱스를 못 쓰므로 그대로 비교. MySQL 기본 collation이 대소문자를 구분하지 않는다.
+        if (match == UsernameMatch.PREFIX) {
+            //'x%' 라서 username 인덱스 범위 검색
+            return memberDSL.username.startsWith(username);
+        }
+        if (match == UsernameMatch.CONTAINS) {
+            return memberDSL.username.contains(username);
+        }
+        return memberDSL.username.eq(username);
+    }
+    //인덱스를 쓸 수 없으면(CONTAINS가 아니거나, 인덱스가 없거나, 검색어가 짧으면) null
+    private static List<Long> rankedIds(MemberSearchCondition condition, BooleanExpression predicate,
+                                        UsernameNgramIndex usernameIndex) {
+        if (predicate == null || usernameIndex == null || condition.getUsernameMatch() != UsernameMatch.CONTAINS) {
+            return null;
+        }
+        return usernameIndex.topK(condition.getUsername());
+    }
+    //CONTAINS는 인덱스가 고른 id로 먼저 줄인다. like는 인덱스가 늦게 반영된 변경을 다시 거르는 용도
+    private static BooleanExpression usernameIndexed(BooleanExpression predicate, List<Long> ids) {
+        if (ids == null) {
+            return predicate;
+        }
+        //후보가 없으면 항상 거짓인 조건(id는 null이 아님)
+        return ids.isEmpty() ? memberDSL.id.isNull() : memberDSL.id.in(ids).and(predicate);
+    }
+    private static String escapeLike(String value) {
+        return value.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+    //created_at 컬럼이 생기기 전부터 있던 회원(null)은 처음부터 있었던 것으로 본다.
+    private static BooleanExpression visibleAt(LocalDateTime asOf) {
+        return memberDSL.createdAt.isNull().or(memberDSL.createdAt.loe(asOf))
+                .and(memberDSL.deletedAt.isNull().or(memberDSL.deletedAt.gt(asOf)));
+    }
+    private static BooleanExpression teamNameEq(String teamName) {
+        return hasText(teamName) ? teamDSL.name.eq(teamName) : null;
+    }
+    private static BooleanExpression ageGoe(Integer ageGoe) {
+        return ageGoe != null ? memberDSL.age.goe(ageGoe) : null;
+    }
+    private static BooleanExpression ageLoe(Integer ageLoe) {
+        return ageLoe != null ? memberDSL.age.loe(ageLoe) : null;
+    }
+}
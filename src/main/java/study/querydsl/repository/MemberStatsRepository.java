@@ -0,0 +1,392 @@
+package study.querydsl.repository;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.hibernate.Hibernate;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.TeamStatsDto;
+import study.querydsl.entity.MemberChangedEvent;
+import study.querydsl.entity.MemberDSL;
+import study.querydsl.entity.PerTransaction;
+import study.querydsl.entity.TeamDSL;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.springframework.util.StringUtils.hasText;
+import static study.querydsl.entity.QMemberDSL.memberDSL;
+import static study.querydsl.entity.QTeamDSL.teamDSL;
+
+/**
+ * 팀별 회원 수, 평균/최소/최대 나이, 나이 분포.
+ * DB에서는 (팀, 나이)별 회원 수만 group by 로 가져오고 나머지는 그걸로 계산한다.
+ * 조건 없는 (팀, 나이)별 회원 수는 메모리에 들고 있어서, 이름 조건이 없는 요청은 DB를 안 거치고
+ * 팀 수 x 나이 종류 만큼만 계산한다. 처음 한 번만 group by 로 만들고, 그 뒤로는 하이버네이트 커밋 후 이벤트의
+ * 바뀌기 전/후 상태로 해당 칸만 -1/+1 한다. 벌크 연산이나 바뀌기 전 상태를 모르는 수정이면 버리고 다시 만든다.
+ */
+@Repository
+@Transactional(readOnly = true)
+public class MemberStatsRepository {
+
+    private final JPAQueryFactory queryFactory;
+    private final TeamIdResolver teamIdResolver;
+    private final UsernameNgramIndex usernameIndex;
+    private final int histogramWidth;
+    //세대와 집계를 한 번에 바꾼다. 집계 중에 세대가 바뀌었으면(증감이 들어왔으면) 그 결과는 저장하지 않는다.
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(new Snapshot(0, null, null));
+    //회원을 바꾸고 아직 커밋/롤백 안 된 트랜잭션 수. 0이 아니면 새로 읽은 집계를 저장하지 않는다.
+    //트랜잭션마다 한 번만 세도록 PerTransaction의 key로도 쓴다.
+    private final AtomicInteger writesInFlight = new AtomicInteger();
+
+    public MemberStatsRepository(JPAQueryFactory queryFactory, TeamIdResolver teamIdResolver, UsernameNgramIndex usernameIndex,
+                                 EntityManagerFactory emf,
+                                 @Value("${member.stats.histogram-width:10}") int histogramWidth) {
+        this.queryFactory = queryFactory;
+        this.teamIdResolver = teamIdResolver;
+        this.usernameIndex = usernameIndex;
+        this.histogramWidth = histogramWidth;
+        CommitListener listener = new CommitListener();
+        EventListenerRegistry registry = emf.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry().getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_COMMIT_INSERT, listener);
+        registry.appendListeners(EventType.POST_COMMIT_UPDATE, listener);
+        registry.appendListeners(EventType.POST_COMMIT_DELETE, listener);
+    }
+
+    public List<TeamStatsDto> statsByTeam(MemberSearchCondition condition) {
+        MemberSearchCondition normalized = condition.normalized();
+        //회원 이름은 (팀, 나이) 집계에 없으므로 DB에서 거른다. 쓰기 트랜잭션에서도 flush 안 된 변경 때문에 DB로.
+        if (normalized.getUsername() != null || !cacheable()) {
+            return aggregate(loadAgeCounts(normalized), normalized);
+        }
+        return aggregate(snapshot(), normalized);
+    }
+
+    private List<AgeCount> snapshot() {
+        Snapshot current = snapshot.get();
+        if (current.counts != null) {
+            return current.ageCounts();
+        }
+        boolean quiet = writesInFlight.get() == 0;
+        List<AgeCount> loaded = loadAgeCounts(new MemberSearchCondition());
+        if (quiet && writesInFlight.get() == 0) {
+            snapshot.compareAndSet(current, Snapshot.of(current.generation, loaded));
+        }
+        return loaded;
+    }
+
+    private List<AgeCount> loadAgeCounts(MemberSearchCondition condition) {
+        List<Tuple> rows = MemberSearchPlan.of(condition, teamIdResolver, usernameIndex).forContentUnranked(queryFactory
+                        .select(teamDSL.id, teamDSL.name, memberDSL.age, memberDSL.count())
+                        .from(memberDSL))
+                .groupBy(teamDSL.id, teamDSL.name, memberDSL.age)
+                .fetch();
+        List<AgeCount> counts = new ArrayList<>(rows.size());
+        for (Tuple row : rows) {
+            counts.add(new AgeCount(row.get(teamDSL.id), row.get(teamDSL.name),
+                    row.get(memberDSL.age), row.get(memberDSL.count())));
+        }
+        return counts;
+    }
+
+    //팀 이름/나이 조건은 집계 결과에 다시 걸어도 같다(DB에서 이미 걸렀으면 그대로 통과).
+    private List<TeamStatsDto> aggregate(List<AgeCount> counts, MemberSearchCondition condition) {
+        Map<Long, Accumulator> byTeam = new LinkedHashMap<>();
+        for (AgeCount count : counts) {
+            //팀 이름은 DB 콜레이션처럼 대소문자를 무시한다.
+            if (hasText(condition.getTeamName()) && !condition.getTeamName().equalsIgnoreCase(count.teamName)
+                    || condition.getAgeGoe() != null && count.age < condition.getAgeGoe()
+                    || condition.getAgeLoe() != null && count.age > condition.getAgeLoe()) {
+                continue;
+            }
+            byTeam.computeIfAbsent(count.teamId, id -> new Accumulator(count.teamId, count.teamName)).add(count);
+        }
+        List<TeamStatsDto> stats = new ArrayList<>(byTeam.size());
+        for (Accumulator accumulator : byTeam.values()) {
+            stats.add(accumulator.toDto());
+        }
+        //팀 없는 회원 줄은 맨 뒤로
+        stats.sort((a, b) -> a.getTeamId() == null ? 1 : b.getTeamId() == null ? -1 : Long.compare(a.getTeamId(), b.getTeamId()));
+        return stats;
+    }
+
+    /**
+     * 벌크 연산은 어떤 row가 바뀌었는지 모르므로 버린다.
+     * 엔티티 변경은 트랜잭션에서 처음 바뀔 때(flush 시점, 커밋 전) 세대를 올리고, 그 트랜잭션이 끝날 때까지
+     * 진행 중으로 한 번만 센다(PerTransaction). 같은 트랜잭션의 다음 변경은 이미 진행 중이라 할 일이 없다.
+     */
+    @EventListener
+    public void onMemberChanged(MemberChangedEvent event) {
+        if (event.isBulk()) {
+            invalidate();
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        PerTransaction.get(writesInFlight, () -> {
+            writesInFlight.incrementAndGet();
+            snapshot.updateAndGet(Snapshot::next);
+            return Boolean.TRUE;
+        }, done -> writesInFlight.decrementAndGet());
+    }
+
+    private void invalidate() {
+        snapshot.updateAndGet(current -> new Snapshot(current.generation + 1, null, null));
+    }
+
+    private boolean cacheable() {
+        return !TransactionSynchronizationManager.isActualTransactionActive()
+                || TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    }
+
+    private static final class AgeCount {
+        private final Long teamId;
+        private final String teamName;
+        private final int age;
+        private final long count;
+
+        private AgeCount(Long teamId, String teamName, Integer age, Long count) {
+            this.teamId = teamId;
+            this.teamName = teamName;
+            this.age = age;
+            this.count = Objects.requireNonNull(count);
+        }
+    }
+
+    //(팀, 나이) 칸. 팀 없는 회원은 teamId null
+    private static final class TeamAge {
+        private final Long teamId;
+        private final int age;
+
+        private TeamAge(Long teamId, int age) {
+            this.teamId = teamId;
+            this.age = age;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TeamAge)) {
+                return false;
+            }
+            TeamAge other = (TeamAge) o;
+            return age == other.age && Objects.equals(teamId, other.teamId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(teamId) * 31 + age;
+        }
+    }
+
+    /** 바뀌지 않는다. 증감은 복사본을 만들어 compareAndSet 으로 바꾼다. */
+    private static final class Snapshot {
+        private final long generation;
+        //null이면 아직 없음(다음 조회 때 DB에서 만든다)
+        private final Map<TeamAge, Long> counts;
+        private final Map<Long, String> teamNames;
+
+        private Snapshot(long generation, Map<TeamAge, Long> counts, Map<Long, String> teamNames) {
+            this.generation = generation;
+            this.counts = counts;
+            this.teamNames = teamNames;
+        }
+
+        private static Snapshot of(long generation, List<AgeCount> loaded) {
+            Map<TeamAge, Long> counts = new HashMap<>();
+            Map<Long, String> teamNames = new HashMap<>();
+            for (AgeCount count : loaded) {
+                counts.put(new TeamAge(count.teamId, count.age), count.count);
+                if (count.teamId != null) {
+                    teamNames.put(count.teamId, count.teamName);
+                }
+            }
+            return new Snapshot(generation, counts, teamNames);
+        }
+
+        private Snapshot next() {
+            return new Snapshot(generation + 1, counts, teamNames);
+        }
+
+        //removed 칸 -1, added 칸 +1. 없는 칸을 빼거나 이름 모르는 팀을 더하면 맞출 수 없으므로 버린다.
+        private Snapshot move(TeamAge removed, TeamAge added, String addedTeamName) {
+            if (counts == null || removed != null && !counts.containsKey(removed)) {
+                return new Snapshot(generation + 1, null, null);
+            }
+            Map<TeamAge, Long> nextCounts = new HashMap<>(counts);
+            Map<Long, String> nextNames = teamNames;
+            if (removed != null) {
+                nextCounts.computeIfPresent(removed, (key, count) -> count > 1 ? count - 1 : null);
+            }
+            if (added != null) {
+                if (added.teamId != null && !teamNames.containsKey(added.teamId)) {
+                    if (addedTeamName == null) {
+                        return new Snapshot(generation + 1, null, null);
+                    }
+                    nextNames = new HashMap<>(teamNames);
+                    nextNames.put(added.teamId, addedTeamName);
+                }
+                nextCounts.merge(added, 1L, Long::sum);
+            }
+            return new Snapshot(generation + 1, nextCounts, nextNames);
+        }
+
+        private Snapshot rename(Long teamId, String name) {
+            if (counts == null || !teamNames.containsKey(teamId)) {
+                return next();
+            }
+            Map<Long, String> nextNames = new HashMap<>(teamNames);
+            nextNames.put(teamId, name);
+            return new Snapshot(generation + 1, counts, nextNames);
+        }
+
+        private List<AgeCount> ageCounts() {
+            List<AgeCount> result = new ArrayList<>(counts.size());
+            counts.forEach((key, count) -> result.add(
+                    new AgeCount(key.teamId, key.teamId != null ? teamNames.get(key.teamId) : null, key.age, count)));
+            return result;
+        }
+    }
+
+    /**
+     * 커밋된 엔티티 변경만 받는다(롤백되면 안 불린다). 회원은 바뀌기 전/후 상태로 칸을 옮기고, 팀은 이름만 바꾼다.
+     * 삭제된 회원(deleted_at 있음)은 집계에 없으므로 soft delete는 그 칸의 -1, 복구는 +1 이다.
+     */
+    private final class CommitListener implements PostCommitInsertEventListener, PostCommitUpdateEventListener,
+            PostCommitDeleteEventListener {
+
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            if (event.getEntity() instanceof MemberDSL) {
+                snapshot.updateAndGet(current -> current.move(null, liveCell(event.getPersister(), event.getState()),
+                        teamName(event.getPersister(), event.getState())));
+            } else if (event.getEntity() instanceof TeamDSL) {
+                //새 팀은 회원이 들어올 때 이름이 같이 들어간다.
+                snapshot.updateAndGet(Snapshot::next);
+            }
+        }
+
+        @Override
+        public void onPostUpdate(PostUpdateEvent event) {
+            if (event.getEntity() instanceof TeamDSL) {
+                TeamDSL team = (TeamDSL) event.getEntity();
+                snapshot.updateAndGet(current -> current.rename(team.getId(), team.getName()));
+            } else if (event.getEntity() instanceof MemberDSL) {
+                if (event.getOldState() == null) {
+                    invalidate();
+                    return;
+                }
+                TeamAge before = liveCell(event.getPersister(), event.getOldState());
+                TeamAge after = liveCell(event.getPersister(), event.getState());
+                if (!Objects.equals(before, after)) {
+                    snapshot.updateAndGet(current -> current.move(before, after, teamName(event.getPersister(), event.getState())));
+                }
+            }
+        }
+
+        @Override
+        public void onPostDelete(PostDeleteEvent event) {
+            if (event.getEntity() instanceof MemberDSL) {
+                snapshot.updateAndGet(current -> current.move(liveCell(event.getPersister(), event.getDeletedState()), null, null));
+            }
+        }
+
+        @Override
+        public void onPostInsertCommitFailed(PostInsertEvent event) {
+        }
+
+        @Override
+        public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+        }
+
+        @Override
+        public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+        }
+
+        @Override
+        public boolean requiresPostCommitHanding(EntityPersister persister) {
+            Class<?> type = persister.getMappedClass();
+            return type == MemberDSL.class || type == TeamDSL.class;
+        }
+
+        //살아 있는 회원이면 그 상태의 (팀, 나이) 칸, 삭제 상태면 null
+        private TeamAge liveCell(EntityPersister persister, Object[] state) {
+            if (state == null) {
+                return null;
+            }
+            if (state[persister.getEntityMetamodel().getPropertyIndex("deletedAt")] != null) {
+                return null;
+            }
+            Object team = state[persister.getEntityMetamodel().getPropertyIndex("team")];
+            int age = (Integer) state[persister.getEntityMetamodel().getPropertyIndex("age")];
+            return new TeamAge(teamId(team), age);
+        }
+
+        //프록시는 초기화하지 않는다. 이름을 모르면 null(집계를 다시 만든다)
+        private String teamName(EntityPersister persister, Object[] state) {
+            Object team = state[persister.getEntityMetamodel().getPropertyIndex("team")];
+            return team instanceof TeamDSL && Hibernate.isInitialized(team) ? ((TeamDSL) team).getName() : null;
+        }
+
+        private Long teamId(Object team) {
+            if (team == null) {
+                return null;
+            }
+            if (team instanceof HibernateProxy) {
+                return (Long) ((HibernateProxy) team).getHibernateLazyInitializer().getIdentifier();
+            }
+            return ((TeamDSL) team).getId();
+        }
+    }
+
+    private final class Accumulator {
+        private final Long teamId;
+        private final String teamName;
+        private final TreeMap<Integer, Long> histogram = new TreeMap<>();
+        private long count;
+        private long ageSum;
+        private int minAge = Integer.MAX_VALUE;
+        private int maxAge = Integer.MIN_VALUE;
+
+        private Accumulator(Long teamId, String teamName) {
+            this.teamId = teamId;
+            this.teamName = teamName;
+        }
+
+        private void add(AgeCount ageCount) {
+            count += ageCount.count;
+            ageSum += (long) ageCount.age * ageCount.count;
+            minAge = Math.min(minAge, ageCount.age);
+            maxAge = Math.max(maxAge, ageCount.age);
+            histogram.merge(Math.floorDiv(ageCount.age, histogramWidth) * histogramWidth, ageCount.count, Long::sum);
+        }
+
+        private TeamStatsDto toDto() {
+            return new TeamStatsDto(teamId, teamName, count, (double) ageSum / count, minAge, maxAge, histogram);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package study.querydsl.repository;
+
+import java.util.Locale;
+
+/**
+ * search를 어디서 처리할지. COLUMNAR는 MemberColumnarIndex가 준비되어 있을 때만 쓰고,
+ * 아직 로딩 중이거나 변경을 반영하는 중이면 SQL로 처리한다.
+ */
+public enum SearchEngine {
+    SQL,
+    COLUMNAR;
+
+    //WebConfig에 컨버터로 등록되어 있어서 잘못된 값은 400
+    public static SearchEngine from(String value) {
+        try {
+            return SearchEngine.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("engine은 sql 또는 columnar: " + value, e);
+        }
+    }
+}
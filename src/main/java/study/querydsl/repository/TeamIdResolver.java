@@ -0,0 +1,79 @@
+package study.querydsl.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import org.hibernate.annotations.QueryHints;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import study.querydsl.entity.TeamChangedEvent;
+
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 팀 이름 -> team_id. 팀은 몇 개 안 되고 거의 안 바뀌므로 메모리에 들고 있다가
+ * teamName 조건을 team_id = ? 로 바꿔서 팀 조인을 없애는 데 쓴다.
+ * 메모리에 없으면 하이버네이트 쿼리 캐시를 거쳐서 조회한다.
+ * 없는 이름(또는 같은 이름이 여러 개)도 negativeTtl 동안 기억해서 없는 팀 이름으로 반복 검색해도 매번 조회하지 않는다.
+ * 팀이 생기거나 바뀌면 둘 다 비운다.
+ */
+@Component
+public class TeamIdResolver {
+
+    private final EntityManager em;
+    private final Cache<String, Optional<Long>> ids;
+
+    public TeamIdResolver(EntityManager em,
+                          @Value("${member.team-cache.max-size:10000}") long maxSize,
+                          @Value("${member.team-cache.ttl:10m}") Duration ttl,
+                          @Value("${member.team-cache.negative-ttl:30s}") Duration negativeTtl) {
+        this.em = em;
+        this.ids = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<String, Optional<Long>>() {
+                    @Override
+                    public long expireAfterCreate(String teamName, Optional<Long> id, long currentTime) {
+                        return (id.isPresent() ? ttl : negativeTtl).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String teamName, Optional<Long> id, long currentTime, long currentDuration) {
+                        return expireAfterCreate(teamName, id, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String teamName, Optional<Long> id, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    /** 이름이 같은 팀이 없거나 여러 개면 null. 이때는 조인해서 이름으로 걸러야 한다. */
+    public Long resolve(String teamName) {
+        return ids.get(teamName, this::findId).orElse(null);
+    }
+
+    //테스트용. 없는 이름도 기억하고 있는지
+    boolean isCached(String teamName) {
+        return ids.getIfPresent(teamName) != null;
+    }
+
+    private Optional<Long> findId(String teamName) {
+        List<Long> found = em.createQuery("select t.id from TeamDSL t where t.name = :name", Long.class)
+                .setParameter("name", teamName)
+                .setHint(QueryHints.CACHEABLE, true)
+                .setMaxResults(2)
+                .getResultList();
+        return found.size() == 1 ? Optional.of(found.get(0)) : Optional.empty();
+    }
+
+    @EventListener
+    public void onTeamChanged(TeamChangedEvent event) {
+        ids.invalidateAll();
+    }
+}
@@ -0,0 +1,350 @@
+package study.querydsl.repository;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.annotations.QueryHints;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.entity.MemberChangedEvent;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import static study.querydsl.entity.QMemberDSL.memberDSL;
+
+/**
+ * username 3-gram 역색인. UsernameMatch.CONTAINS 검색에서 like '%x%' 전체 스캔 대신
+ * 후보 member_id를 골라서 상위 topK개만 돌려준다. 순위는 일치 위치가 앞일수록, 이름이 짧을수록, id가 작을수록 높다.
+ * 3글자보다 짧은 검색어는 3-gram으로 후보를 줄일 수 없어서 인덱스를 쓰지 않는다(SQL like).
+ * 회원 변경은 커밋 후에 id만 모아 두었다가 백그라운드에서 DB의 현재 값으로 다시 읽어 반영한다
+ * (롤백된 변경이 들어가지 않도록). 벌크 연산이나 지워진 칸이 절반을 넘으면 통째로 다시 만든다.
+ * 회원 수가 maxMembers를 넘으면 메모리를 위해 인덱스를 버리고 SQL like로 처리한다.
+ */
+@Slf4j
+@Component
+public class UsernameNgramIndex {
+
+    private static final int GRAM = 3;
+    private static final int REFRESH_CHUNK = 1_000;
+
+    private final JPAQueryFactory queryFactory;
+    private final TransactionTemplate readOnly;
+    private final boolean enabled;
+    private final int maxMembers;
+    private final int topK;
+    private final ExecutorService refresher;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Set<Long> pendingIds = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean rebuildRequested = new AtomicBoolean();
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+    //null이면 사용 불가(로딩 전이거나 maxMembers 초과)
+    private Postings postings;
+
+    public UsernameNgramIndex(JPAQueryFactory queryFactory, PlatformTransactionManager transactionManager,
+                              @Value("${member.username-index.enabled:true}") boolean enabled,
+                              @Value("${member.username-index.max-members:200000}") int maxMembers,
+                              @Value("${member.username-index.top-k:100}") int topK) {
+        this.queryFactory = queryFactory;
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+        this.enabled = enabled;
+        this.maxMembers = maxMembers;
+        this.topK = topK;
+        this.refresher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "member-username-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * username에 query가 들어간(대소문자 무시) 회원 id를 순위 순으로 최대 topK개.
+     * 인덱스를 쓸 수 없거나 query가 3글자보다 짧으면 null. 호출하는 쪽이 like로 처리한다.
+     */
+    public List<Long> topK(String query) {
+        //짧은 검색어는 후보가 곧 전체 칸이라 읽기 잠금을 잡고 전부 훑게 되므로 DB에 맡긴다.
+        if (query.length() < GRAM) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            return postings != null ? postings.search(query.toLowerCase(Locale.ROOT), topK) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** topK(query)가 돌려주는 최대 개수. CONTAINS 검색 결과는 이 개수를 넘지 않는다. */
+    public int getTopK() {
+        return topK;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        if (enabled) {
+            rebuildRequested.set(true);
+            scheduleRefresh();
+        }
+    }
+
+    @EventListener
+    public void onMemberChanged(MemberChangedEvent event) {
+        //트랜잭션 안에서 바로 온 이벤트는 무시하고, 커밋/롤백 후에 다시 오는 이벤트로 반영한다.
+        if (!enabled || TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        if (event.isBulk()) {
+            rebuildRequested.set(true);
+        } else {
+            pendingIds.addAll(event.getMemberIds());
+        }
+        scheduleRefresh();
+    }
+
+    /** 지금 스레드에서 통째로 다시 만든다. 호출자의 트랜잭션이 있으면 그 안에서 읽는다. */
+    public void rebuild() {
+        Postings loaded = readOnly.execute(status -> load());
+        lock.writeLock().lock();
+        try {
+            postings = loaded;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    private void scheduleRefresh() {
+        if (!refreshScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        refresher.execute(() -> {
+            refreshScheduled.set(false);
+            try {
+                refresh();
+            } catch (RuntimeException e) {
+                //반영 못 한 변경이 있을 수 있으므로 다음 변경 때 통째로 다시 만든다. 그 전까지는 SQL like.
+                log.warn("username 인덱스를 갱신하지 못했습니다.", e);
+                rebuildRequested.set(true);
+                lock.writeLock().lock();
+                try {
+                    postings = null;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        });
+    }
+
+    //다시 만드는 동안 들어온 변경은 pendingIds에 남아 있다가 그 다음에 반영된다.
+    private void refresh() {
+        if (rebuildRequested.getAndSet(false)) {
+            rebuild();
+        }
+        List<Long> ids = new ArrayList<>(pendingIds);
+        pendingIds.removeAll(ids);
+        for (int from = 0; from < ids.size(); from += REFRESH_CHUNK) {
+            List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + REFRESH_CHUNK));
+            List<Tuple> rows = readOnly.execute(status -> queryFactory
+                    .select(memberDSL.id, memberDSL.username)
+                    .from(memberDSL)
+                    //삭제된 회원은 없는 것으로 보고 인덱스에서 뺀다.
+                    .where(memberDSL.id.in(chunk), MemberSearchPlan.live())
+                    .fetch());
+            Map<Long, String> current = new HashMap<>();
+            for (Tuple row : rows) {
+                current.put(row.get(memberDSL.id), row.get(memberDSL.username));
+            }
+            lock.writeLock().lock();
+            try {
+                if (postings == null) {
+                    return;
+                }
+                for (Long id : chunk) {
+                    postings.put(id, current.get(id));
+                }
+                if (postings.size() > maxMembers) {
+                    log.warn("회원 수가 username 인덱스 한도({})를 넘어서 SQL like로 처리합니다.", maxMembers);
+                    postings = null;
+                    return;
+                }
+                if (postings.isFragmented()) {
+                    rebuildRequested.set(true);
+                    scheduleRefresh();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private Postings load() {
+        Postings loaded = new Postings();
+        try (Stream<Tuple> rows = queryFactory
+                .select(memberDSL.id, memberDSL.username)
+                .from(memberDSL)
+                .where(MemberSearchPlan.live())
+                .orderBy(memberDSL.id.asc())
+                .setHint(QueryHints.FETCH_SIZE, Integer.MIN_VALUE)
+                .setHint(QueryHints.READ_ONLY, true)
+                .stream()) {
+            Iterator<Tuple> iterator = rows.iterator();
+            while (iterator.hasNext()) {
+                Tuple row = iterator.next();
+                loaded.put(row.get(memberDSL.id), row.get(memberDSL.username));
+                if (loaded.size() > maxMembers) {
+                    log.warn("회원 수가 username 인덱스 한도({})를 넘어서 SQL like로 처리합니다.", maxMembers);
+                    return null;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * 칸(slot) 단위 색인. 회원마다 칸을 하나 쓰고, 이름이 바뀌거나 삭제되면 칸을 비우고 새 칸을 뒤에 붙인다.
+     * 칸 번호는 늘어나기만 하므로 3-gram별 칸 목록(int[])은 항상 오름차순이다.
+     */
+    static final class Postings {
+        private long[] ids = new long[1024];
+        private String[] names = new String[1024];   //소문자. null이면 빈 칸
+        private int slots;
+        private int live;
+        private final Map<Long, Integer> slotById = new HashMap<>();
+        private final Map<String, int[]> grams = new HashMap<>();
+
+        int size() {
+            return live;
+        }
+
+        boolean isFragmented() {
+            return slots > 1024 && live < slots / 2;
+        }
+
+        //username이 null이면 삭제
+        void put(long id, String username) {
+            String name = username != null ? username.toLowerCase(Locale.ROOT) : null;
+            Integer slot = slotById.get(id);
+            if (slot != null) {
+                if (name != null && name.equals(names[slot])) {
+                    return;
+                }
+                names[slot] = null;
+                slotById.remove(id);
+                live--;
+            }
+            if (name == null) {
+                return;
+            }
+            if (slots == ids.length) {
+                ids = Arrays.copyOf(ids, slots * 2);
+                names = Arrays.copyOf(names, slots * 2);
+            }
+            int newSlot = slots++;
+            ids[newSlot] = id;
+            names[newSlot] = name;
+            slotById.put(id, newSlot);
+            live++;
+            for (int i = 0; i + GRAM <= name.length(); i++) {
+                append(name.substring(i, i + GRAM), newSlot);
+            }
+        }
+
+        List<Long> search(String query, int limit) {
+            List<Integer> candidates = intersect(query);
+            //순위가 가장 낮은 것이 맨 앞(꺼낼 대상)인 힙
+            Comparator<Integer> rank = Comparator.<Integer>comparingInt(slot -> names[slot].indexOf(query))
+                    .thenComparingInt(slot -> names[slot].length())
+                    .thenComparingLong(slot -> ids[slot]);
+            PriorityQueue<Integer> best = new PriorityQueue<>(rank.reversed());
+            for (int slot : candidates) {
+                if (names[slot] == null || !names[slot].contains(query)) {
+                    continue;
+                }
+                best.add(slot);
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+            List<Integer> ranked = new ArrayList<>(best);
+            ranked.sort(rank);
+            List<Long> result = new ArrayList<>(ranked.size());
+            for (int slot : ranked) {
+                result.add(ids[slot]);
+            }
+            return result;
+        }
+
+        private void append(String gram, int slot) {
+            int[] list = grams.get(gram);
+            if (list == null) {
+                grams.put(gram, new int[]{1, slot});
+                return;
+            }
+            //list[0]은 개수. 같은 이름 안에서 같은 gram이 또 나오면 한 번만
+            int count = list[0];
+            if (list[count] == slot) {
+                return;
+            }
+            if (count + 1 == list.length) {
+                list = Arrays.copyOf(list, list.length * 2);
+                grams.put(gram, list);
+            }
+            list[count + 1] = slot;
+            list[0] = count + 1;
+        }
+
+        //query의 모든 3-gram을 가진 칸. 가장 짧은 목록부터 나머지 목록에 이진 탐색
+        private List<Integer> intersect(String query) {
+            List<int[]> lists = new ArrayList<>();
+            for (int i = 0; i + GRAM <= query.length(); i++) {
+                int[] list = grams.get(query.substring(i, i + GRAM));
+                if (list == null) {
+                    return Collections.emptyList();
+                }
+                lists.add(list);
+            }
+            lists.sort(Comparator.comparingInt(list -> list[0]));
+            int[] shortest = lists.get(0);
+            List<Integer> result = new ArrayList<>();
+            for (int i = 1; i <= shortest[0]; i++) {
+                int slot = shortest[i];
+                boolean all = true;
+                for (int l = 1; l < lists.size() && all; l++) {
+                    int[] other = lists.get(l);
+                    all = Arrays.binarySearch(other, 1, other[0] + 1, slot) >= 0;
+                }
+                if (all) {
+                    result.add(slot);
+                }
+            }
+            return result;
+        }
+    }
+}
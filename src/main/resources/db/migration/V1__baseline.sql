@@ -0,0 +1,26 @@
+-- V1__baseline.sql
+-- 시퀀스/삭제/ETL 이전의 스키마(hibernate ddl-auto가 만들던 것과 같음).
+-- 이미 이 스키마로 돌고 있는 DB는 baseline-on-migrate로 V1을 건너뛰고 V2부터 적용한다.
+create table hibernate_sequence (next_val bigint) engine=InnoDB;
+insert into hibernate_sequence values (1);
+
+create table hello (
+    id bigint not null,
+    primary key (id)
+) engine=InnoDB;
+
+create table teamdsl (
+    team_id bigint not null,
+    name varchar(255),
+    primary key (team_id)
+) engine=InnoDB;
+
+create table memberdsl (
+    member_id bigint not null,
+    age integer not null,
+    username varchar(255),
+    team_id bigint,
+    primary key (member_id)
+) engine=InnoDB;
+
+alter table memberdsl add constraint fk_member_team foreign key (team_id) references teamdsl (team_id);
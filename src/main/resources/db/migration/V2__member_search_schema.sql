@@ -0,0 +1,41 @@
+-- V2__member_search_schema.sql
+-- 회원/팀 id 시퀀스, 가입/삭제 시각, deleted_at으로 시작하는 검색 인덱스, member_archive, etl_checkpoint.
+-- 운영은 ddl-auto: validate라서 엔티티를 바꾸면 여기에 다음 버전 파일을 추가한다.
+
+-- MySQL에는 시퀀스가 없어서 하이버네이트가 테이블로 흉내 낸다(allocationSize 50, pooled).
+-- 저장된 값 N을 읽으면 N-49 ~ N을 쓰므로, 기존 id 다음부터 나오도록 max + 50으로 시작한다.
+create table member_seq (next_val bigint) engine=InnoDB;
+insert into member_seq select coalesce(max(member_id), 0) + 50 from memberdsl;
+create table team_seq (next_val bigint) engine=InnoDB;
+insert into team_seq select coalesce(max(team_id), 0) + 50 from teamdsl;
+
+-- 기존 회원의 created_at은 null로 두고 처음부터 있던 회원으로 본다(as-of 조회).
+alter table memberdsl
+    add column created_at datetime(6),
+    add column deleted_at datetime(6);
+
+create index idx_member_team_age on memberdsl (deleted_at, team_id, age, member_id);
+create index idx_member_age on memberdsl (deleted_at, age, member_id);
+create index idx_member_username on memberdsl (deleted_at, username);
+create index idx_team_name on teamdsl (name);
+
+-- 외래 키 없음(MemberArchive 참고)
+create table member_archive (
+    member_id bigint not null,
+    age integer not null,
+    created_at datetime(6),
+    deleted_at datetime(6) not null,
+    team_id bigint,
+    username varchar(255),
+    primary key (member_id)
+) engine=InnoDB;
+
+create index idx_archive_deleted_created on member_archive (deleted_at, created_at);
+
+create table etl_checkpoint (
+    id varchar(255) not null,
+    done bit not null,
+    position bigint not null,
+    row_count bigint not null,
+    primary key (id)
+) engine=InnoDB;
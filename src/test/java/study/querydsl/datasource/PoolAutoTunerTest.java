@@ -0,0 +1,75 @@
+package study.querydsl.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** H2 풀 하나로 커넥션을 잡았다 놓으면서 크기 조절 확인. 스케줄러 대신 tuneAll()을 직접 부른다. */
+class PoolAutoTunerTest {
+
+    HikariDataSource dataSource;
+    SimpleMeterRegistry registry;
+    PoolAutoTuner tuner;
+
+    @BeforeEach
+    public void before() {
+        registry = new SimpleMeterRegistry();
+        dataSource = new HikariDataSource();
+        dataSource.setPoolName("tuned");
+        dataSource.setJdbcUrl("jdbc:h2:mem:tuned;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setMaximumPoolSize(4);
+        dataSource.setMinimumIdle(4);
+        dataSource.setMetricRegistry(registry);
+        tuner = new PoolAutoTuner(Collections.singletonList(dataSource), registry,
+                2, 8, 1.5, 2, Duration.ofSeconds(10));
+    }
+
+    @AfterEach
+    public void after() {
+        dataSource.close();
+    }
+
+    @Test
+    public void desiredSize(){
+        assertThat(tuner.desiredSize(0)).isEqualTo(2);
+        assertThat(tuner.desiredSize(3)).isEqualTo(5);
+        assertThat(tuner.desiredSize(100)).isEqualTo(8);
+    }
+
+    @Test
+    public void growWhenSaturatedThenShrinkSlowly() throws Exception {
+        List<Connection> held = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            held.add(dataSource.getConnection());
+        }
+        tuner.tuneAll();
+        //4개 사용 중 x 1.5
+        assertThat(dataSource.getMaximumPoolSize()).isEqualTo(6);
+        assertThat(registry.get("hikaricp.connections.autotune.target").gauge().value()).isEqualTo(6);
+
+        for (Connection connection : held) {
+            connection.close();
+        }
+        //놓기 직전까지의 점유 시간이 이번 구간에 잡혀서 아직은 그대로
+        tuner.tuneAll();
+        assertThat(dataSource.getMaximumPoolSize()).isEqualTo(6);
+
+        //한가한 구간이 shrink-after(2) 번 이어져야 줄어든다. 목표(2)까지 절반씩
+        tuner.tuneAll();
+        assertThat(dataSource.getMaximumPoolSize()).isEqualTo(6);
+        tuner.tuneAll();
+        assertThat(dataSource.getMaximumPoolSize()).isEqualTo(4);
+        assertThat(dataSource.getMinimumIdle()).isEqualTo(4);
+    }
+}
@@ -0,0 +1,79 @@
+package study.querydsl.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** 원본/복제본 대신 H2 두 개를 띄워서 라우팅 확인. 각 DB에 자기 이름을 넣어둔다. */
+class ReplicationRoutingDataSourceTest {
+
+    ReplicationRoutingDataSource routingDataSource;
+    ReplicaTarget replica;
+    JdbcTemplate jdbcTemplate;
+    TransactionTemplate readWrite;
+    TransactionTemplate readOnly;
+
+    @BeforeEach
+    public void before() {
+        HikariDataSource primary = h2("primary");
+        replica = new ReplicaTarget("replica1", h2("replica1"));
+        routingDataSource = new ReplicationRoutingDataSource(primary,
+                new ReplicaSelector(Collections.singletonList(replica), ReplicaSelector.Strategy.ROUND_ROBIN));
+
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(routingDataSource);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        readWrite = new TransactionTemplate(transactionManager);
+        readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+    }
+
+    @AfterEach
+    public void after() {
+        routingDataSource.close();
+    }
+
+    @Test
+    public void route(){
+        assertThat(readWrite.execute(status -> whereAmI())).isEqualTo("primary");
+        assertThat(readOnly.execute(status -> whereAmI())).isEqualTo("replica1");
+        assertThat(DataSourceRoute.readOnly(this::whereAmI)).isEqualTo("replica1");
+    }
+
+    @Test
+    public void fallbackToPrimaryWhenReplicaLags(){
+        //H2는 복제 지연이 없으므로 지연 쿼리 대신 고정값으로 흉내낸다.
+        ReplicaHealthChecker checker = new ReplicaHealthChecker(Collections.singletonList(replica),
+                "select 60 as seconds_behind", "seconds_behind", Duration.ofSeconds(5), Duration.ofSeconds(1));
+        checker.checkAll();
+
+        assertThat(replica.isHealthy()).isFalse();
+        assertThat(readOnly.execute(status -> whereAmI())).isEqualTo("primary");
+    }
+
+    private String whereAmI() {
+        return jdbcTemplate.queryForObject("select name from whoami", String.class);
+    }
+
+    private static HikariDataSource h2(String name) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName(name);
+        dataSource.setJdbcUrl("jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("create table if not exists whoami (name varchar(20))");
+        jdbc.execute("delete from whoami");
+        jdbc.update("insert into whoami values (?)", name);
+        return dataSource;
+    }
+}
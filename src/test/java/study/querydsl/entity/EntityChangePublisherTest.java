@@ -0,0 +1,92 @@
+package study.querydsl.entity;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** 스프링 없이 트랜잭션 동기화만 켜서, 이벤트가 트랜잭션당 하나로 모이는지 본다. */
+class EntityChangePublisherTest {
+
+    List<Object> published = new ArrayList<>();
+    EntityChangePublisher changePublisher = new EntityChangePublisher(published::add);
+
+    @BeforeEach
+    public void before() {
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @AfterEach
+    public void after() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        TransactionSynchronizationManager.unbindResourceIfPossible(changePublisher);
+    }
+
+    //회원 3건을 바꿔도 동기화는 하나, 즉시 발행은 처음 한 번, 끝나면 id를 모은 이벤트 한 번
+    @Test
+    public void oneSynchronizationPerTransaction() {
+        for (long id = 1; id <= 3; id++) {
+            changePublisher.publish(MemberChangedEvent.of(MemberChangedEvent.Type.PERSIST, member(id)));
+        }
+        assertThat(TransactionSynchronizationManager.getSynchronizations()).hasSize(1);
+        assertThat(published).hasSize(1);
+
+        complete();
+
+        assertThat(published).hasSize(2);
+        MemberChangedEvent committed = (MemberChangedEvent) published.get(1);
+        assertThat(committed.getType()).isEqualTo(MemberChangedEvent.Type.COMMITTED);
+        assertThat(committed.getMemberIds()).containsExactlyInAnyOrder(1L, 2L, 3L);
+    }
+
+    //모으는 id가 한도를 넘으면 id 없이 벌크로 보낸다.
+    @Test
+    public void tooManyIdsBecomeBulk() {
+        for (long id = 1; id <= EntityChangePublisher.MAX_TRACKED + 1; id++) {
+            changePublisher.publish(MemberChangedEvent.of(MemberChangedEvent.Type.PERSIST, member(id)));
+        }
+        complete();
+
+        assertThat(published).hasSize(2);
+        assertThat(((MemberChangedEvent) published.get(1)).isBulk()).isTrue();
+    }
+
+    //팀은 매번 즉시 발행하고, 끝난 뒤에는 (그때 채번된) 팀 id를 모아서 한 번
+    @Test
+    public void teamsArePublishedImmediatelyAndOnceAfterCompletion() {
+        TeamDSL teamA = new TeamDSL("teamA");
+        TeamDSL teamB = new TeamDSL("teamB");
+        changePublisher.publish(new TeamChangedEvent(teamA));
+        changePublisher.publish(new TeamChangedEvent(teamB));
+        assertThat(published).hasSize(2);
+        teamA.setId(10L);
+        teamB.setId(20L);
+
+        complete();
+
+        assertThat(published).hasSize(3);
+        assertThat(((TeamChangedEvent) published.get(2)).getTeamIds()).containsExactlyInAnyOrder(10L, 20L);
+    }
+
+    //스프링이 커밋 후에 하는 것처럼 동기화를 끈 뒤 afterCompletion을 부른다.
+    private void complete() {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        synchronizations.forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        assertThat(TransactionSynchronizationManager.hasResource(changePublisher)).isFalse();
+    }
+
+    private static MemberDSL member(long id) {
+        MemberDSL member = new MemberDSL("member" + id);
+        member.setId(id);
+        return member;
+    }
+}
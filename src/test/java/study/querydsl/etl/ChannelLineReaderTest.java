@@ -0,0 +1,52 @@
+package study.querydsl.etl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.export.ExportFormat;
+import study.querydsl.export.MemberRowCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** 스프링 없이 파일 형식과 체크포인트 위치만 확인 */
+class ChannelLineReaderTest {
+
+    private final MemberRowCodec codec = new MemberRowCodec(new ObjectMapper());
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void resumeFromPositionTest() throws Exception {
+        MemberTeamDto first = new MemberTeamDto(1L, "member,1", 10, 1L, "team \"A\"");
+        MemberTeamDto second = new MemberTeamDto(2L, "회원2", 20, null, null);
+        for (ExportFormat format : ExportFormat.values()) {
+            Path file = dir.resolve("members." + format.name().toLowerCase());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(codec.encode(first, format));
+            out.write(codec.encode(second, format));
+            Files.write(file, out.toByteArray());
+
+            long position;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                //버퍼보다 긴 줄도 읽히는지 보려고 버퍼를 작게
+                ChannelLineReader reader = new ChannelLineReader(channel, 0, 8);
+                assertThat(codec.decode(reader.readLine(), format)).isEqualTo(first);
+                position = reader.position();
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ChannelLineReader reader = new ChannelLineReader(channel, position, 8);
+                assertThat(codec.decode(reader.readLine(), format)).isEqualTo(second);
+                assertThat(reader.readLine()).isNull();
+                assertThat(reader.position()).isEqualTo(Files.size(file));
+            }
+        }
+    }
+}
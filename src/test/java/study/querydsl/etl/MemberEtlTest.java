@@ -0,0 +1,173 @@
+package study.querydsl.etl;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.entity.EntityChangePublisher;
+import study.querydsl.entity.MemberDSL;
+import study.querydsl.entity.TeamDSL;
+import study.querydsl.export.ExportFormat;
+import study.querydsl.export.MemberRowCodec;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * import/export는 자기 세션으로 커밋하므로 클래스에 @Transactional을 붙이지 않고, 끝나면 etl로 시작하는 데이터를 지운다.
+ * 중간에 죽은 상황은 import는 깨진 줄로, export는 체크포인트 뒤에 쓰다 만 내용을 남겨서 만든다.
+ */
+@SpringBootTest
+class MemberEtlTest {
+
+    @Autowired
+    EntityManagerFactory emf;
+    @Autowired
+    EntityManager entityManager;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    MemberRowCodec codec;
+    @Autowired
+    EntityChangePublisher changePublisher;
+
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    public void after() {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            entityManager.createQuery("delete from MemberDSL m where m.username like 'etl%'").executeUpdate();
+            entityManager.createQuery("delete from TeamDSL t where t.name like 'etl%'").executeUpdate();
+            entityManager.createQuery("delete from EtlCheckpoint c where c.id like 'etl%'").executeUpdate();
+        });
+    }
+
+    //2건씩 커밋. 6번째 줄에서 실패하면 4건만 남고, 줄을 고쳐 다시 돌리면 5번째 줄부터 이어서 넣는다.
+    @Test
+    public void importResumesFromCheckpoint() throws Exception {
+        MemberEtlImporter importer = new MemberEtlImporter(emf, codec, changePublisher, 2);
+        Path file = dir.resolve("members-000.csv");
+        List<String> lines = new ArrayList<>();
+        lines.add(MemberRowCodec.CSV_HEADER);
+        for (int i = 0; i < 5; i++) {
+            lines.add(i + ",etlMember" + i + "," + (10 + i) + ",1,etlTeam");
+        }
+        lines.add("5,etlMember5");
+        lines.add("6,etlMember6,16,1,etlTeam");
+        Files.write(file, lines);
+
+        assertThatThrownBy(() -> importer.importFiles("etlResume", List.of(file), ExportFormat.CSV))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(usernames()).containsExactlyInAnyOrder("etlMember0", "etlMember1", "etlMember2", "etlMember3");
+        EtlCheckpoint failed = checkpoint("etlResume:members-000.csv");
+        assertThat(failed.getRowCount()).isEqualTo(4);
+        assertThat(failed.isDone()).isFalse();
+
+        //체크포인트 뒤의 줄만 고친다.
+        lines.set(6, "5,etlMember5,15,1,etlTeam");
+        Files.write(file, lines);
+        EtlResult resumed = importer.importFiles("etlResume", List.of(file), ExportFormat.CSV);
+
+        assertThat(resumed.getTotal()).isEqualTo(3);
+        assertThat(usernames()).containsExactlyInAnyOrder(
+                "etlMember0", "etlMember1", "etlMember2", "etlMember3", "etlMember4", "etlMember5", "etlMember6");
+        assertThat(checkpoint("etlResume:members-000.csv").isDone()).isTrue();
+
+        //끝난 파일은 다시 돌려도 넣지 않는다.
+        assertThat(importer.importFiles("etlResume", List.of(file), ExportFormat.CSV).getTotal()).isZero();
+        assertThat(usernames()).hasSize(7);
+    }
+
+    //파티션 여러 개가 같은 팀 이름(대소문자만 다른 것 포함)을 동시에 만나도 팀은 하나만 생긴다.
+    @Test
+    public void partitionsShareTeams() throws Exception {
+        MemberEtlImporter importer = new MemberEtlImporter(emf, codec, changePublisher, 2);
+        List<Path> files = new ArrayList<>();
+        for (int p = 0; p < 4; p++) {
+            List<String> lines = new ArrayList<>();
+            lines.add(MemberRowCodec.CSV_HEADER);
+            for (int i = 0; i < 5; i++) {
+                String teamName = i % 2 == 0 ? "etlShared" : "ETLSHARED";
+                lines.add(i + ",etlShared" + p + "_" + i + "," + i + ",1," + teamName);
+            }
+            Path file = dir.resolve(String.format("members-%03d.csv", p));
+            Files.write(file, lines);
+            files.add(file);
+        }
+
+        assertThat(importer.importFiles("etlShared", files, ExportFormat.CSV).getTotal()).isEqualTo(20);
+
+        List<Long> teamIds = entityManager
+                .createQuery("select distinct m.team.id from MemberDSL m where m.username like 'etlShared%'", Long.class)
+                .getResultList();
+        assertThat(teamIds).hasSize(1);
+        assertThat(entityManager.createQuery("select count(t) from TeamDSL t where t.name = 'etlShared'", Long.class)
+                .getSingleResult()).isEqualTo(1);
+    }
+
+    //체크포인트(2건) 뒤에 쓰다 만 줄이 남아 있어도 resume하면 잘라내고 이어 써서 한 번에 쓴 것과 같아진다.
+    //파티션 경계도 처음 export 때 남긴 것을 쓴다.
+    @Test
+    public void exportResumesFromCheckpoint() throws Exception {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            TeamDSL team = new TeamDSL("etlExportTeam");
+            entityManager.persist(team);
+            for (int i = 0; i < 5; i++) {
+                entityManager.persist(new MemberDSL("etlExport" + i, 20 + i, team));
+            }
+        });
+        MemberEtlExporter exporter = new MemberEtlExporter(emf, codec, 2);
+        Path full = Files.createDirectory(dir.resolve("full"));
+        EtlResult once = exporter.export(full, ExportFormat.CSV, 1, false);
+        byte[] expected = Files.readAllBytes(full.resolve("members-000.csv"));
+
+        //헤더 + 2건까지 쓰고 체크포인트를 남긴 뒤 세 번째 줄을 쓰다가 죽은 파일
+        Path crashed = Files.createDirectory(dir.resolve("crashed"));
+        Path file = crashed.resolve("members-000.csv");
+        List<String> lines = Files.readAllLines(full.resolve("members-000.csv"));
+        String committed = String.join("\n", lines.subList(0, 3)) + "\n";
+        Files.writeString(file, committed + lines.get(3).substring(0, 3));
+        long lastId = Long.parseLong(lines.get(2).split(",")[0]);
+        Files.writeString(crashed.resolve("members-000.csv.checkpoint"),
+                lastId + " " + committed.getBytes(StandardCharsets.UTF_8).length);
+        Files.copy(full.resolve("members.csv.bounds"), crashed.resolve("members.csv.bounds"));
+
+        //파티션 수가 다르면 경계가 달라지므로 resume하지 않는다.
+        assertThatThrownBy(() -> exporter.export(crashed, ExportFormat.CSV, 2, true))
+                .isInstanceOf(IllegalArgumentException.class);
+        //죽은 뒤에 들어온 회원은 처음 export 때 정한 범위 밖이라 resume해도 결과가 바뀌지 않는다.
+        new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                entityManager.persist(new MemberDSL("etlExportLate", 30)));
+
+        EtlResult resumed = exporter.export(crashed, ExportFormat.CSV, 1, true);
+
+        assertThat(resumed.getTotal()).isEqualTo(once.getTotal() - 2);
+        assertThat(Files.readAllBytes(file)).isEqualTo(expected);
+        //다 쓴 파티션은 resume해도 다시 쓰지 않는다.
+        assertThat(exporter.export(crashed, ExportFormat.CSV, 1, true).getTotal()).isZero();
+        assertThat(Files.readAllBytes(file)).isEqualTo(expected);
+    }
+
+    private List<String> usernames() {
+        return entityManager
+                .createQuery("select m.username from MemberDSL m where m.username like 'etlMember%'", String.class)
+                .getResultList();
+    }
+
+    private EtlCheckpoint checkpoint(String id) {
+        return new TransactionTemplate(transactionManager)
+                .execute(status -> entityManager.find(EtlCheckpoint.class, id));
+    }
+}
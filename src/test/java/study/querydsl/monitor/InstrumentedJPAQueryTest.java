@@ -0,0 +1,113 @@
+package study.querydsl.monitor;
+
+import com.mysema.commons.lang.CloseableIterator;
+import com.querydsl.jpa.impl.JPAQuery;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+import study.querydsl.entity.MemberDSL;
+import study.querydsl.entity.TeamDSL;
+
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static study.querydsl.entity.QMemberDSL.memberDSL;
+
+/** 빈으로 등록된 QueryMetrics 대신 threshold 0으로 따로 만들어서 모든 쿼리를 느린 쿼리로 남긴다. */
+@SpringBootTest
+@Transactional
+class InstrumentedJPAQueryTest {
+
+    @Autowired
+    EntityManager entityManager;
+
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    QueryMetrics metrics = new QueryMetrics(registry, 2, Duration.ZERO, 10);
+    InstrumentedJPAQueryFactory queryFactory;
+
+    @BeforeEach
+    public void before() {
+        queryFactory = new InstrumentedJPAQueryFactory(entityManager, metrics);
+        TeamDSL team = new TeamDSL("metricsTeam");
+        entityManager.persist(team);
+        for (int i = 0; i < 3; i++) {
+            entityManager.persist(new MemberDSL("metricsMember" + i, 50 + i, team));
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    //fetch, stream, iterate 모두 같은 모양으로 시간과 row 수가 남는다. stream/iterate는 닫을 때 기록된다.
+    @Test
+    public void fetchStreamAndIterateAreRecorded(){
+        assertThat(byAge().fetch()).hasSize(3);
+
+        List<MemberDSL> streamed;
+        try (Stream<MemberDSL> stream = byAge().stream()) {
+            streamed = stream.collect(Collectors.toList());
+            assertThat(total()).isEqualTo(1);
+        }
+        assertThat(streamed).hasSize(3);
+        assertThat(total()).isEqualTo(2);
+
+        CloseableIterator<MemberDSL> iterator = byAge().iterate();
+        int rows = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            rows++;
+        }
+        assertThat(total()).isEqualTo(2);
+        iterator.close();
+        assertThat(rows).isEqualTo(3);
+        assertThat(total()).isEqualTo(3);
+
+        QueryMetrics.Shape shape = metrics.getShapes().iterator().next();
+        assertThat(metrics.getShapes()).hasSize(1);
+        assertThat(registry.get("querydsl.query.rows").tag("shape", shape.getId()).summary().totalAmount()).isEqualTo(9);
+    }
+
+    //느린 쿼리 목록에는 바인딩 값 없이 타입(컬렉션은 크기)만 남는다.
+    @Test
+    public void slowQueryHasNoParameterValues(){
+        queryFactory.selectFrom(memberDSL)
+                .where(memberDSL.username.eq("metricsMember1"),
+                        memberDSL.age.in(50, 51, 52))
+                .fetch();
+
+        QueryMetrics.SlowQuery slowQuery = metrics.getSlowQueries().get(0);
+        assertThat(slowQuery.getParamTypes()).containsExactly("String", "Collection(3)");
+        assertThat(slowQuery.getJpql()).doesNotContain("metricsMember1");
+        assertThat(new QueryMetricsEndpoint(metrics).shapes().toString())
+                .doesNotContain("metricsMember1");
+    }
+
+    //모양 수가 상한을 넘으면 other로 묶인다.
+    @Test
+    public void shapesOverLimitGoToOther(){
+        queryFactory.selectFrom(memberDSL).where(memberDSL.age.goe(50)).fetch();
+        queryFactory.selectFrom(memberDSL).where(memberDSL.age.loe(50)).fetch();
+        queryFactory.selectFrom(memberDSL).where(memberDSL.username.startsWith("metrics")).fetch();
+
+        assertThat(metrics.getShapes()).hasSize(2);
+        assertThat(registry.get("querydsl.query").tag("shape", "other").timer().count()).isEqualTo(1);
+    }
+
+    private JPAQuery<MemberDSL> byAge() {
+        return queryFactory.selectFrom(memberDSL)
+                .where(memberDSL.username.startsWith("metricsMember"), memberDSL.age.goe(50))
+                .orderBy(memberDSL.age.asc());
+    }
+
+    private long total() {
+        return registry.find("querydsl.query").timers().stream()
+                .mapToLong(timer -> timer.count())
+                .sum();
+    }
+}
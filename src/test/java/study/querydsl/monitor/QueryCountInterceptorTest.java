@@ -0,0 +1,61 @@
+package study.querydsl.monitor;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/** 쿼리 실행 대신 QueryCounter.record로 개수만 올린다. */
+class QueryCountInterceptorTest {
+
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/v1/members");
+    MockHttpServletResponse response = new MockHttpServletResponse();
+
+    @AfterEach
+    public void after() {
+        QueryCounter.stop();
+    }
+
+    @Test
+    public void failOnExceedFailsInPostHandle(){
+        QueryCountInterceptor interceptor = new QueryCountInterceptor(2, true);
+        interceptor.preHandle(request, response, null);
+        recordStatements(3);
+
+        assertThatThrownBy(() -> interceptor.postHandle(request, response, null, null))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("SQL 3개");
+        interceptor.afterCompletion(request, response, null, null);
+        assertThat(QueryCounter.count()).isZero();
+    }
+
+    @Test
+    public void underThresholdPasses(){
+        QueryCountInterceptor interceptor = new QueryCountInterceptor(2, true);
+        interceptor.preHandle(request, response, null);
+        recordStatements(2);
+
+        interceptor.postHandle(request, response, null, null);
+        interceptor.afterCompletion(request, response, null, null);
+    }
+
+    @Test
+    public void asyncRequestStopsCounter(){
+        QueryCountInterceptor interceptor = new QueryCountInterceptor(2, true);
+        interceptor.preHandle(request, response, null);
+        interceptor.afterConcurrentHandlingStarted(request, response, null);
+
+        //요청 스레드에서는 더 이상 세지 않는다.
+        recordStatements(5);
+        assertThat(QueryCounter.count()).isZero();
+    }
+
+    private static void recordStatements(int count) {
+        for (int i = 0; i < count; i++) {
+            QueryCounter.record(1_000);
+        }
+    }
+}
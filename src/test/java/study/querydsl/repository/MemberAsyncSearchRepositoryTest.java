@@ -0,0 +1,172 @@
+package study.querydsl.repository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.entity.MemberDSL;
+import study.querydsl.entity.TeamDSL;
+import study.querydsl.monitor.QueryMetrics;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 쿼리는 호출자 트랜잭션 밖(별도 EntityManager)에서 돌기 때문에 데이터는 커밋해서 넣고 끝나면 지운다.
+ * 실행기는 작업을 시작하기 전에 latch에서 멈추는 것으로 바꿔 끼워서, 거절/타임아웃 뒤에 쿼리가 나가는지 본다.
+ */
+@SpringBootTest
+class MemberAsyncSearchRepositoryTest {
+
+    static final Duration TIMEOUT = Duration.ofMillis(200);
+
+    @Autowired
+    EntityManager entityManager;
+    @Autowired
+    EntityManagerFactory emf;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    MemberRepository memberRepository;
+    @Autowired
+    MemberCountCache countCache;
+    @Autowired
+    MemberResultCache resultCache;
+    @Autowired
+    TeamIdResolver teamIdResolver;
+    @Autowired
+    UsernameNgramIndex usernameIndex;
+    @Autowired
+    MemberAsyncSearchRepository memberAsyncSearchRepository;
+
+    QueryMetrics queryMetrics = new QueryMetrics(new SimpleMeterRegistry(), 200, Duration.ofHours(1), 10);
+    CountDownLatch release = new CountDownLatch(1);
+    List<ThreadPoolExecutor> executors = new ArrayList<>();
+    List<Long> memberIds = new ArrayList<>();
+    Long teamId;
+
+    @AfterEach
+    public void after() throws InterruptedException {
+        release.countDown();
+        for (ThreadPoolExecutor executor : executors) {
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        if (teamId != null) {
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                memberIds.forEach(id -> entityManager.remove(entityManager.find(MemberDSL.class, id)));
+                entityManager.flush();
+                entityManager.remove(entityManager.find(TeamDSL.class, teamId));
+            });
+        }
+    }
+
+    //content와 count를 따로 돌려도 동기 searchPageComplex와 같은 페이지
+    @Test
+    public void sameAsSyncSearch(){
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            TeamDSL team = new TeamDSL("asyncTeam");
+            entityManager.persist(team);
+            teamId = team.getId();
+            for (int i = 0; i < 5; i++) {
+                MemberDSL member = new MemberDSL("asyncMember" + i, 70 + i, team);
+                entityManager.persist(member);
+                memberIds.add(member.getId());
+            }
+        });
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setTeamName("asyncTeam");
+        PageRequest pageable = PageRequest.of(0, 10);
+
+        Page<MemberTeamDto> async = memberAsyncSearchRepository.searchPageComplex(condition, pageable);
+        Page<MemberTeamDto> sync = new TransactionTemplate(transactionManager)
+                .execute(status -> memberRepository.searchPageComplex(condition, pageable));
+
+        assertThat(async.getTotalElements()).isEqualTo(5);
+        assertThat(async.getContent()).usingRecursiveFieldByFieldElementComparator()
+                .containsExactlyInAnyOrderElementsOf(sync.getContent());
+    }
+
+    //count 작업이 거절되면 먼저 넣은 content 작업도 취소되어 쿼리가 나가지 않고, 503용 예외로 끝난다.
+    @Test
+    public void rejectedCountCancelsContent() throws Exception {
+        ThreadPoolExecutor executor = gatedExecutor(new SynchronousQueue<>());
+        CompletableFuture<Page<MemberTeamDto>> future =
+                repository(executor).searchPageComplexAsync(condition("asyncRejected"), PageRequest.of(0, 10));
+
+        assertThat(future).isCompletedExceptionally();
+        assertThatThrownBy(future::join).hasCauseInstanceOf(MemberSearchBusyException.class);
+
+        drain(executor);
+        assertThat(queryMetrics.getShapes()).isEmpty();
+    }
+
+    //timeout 안에 끝나지 않으면 QueryTimeoutException이고, 아직 시작 안 한 쿼리는 나중에도 나가지 않는다.
+    @Test
+    public void timeoutCancelsPendingQueries() throws Exception {
+        ThreadPoolExecutor executor = gatedExecutor(new LinkedBlockingQueue<>());
+        MemberAsyncSearchRepository repository = repository(executor);
+
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> repository.searchPageComplex(condition("asyncTimeout"), PageRequest.of(0, 10)))
+                .isInstanceOf(QueryTimeoutException.class);
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(TIMEOUT.multipliedBy(5));
+
+        drain(executor);
+        assertThat(queryMetrics.getShapes()).isEmpty();
+    }
+
+    private MemberSearchCondition condition(String username) {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername(username);
+        return condition;
+    }
+
+    private MemberAsyncSearchRepository repository(ThreadPoolExecutor executor) {
+        return new MemberAsyncSearchRepository(emf, executor, countCache, resultCache, teamIdResolver,
+                usernameIndex, queryMetrics, 8, TIMEOUT);
+    }
+
+    //스레드 1개. 작업을 꺼낸 뒤 release 전까지 실행하지 않는다.
+    private ThreadPoolExecutor gatedExecutor(BlockingQueue<Runnable> queue) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, queue) {
+            @Override
+            protected void beforeExecute(Thread thread, Runnable task) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        executors.add(executor);
+        return executor;
+    }
+
+    private void drain(ThreadPoolExecutor executor) throws InterruptedException {
+        release.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+    }
+}
@@ -0,0 +1,131 @@
+package study.querydsl.repository;
+
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.entity.MemberChangedEvent;
+import study.querydsl.entity.MemberDSL;
+import study.querydsl.entity.TeamDSL;
+
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** 캐시는 트랜잭션 밖/읽기 전용에서만 쓰므로 클래스에 @Transactional을 붙이지 않는다. */
+@SpringBootTest
+class MemberCountCacheTest {
+
+    @Autowired
+    MemberCountCache countCache;
+    @Autowired
+    ApplicationEventPublisher eventPublisher;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    EntityManager entityManager;
+    @Autowired
+    JPAQueryFactory queryFactory;
+    @Autowired
+    TeamIdResolver teamIdResolver;
+
+    AtomicInteger counts = new AtomicInteger();
+    LongSupplier counter = () -> {
+        counts.incrementAndGet();
+        return 42L;
+    };
+
+    @Test
+    public void expiresAfterTtl() throws InterruptedException {
+        MemberCountCache cache = new MemberCountCache(true, Duration.ofMillis(100), 10, 0);
+        assertThat(cache.get(condition("ttl"), counter)).isEqualTo(42L);
+        assertThat(cache.get(condition("ttl"), counter)).isEqualTo(42L);
+        assertThat(counts.get()).isEqualTo(1);
+
+        Thread.sleep(150);
+        cache.get(condition("ttl"), counter);
+        assertThat(counts.get()).isEqualTo(2);
+    }
+
+    //회원이 바뀌면(MemberChangedEvent) 빈으로 등록된 캐시가 비워진다.
+    @Test
+    public void invalidatedOnMemberChanged(){
+        countCache.get(condition("event"), counter);
+        countCache.get(condition("event"), counter);
+        assertThat(counts.get()).isEqualTo(1);
+
+        eventPublisher.publishEvent(MemberChangedEvent.bulk());
+        countCache.get(condition("event"), counter);
+        assertThat(counts.get()).isEqualTo(2);
+    }
+
+    //쓰기 트랜잭션에서는 flush 안 된 변경이 있을 수 있으므로 매번 센다. 꺼 두면 읽기 전용에서도 센다.
+    @Test
+    public void bypassedInReadWriteTransactionOrWhenDisabled(){
+        MemberCountCache cache = new MemberCountCache(true, Duration.ofMinutes(1), 10, 0);
+        TransactionTemplate readWrite = new TransactionTemplate(transactionManager);
+        readWrite.executeWithoutResult(status -> {
+            cache.get(condition("rw"), counter);
+            cache.get(condition("rw"), counter);
+        });
+        assertThat(counts.get()).isEqualTo(2);
+
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        readOnly.executeWithoutResult(status -> {
+            cache.get(condition("ro"), counter);
+            cache.get(condition("ro"), counter);
+        });
+        assertThat(counts.get()).isEqualTo(3);
+
+        MemberCountCache disabled = new MemberCountCache(false, Duration.ofMinutes(1), 10, 0);
+        readOnly.executeWithoutResult(status -> {
+            disabled.get(condition("off"), counter);
+            disabled.get(condition("off"), counter);
+        });
+        assertThat(counts.get()).isEqualTo(5);
+    }
+
+    //추정 모드(limit 5)에서 회원 10명을 5개씩: 마지막 페이지에서 다음 페이지가 있다고 하지 않는다.
+    @Test
+    @Transactional
+    public void estimateModeStopsAtLastPage(){
+        TeamDSL team = new TeamDSL("estimateTeam");
+        entityManager.persist(team);
+        for (int i = 0; i < 10; i++) {
+            entityManager.persist(new MemberDSL("estimate" + i, i, team));
+        }
+        entityManager.flush();
+        MemberCountCache cache = new MemberCountCache(true, Duration.ofMinutes(1), 10, 5);
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setTeamName("estimateTeam");
+        MemberSearchPlan plan = MemberSearchPlan.of(condition, teamIdResolver, null);
+
+        long first = cache.total(condition, plan, queryFactory, PageRequest.of(0, 5));
+        long last = cache.total(condition, plan, queryFactory, PageRequest.of(1, 5));
+        long pastEnd = cache.total(condition, plan, queryFactory, PageRequest.of(2, 5));
+
+        assertThat(first).isEqualTo(6);
+        assertThat(new PageImpl<>(Collections.nCopies(5, "row"), PageRequest.of(0, 5), first).hasNext()).isTrue();
+        assertThat(last).isEqualTo(10);
+        assertThat(new PageImpl<>(Collections.nCopies(5, "row"), PageRequest.of(1, 5), last).hasNext()).isFalse();
+        assertThat(pastEnd).isEqualTo(6);
+    }
+
+    private static MemberSearchCondition condition(String username) {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername(username);
+        return condition;
+    }
+}
@@ -1,17 +1,22 @@
 package study.querydsl.repository;
 
 import org.assertj.core.api.Assertions;
+import org.hibernate.Session;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.transaction.annotation.Transactional;
 import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberSummaryDto;
 import study.querydsl.dto.MemberTeamDto;
 import study.querydsl.entity.MemberDSL;
 import study.querydsl.entity.TeamDSL;
+import study.querydsl.monitor.QueryCounter;
+import study.querydsl.monitor.QueryMetrics;
 
 import javax.persistence.EntityManager;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.*;
@@ -25,6 +30,12 @@ class MemberJpaRepositoryTest {
     EntityManager entityManager;
     @Autowired
     MemberJpaRepository memberJpaRepository;
+    @Autowired
+    QueryMetrics queryMetrics;
+    @Autowired
+    MemberSearchExecutor searchExecutor;
+    @Autowired
+    MemberRepository memberRepository;
 
     @Test
     public void basicTest(){
@@ -75,4 +86,117 @@ class MemberJpaRepositoryTest {
         List<MemberTeamDto> result = memberJpaRepository.searchByWhere(condition);
         assertThat(result).extracting("username").containsExactly("member4");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void searchSameShapeTest(){
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername("member1");
+        condition.setAgeGoe(10);
+        memberJpaRepository.searchByWhere(condition);
+
+        long hits = searchExecutor.getHitCount();
+        long misses = searchExecutor.getMissCount();
+        int shapes = queryMetrics.getShapes().size();
+        //값만 다르고 조건 조합이 같으면 만들어둔 JPQL을 재사용
+        condition.setUsername("member2");
+        condition.setAgeGoe(20);
+        memberJpaRepository.searchByWhere(condition);
+
+        assertThat(searchExecutor.getHitCount()).isEqualTo(hits + 1);
+        assertThat(searchExecutor.getMissCount()).isEqualTo(misses);
+        assertThat(queryMetrics.getShapes()).hasSize(shapes);
+    }
+
+    @Test
+    public void saveAllTest(){
+        TeamDSL teamA = new TeamDSL("teamA");
+        entityManager.persist(teamA);
+        List<MemberDSL> members = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            members.add(MemberDSL.forBulkInsert("bulk" + i, i % 100, teamA));
+        }
+
+        int saved = memberJpaRepository.saveAll(members);
+
+        assertThat(saved).isEqualTo(2500);
+        //saveAll이 영속성 컨텍스트를 비우므로 DB에서 다시 읽음
+        assertThat(entityManager.contains(members.get(0))).isFalse();
+        List<MemberDSL> found = memberJpaRepository.findAll();
+        assertThat(found).hasSize(2500);
+        //팀 컬렉션에는 쌓이지 않지만 DB에는 팀이 연결되어 있다.
+        assertThat(teamA.getMembers()).isEmpty();
+        assertThat(found.get(0).getTeam().getId()).isEqualTo(teamA.getId());
+    }
+
+    @Test
+    public void fetchPlanTest(){
+        TeamDSL teamA = new TeamDSL("teamA");
+        TeamDSL teamB = new TeamDSL("teamB");
+        entityManager.persist(teamA);
+        entityManager.persist(teamB);
+        entityManager.persist(new MemberDSL("member1", 10, teamA));
+        entityManager.persist(new MemberDSL("member2", 20, teamB));
+        entityManager.flush();
+        entityManager.clear();
+
+        QueryCounter.start();
+        try {
+            List<MemberDSL> members = memberJpaRepository.findAll_Querydsl(MemberFetchPlan.TEAM);
+            assertThat(members).extracting(m -> m.getTeam().getName()).containsExactlyInAnyOrder("teamA", "teamB");
+            //팀을 같이 가져왔으므로 select 한 번
+            assertThat(QueryCounter.count()).isEqualTo(1);
+        } finally {
+            QueryCounter.stop();
+        }
+    }
+
+    //삭제 대기 회원은 조회 메서드에서 빠진다. 스프링 데이터가 물려준 findById는 엔티티 그대로
+    @Test
+    public void softDeletedMembersAreHidden(){
+        TeamDSL teamA = new TeamDSL("teamA");
+        entityManager.persist(teamA);
+        MemberDSL live = new MemberDSL("member1", 10, teamA);
+        MemberDSL deleted = new MemberDSL("member1", 20, teamA);
+        entityManager.persist(live);
+        entityManager.persist(deleted);
+        deleted.softDelete();
+        entityManager.flush();
+        entityManager.clear();
+
+        assertThat(memberJpaRepository.findById(deleted.getId())).isEmpty();
+        assertThat(memberJpaRepository.findById(live.getId())).isPresent();
+        assertThat(memberJpaRepository.findById(-1L)).isEmpty();
+        assertThat(memberJpaRepository.findAll()).extracting("age").containsExactly(10);
+        assertThat(memberJpaRepository.findAll_Querydsl()).extracting("age").containsExactly(10);
+        assertThat(memberJpaRepository.findAllSummary()).extracting("age").containsExactly(10);
+        assertThat(memberJpaRepository.findByUsername("member1")).extracting("age").containsExactly(10);
+        assertThat(memberJpaRepository.findByUsername_QueryDSL("member1")).extracting("age").containsExactly(10);
+        assertThat(memberJpaRepository.findSummaryByUsername("member1")).extracting("age").containsExactly(10);
+
+        assertThat(memberRepository.findByUsername("member1")).extracting("age").containsExactly(10);
+        assertThat(memberRepository.findWithTeamByUsername("member1")).extracting("age").containsExactly(10);
+        assertThat(memberRepository.findReadOnlyByUsername("member1")).extracting("age").containsExactly(10);
+        assertThat(memberRepository.findSummaryByUsername("member1")).extracting("age").containsExactly(10);
+        assertThat(memberRepository.findById(deleted.getId())).isPresent();
+    }
+
+    @Test
+    public void readOnlyTest(){
+        TeamDSL teamA = new TeamDSL("teamA");
+        entityManager.persist(teamA);
+        entityManager.persist(new MemberDSL("member1", 10, teamA));
+        entityManager.flush();
+        entityManager.clear();
+
+        MemberDSL member = memberJpaRepository.findByUsername_QueryDSLReadOnly("member1", MemberFetchPlan.LAZY).get(0);
+        assertThat(entityManager.unwrap(Session.class).isReadOnly(member)).isTrue();
+        //읽기 전용이라 바꿔도 flush 되지 않음
+        member.setAge(99);
+        entityManager.flush();
+        entityManager.clear();
+        assertThat(memberJpaRepository.findByUsername("member1").get(0).getAge()).isEqualTo(10);
+
+        List<MemberSummaryDto> summaries = memberJpaRepository.findSummaryByUsername("member1");
+        assertThat(summaries).extracting(MemberSummaryDto::getTeamId).containsExactly(teamA.getId());
+    }
+}
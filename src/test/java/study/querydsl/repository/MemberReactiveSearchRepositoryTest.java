@@ -0,0 +1,167 @@
+package study.querydsl.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import org.springframework.dao.QueryTimeoutException;
+import reactor.core.publisher.BaseSubscriber;
+import study.querydsl.dto.MemberCursor;
+import study.querydsl.dto.MemberKeysetPage;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberTeamDto;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/** DB 대신 키셋 페이지를 만들어 주는 mock으로 페이지 조회 시점만 본다. */
+class MemberReactiveSearchRepositoryTest {
+
+    static final Duration TIMEOUT = Duration.ofMillis(500);
+
+    MemberRepository memberRepository = mock(MemberRepository.class);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    MemberReactiveSearchRepository repository =
+            new MemberReactiveSearchRepository(memberRepository, executor, TIMEOUT, 100);
+    AtomicInteger queries = new AtomicInteger();
+
+    @AfterEach
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    //다음 row를 요청하기 전에는 다음 페이지를 조회하지 않는다.
+    @Test
+    public void nextPageIsQueriedOnDemand() throws Exception {
+        givenPages(10, 2);
+        RowSubscriber subscriber = new RowSubscriber();
+        repository.search(new MemberSearchCondition(), 2).subscribe(subscriber);
+
+        subscriber.request(1);
+        assertThat(subscriber.poll()).isNotNull();
+        subscriber.request(1);
+        assertThat(subscriber.poll()).isNotNull();
+        Thread.sleep(100);
+        assertThat(queries.get()).isEqualTo(1);
+
+        subscriber.request(1);
+        assertThat(subscriber.poll()).isNotNull();
+        assertThat(queries.get()).isEqualTo(2);
+        subscriber.dispose();
+    }
+
+    @Test
+    public void readsAllPagesInOrder(){
+        givenPages(3, 2);
+        List<MemberTeamDto> rows = repository.search(new MemberSearchCondition(), 2).collectList().block();
+
+        assertThat(rows).extracting("age").containsExactly(0, 1, 2, 3, 4, 5);
+        assertThat(queries.get()).isEqualTo(3);
+    }
+
+    //실행기가 꽉 차 있으면 기다리지 않고 바로 실패한다.
+    @Test
+    public void failsFastWhenExecutorIsFull() throws Exception {
+        givenPages(1, 2);
+        //스레드 1개, 대기열 없음
+        ThreadPoolExecutor full = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), new ThreadPoolExecutor.AbortPolicy());
+        MemberReactiveSearchRepository repository =
+                new MemberReactiveSearchRepository(memberRepository, full, TIMEOUT, 100);
+        CountDownLatch release = new CountDownLatch(1);
+        full.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            long start = System.nanoTime();
+            assertThatThrownBy(() -> repository.search(new MemberSearchCondition(), 2).blockLast())
+                    .isInstanceOf(MemberSearchBusyException.class);
+            assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(TIMEOUT);
+            assertThat(queries.get()).isZero();
+        } finally {
+            release.countDown();
+            full.shutdownNow();
+        }
+    }
+
+    //페이지 쿼리마다 타임아웃을 넘기고, DB에서 끊긴 쿼리는 그대로 에러로 끝난다.
+    @Test
+    public void queryTimeoutIsPassedToEachPage(){
+        givenPages(2, 2);
+        repository.search(new MemberSearchCondition(), 2).blockLast();
+        verify(memberRepository).searchByKeyset(any(), isNull(), eq(2), eq(TIMEOUT));
+        verify(memberRepository).searchByKeyset(any(), any(MemberCursor.class), eq(2), eq(TIMEOUT));
+
+        doThrow(new QueryTimeoutException("statement timeout"))
+                .when(memberRepository).searchByKeyset(any(), any(), anyInt(), any());
+        assertThatThrownBy(() -> repository.search(new MemberSearchCondition(), 2).blockLast())
+                .isInstanceOf(QueryTimeoutException.class)
+                .hasMessageContaining("statement timeout");
+    }
+
+    @Test
+    public void pageSizeIsBounded(){
+        assertThatThrownBy(() -> repository.search(new MemberSearchCondition(), 101).blockLast())
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> repository.search(new MemberSearchCondition(), 0).blockLast())
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    //age = member_id 순번인 row를 pageSize개씩 pageCount 페이지
+    private void givenPages(int pageCount, int pageSize) {
+        when(memberRepository.searchByKeyset(any(), any(), anyInt(), any())).thenAnswer(invocation -> {
+            MemberCursor cursor = invocation.getArgument(1);
+            int from = cursor == null ? 0 : cursor.getAge() + 1;
+            queries.incrementAndGet();
+            List<MemberTeamDto> content = new ArrayList<>();
+            for (int i = from; i < from + pageSize; i++) {
+                content.add(new MemberTeamDto((long) i, "member" + i, i, null, null));
+            }
+            boolean hasNext = from + pageSize < pageCount * pageSize;
+            return new MemberKeysetPage(content, hasNext ? MemberCursor.after(content.get(pageSize - 1)) : null);
+        });
+    }
+
+    static class RowSubscriber extends BaseSubscriber<MemberTeamDto> {
+
+        final BlockingQueue<MemberTeamDto> rows = new LinkedBlockingQueue<>();
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            //요청은 테스트에서 직접 한다.
+        }
+
+        @Override
+        protected void hookOnNext(MemberTeamDto row) {
+            rows.add(row);
+        }
+
+        MemberTeamDto poll() throws InterruptedException {
+            return rows.poll(1, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -1,20 +1,57 @@
 package study.querydsl.repository;
 
+import com.p6spy.engine.common.StatementInformation;
+import com.querydsl.jpa.impl.JPAQuery;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import com.p6spy.engine.event.JdbcEventListener;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import study.querydsl.dto.MemberBulkResult;
+import study.querydsl.dto.MemberKeysetPage;
+import study.querydsl.dto.MemberCursor;
 import study.querydsl.dto.MemberSearchCondition;
 import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.dto.QMemberTeamDto;
+import study.querydsl.dto.TeamStatsDto;
+import study.querydsl.dto.UsernameMatch;
+import study.querydsl.entity.MemberChangedEvent;
 import study.querydsl.entity.MemberDSL;
 import study.querydsl.entity.TeamDSL;
+import study.querydsl.monitor.IndexAdvisor;
+import study.querydsl.monitor.IndexAdvisorEndpoint;
+import study.querydsl.monitor.QueryCounter;
 
 import javax.persistence.EntityManager;
 
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.junit.jupiter.api.Assertions.*;
+import static study.querydsl.entity.QMemberDSL.memberDSL;
+import static study.querydsl.entity.QTeamDSL.teamDSL;
 
 @SpringBootTest
 @Transactional
@@ -24,6 +61,30 @@ class MemberRepositoryTest {
     EntityManager entityManager;
     @Autowired
     MemberRepository memberRepository;
+    @Autowired
+    MemberRepositoryImpl memberRepositoryImpl;
+    @Autowired
+    IndexAdvisor indexAdvisor;
+    @Autowired
+    TeamIdResolver teamIdResolver;
+    @Autowired
+    SqlCapture sqlCapture;
+    @Autowired
+    MemberResultCache resultCache;
+    @Autowired
+    MemberStatsRepository memberStatsRepository;
+    @Autowired
+    MemberColumnarIndex columnarIndex;
+    @Autowired
+    UsernameNgramIndex usernameIndex;
+    @Autowired
+    MemberArchiveRepository archiveRepository;
+    @Autowired
+    ApplicationEventPublisher eventPublisher;
+    @Autowired
+    JPAQueryFactory queryFactory;
+    @Autowired
+    PlatformTransactionManager transactionManager;
 
     @Test
     public void basicTest(){
@@ -63,4 +124,563 @@ class MemberRepositoryTest {
         List<MemberTeamDto> result = memberRepository.search(condition);
         assertThat(result).extracting("username").containsExactly("member4");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void searchBatchTest(){
+        TeamDSL teamA = new TeamDSL("teamA");
+        TeamDSL teamB = new TeamDSL("teamB");
+        entityManager.persist(teamA);
+        entityManager.persist(teamB);
+        entityManager.persist(new MemberDSL("member1", 10, teamA));
+        entityManager.persist(new MemberDSL("member2", 20, teamA));
+        entityManager.persist(new MemberDSL("member3", 30, teamB));
+        entityManager.persist(new MemberDSL("member4", 40, teamB));
+
+        MemberSearchCondition teamBOlder = new MemberSearchCondition();
+        teamBOlder.setTeamName("teamB");
+        teamBOlder.setAgeGoe(35);
+        MemberSearchCondition young = new MemberSearchCondition();
+        young.setAgeLoe(20);
+        MemberSearchCondition member3 = new MemberSearchCondition();
+        member3.setUsername("member3");
+
+        List<List<MemberTeamDto>> result = memberRepository.searchBatch(List.of(teamBOlder, young, member3, young));
+
+        assertThat(result).hasSize(4);
+        assertThat(result.get(0)).extracting("username").containsExactly("member4");
+        assertThat(result.get(1)).extracting("username").containsExactlyInAnyOrder("member1", "member2");
+        assertThat(result.get(2)).extracting("username").containsExactly("member3");
+        assertThat(result.get(3)).isEqualTo(result.get(1));
+        //조건별 결과는 개별 search와 같아야 한다.
+        assertThat(result.get(0)).containsExactlyInAnyOrderElementsOf(memberRepository.search(teamBOlder));
+        assertThat(result.get(1)).containsExactlyInAnyOrderElementsOf(memberRepository.search(young));
+
+        //DB collation대로 대소문자를 구분하지 않는다. search와 같은 결과
+        MemberSearchCondition mixedCase = new MemberSearchCondition();
+        mixedCase.setUsername("MEMBER3");
+        mixedCase.setTeamName("TeamB");
+        List<List<MemberTeamDto>> mixed = memberRepository.searchBatch(List.of(mixedCase, member3));
+        assertThat(mixed.get(0)).extracting("username").containsExactly("member3");
+        assertThat(mixed.get(0)).containsExactlyInAnyOrderElementsOf(memberRepository.search(mixedCase));
+    }
+
+    //조건마다 앞에서부터 max-rows-per-condition 개. 전체 조건이 먼저 차도 나머지 조건은 계속 읽는다.
+    @Test
+    public void searchBatchCapTest(){
+        TeamDSL teamA = new TeamDSL("teamA");
+        entityManager.persist(teamA);
+        for (int i = 1; i <= 4; i++) {
+            entityManager.persist(new MemberDSL("member" + i, i * 10, teamA));
+        }
+        MemberSearchCondition all = new MemberSearchCondition();
+        MemberSearchCondition member4 = new MemberSearchCondition();
+        member4.setUsername("member4");
+
+        Object target = AopTestUtils.getUltimateTargetObject(memberRepositoryImpl);
+        ReflectionTestUtils.setField(target, "batchMaxRows", 1);
+        try {
+            List<List<MemberTeamDto>> result = memberRepository.searchBatch(List.of(all, member4));
+            assertThat(result.get(0)).extracting("username").containsExactly("member1");
+            assertThat(result.get(1)).extracting("username").containsExactly("member4");
+        } finally {
+            ReflectionTestUtils.setField(target, "batchMaxRows", 1000);
+        }
+    }
+
+    @Test
+    public void statsByTeamTest(){
+        TeamDSL teamA = new TeamDSL("teamA");
+        TeamDSL teamB = new TeamDSL("teamB");
+        entityManager.persist(teamA);
+        entityManager.persist(teamB);
+        entityManager.persist(new MemberDSL("member1", 10, teamA));
+        entityManager.persist(new MemberDSL("member2", 25, teamA));
+        entityManager.persist(new MemberDSL("member3", 30, teamB));
+        entityManager.persist(new MemberDSL("member4", 40, teamB));
+
+        List<TeamStatsDto> all = memberStatsRepository.statsByTeam(new MemberSearchCondition());
+        assertThat(all).extracting("teamName").containsExactly("teamA", "teamB");
+        TeamStatsDto statsA = all.get(0);
+        assertThat(statsA.getCount()).isEqualTo(2);
+        assertThat(statsA.getAvgAge()).isEqualTo(17.5);
+        assertThat(statsA.getMinAge()).isEqualTo(10);
+        assertThat(statsA.getMaxAge()).isEqualTo(25);
+        assertThat(statsA.getAgeHistogram()).containsEntry(10, 1L).containsEntry(20, 1L);
+
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setAgeGoe(30);
+        condition.setUsername("member4");
+        assertThat(memberStatsRepository.statsByTeam(condition))
+                .extracting("teamName", "count").containsExactly(tuple("teamB", 1L));
+    }
+
+    //SQL 결과를 정답으로 놓고 컬럼 인덱스 결과와 비교
+    @Test
+    public void columnarIndexTest(){
+        TeamDSL teamA = new TeamDSL("teamA");
+        TeamDSL teamB = new TeamDSL("teamB");
+        entityManager.persist(teamA);
+        entityManager.persist(teamB);
+        List<MemberDSL> members = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            MemberDSL member = new MemberDSL((i % 7 == 0 ? "Member" : "member") + (i % 20), i % 30,
+                    i % 3 == 0 ? null : i % 3 == 1 ? teamA : teamB);
+            entityManager.persist(member);
+            members.add(member);
+        }
+        entityManager.flush();
+        columnarIndex.rebuild();
+        assertThat(columnarIndex.isReady()).isTrue();
+        assertColumnarMatchesSql();
+
+        //바뀐 row만 다시 읽어 반영: 나이 변경, 팀 이동, 삭제, 새 회원, 팀 이름 변경
+        MemberDSL older = members.get(1);
+        older.setAge(29);
+        MemberDSL moved = members.get(2);
+        moved.setTeam(teamA);
+        MemberDSL deleted = members.get(4);
+        deleted.softDelete();
+        MemberDSL added = new MemberDSL("MEMBER3", 15, teamB);
+        entityManager.persist(added);
+        teamB.setName("TeamB");
+        entityManager.flush();
+        columnarIndex.applyChanges(List.of(older.getId(), moved.getId(), deleted.getId(), added.getId()),
+                List.of(teamB.getId()));
+        assertColumnarMatchesSql();
+    }
+
+    private void assertColumnarMatchesSql() {
+        List<MemberSearchCondition> conditions = new ArrayList<>();
+        conditions.add(new MemberSearchCondition());
+        for (String username : new String[]{null, "member3", "MEMBER7", "member0", "none"}) {
+            for (String teamName : new String[]{null, "teamA", "TEAMB", "teamC"}) {
+                for (Integer ageGoe : new Integer[]{null, 10, 29}) {
+                    for (Integer ageLoe : new Integer[]{null, 9, 20}) {
+                        MemberSearchCondition condition = new MemberSearchCondition();
+                        condition.setUsername(username);
+                        condition.setTeamName(teamName);
+                        condition.setAgeGoe(ageGoe);
+                        condition.setAgeLoe(ageLoe);
+                        conditions.add(condition);
+                    }
+                }
+            }
+        }
+        for (MemberSearchCondition condition : conditions) {
+            assertThat(columnarIndex.search(condition))
+                    .as(condition.toString())
+                    .containsExactlyInAnyOrderElementsOf(memberRepository.search(condition));
+        }
+    }
+
+    @Test
+    public void usernameMatchTest(){
+        TeamDSL teamA = new TeamDSL("teamA");
+        entityManager.persist(teamA);
+        MemberDSL alice = new MemberDSL("alice", 10, teamA);
+        MemberDSL malice = new MemberDSL("malice", 20, teamA);
+        entityManager.persist(alice);
+        entityManager.persist(malice);
+        entityManager.persist(new MemberDSL("bob", 30, teamA));
+        entityManager.persist(new MemberDSL("100%_real", 40, teamA));
+        entityManager.flush();
+        usernameIndex.rebuild();
+
+        //순위: 일치 위치가 앞인 것 먼저. 대소문자 무시
+        assertThat(usernameIndex.topK("LIC")).containsExactly(alice.getId(), malice.getId());
+
+        MemberSearchCondition contains = new MemberSearchCondition();
+        contains.setUsername("lic");
+        contains.setUsernameMatch(UsernameMatch.CONTAINS);
+        assertThat(memberRepository.search(contains)).extracting("username").containsExactlyInAnyOrder("alice", "malice");
+        assertThat(memberRepository.searchPageComplex(contains, PageRequest.of(0, 10)).getContent())
+                .extracting("username").containsExactlyInAnyOrder("alice", "malice");
+
+        MemberSearchCondition prefix = new MemberSearchCondition();
+        prefix.setUsername("al");
+        prefix.setUsernameMatch(UsernameMatch.PREFIX);
+        assertThat(memberRepository.search(prefix)).extracting("username").containsExactly("alice");
+
+        //like 특수문자는 그대로 비교
+        MemberSearchCondition wildcard = new MemberSearchCondition();
+        wildcard.setUsername("%_");
+        wildcard.setUsernameMatch(UsernameMatch.CONTAINS);
+        assertThat(memberRepository.search(wildcard)).extracting("username").containsExactly("100%_real");
+    }
+
+    //CONTAINS 페이지는 인덱스 순위 순. 짧은 검색어는 인덱스를 안 쓰고, 상위 k개에서 잘렸으면 그 뒤 페이지는 거절
+    @Test
+    public void containsPageInRankOrderTest(){
+        TeamDSL teamA = new TeamDSL("teamA");
+        entityManager.persist(teamA);
+        entityManager.persist(new MemberDSL("malice", 10, teamA));
+        entityManager.persist(new MemberDSL("alice", 20, teamA));
+        entityManager.persist(new MemberDSL("xlic", 30, teamA));
+        entityManager.persist(new MemberDSL("licorice", 40, teamA));
+        entityManager.flush();
+        usernameIndex.rebuild();
+
+        MemberSearchCondition contains = new MemberSearchCondition();
+        contains.setUsername("lic");
+        contains.setUsernameMatch(UsernameMatch.CONTAINS);
+        Page<MemberTeamDto> first = memberRepository.searchPageComplex(contains, PageRequest.of(0, 2));
+        Page<MemberTeamDto> second = memberRepository.searchPageComplex(contains, PageRequest.of(1, 2));
+        assertThat(first.getContent()).extracting("username").containsExactly("licorice", "xlic");
+        assertThat(second.getContent()).extracting("username").containsExactly("alice", "malice");
+        assertThat(first.getTotalElements()).isEqualTo(4);
+        assertThat(memberRepository.search(contains)).extracting("username")
+                .containsExactly("licorice", "xlic", "alice", "malice");
+
+        assertThat(usernameIndex.topK("li")).isNull();
+
+        UsernameNgramIndex top2 = new UsernameNgramIndex(queryFactory, transactionManager, true, 1000, 2);
+        top2.rebuild();
+        MemberSearchPlan plan = MemberSearchPlan.of(contains, teamIdResolver, top2);
+        assertThat(plan.page(selectMemberTeam(), PageRequest.of(0, 2), MemberTeamDto::getMemberId))
+                .extracting("username").containsExactly("licorice", "xlic");
+        assertThrows(IllegalArgumentException.class, () ->
+                plan.page(selectMemberTeam(), PageRequest.of(1, 2), MemberTeamDto::getMemberId));
+        //export/통계/배치 검색용은 상위 k개로 자르지 않는다.
+        assertThat(plan.forContentUnranked(selectMemberTeam()).fetch()).extracting("username")
+                .containsExactlyInAnyOrder("licorice", "xlic", "alice", "malice");
+        top2.shutdown();
+    }
+
+    private JPAQuery<MemberTeamDto> selectMemberTeam() {
+        return queryFactory
+                .select(new QMemberTeamDto(memberDSL.id, memberDSL.username, memberDSL.age, teamDSL.id, teamDSL.name))
+                .from(memberDSL);
+    }
+
+    @Test
+    public void searchByKeysetTest(){
+        TeamDSL teamA = new TeamDSL("teamA");
+        entityManager.persist(teamA);
+        entityManager.persist(new MemberDSL("member1", 10, teamA));
+        entityManager.persist(new MemberDSL("member2", 20, teamA));
+        entityManager.persist(new MemberDSL("member3", 20, teamA));
+        entityManager.persist(new MemberDSL("member4", 40, teamA));
+
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setTeamName("teamA");
+
+        MemberKeysetPage first = memberRepository.searchByKeyset(condition, null, 3);
+        assertThat(first.getContent()).extracting("username").containsExactly("member1", "member2", "member3");
+        assertThat(first.isHasNext()).isTrue();
+
+        MemberKeysetPage second = memberRepository.searchByKeyset(condition, MemberCursor.decode(first.getNext()), 3);
+        assertThat(second.getContent()).extracting("username").containsExactly("member4");
+        assertThat(second.isHasNext()).isFalse();
+    }
+
+    @Test
+    public void streamSearchTest(){
+        TeamDSL teamA = new TeamDSL("teamA");
+        entityManager.persist(teamA);
+        entityManager.persist(new MemberDSL("member1", 10, teamA));
+        entityManager.persist(new MemberDSL("member2", 20, teamA));
+
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setAgeGoe(15);
+
+        try (Stream<MemberTeamDto> rows = memberRepository.streamSearch(condition)) {
+            List<String> usernames = rows.map(MemberTeamDto::getUsername).collect(Collectors.toList());
+            assertThat(usernames).containsExactly("member2");
+        }
+    }
+
+    @Test
+    public void bulkAddAgeTest(){
+        TeamDSL teamA = new TeamDSL("teamA");
+        TeamDSL teamB = new TeamDSL("teamB");
+        entityManager.persist(teamA);
+        entityManager.persist(teamB);
+        MemberDSL member1 = new MemberDSL("member1", 10, teamA);
+        entityManager.persist(member1);
+        entityManager.persist(new MemberDSL("member2", 20, teamA));
+        MemberDSL member3 = new MemberDSL("member3", 30, teamB);
+        entityManager.persist(member3);
+
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setTeamName("teamA");
+        MemberBulkResult result = memberRepository.bulkAddAge(condition, 1);
+
+        assertThat(result.getTotal()).isEqualTo(2);
+        //바뀐 회원만 떼어냈으므로 다시 조회하면 DB 값. 나머지 엔티티는 그대로 영속 상태
+        assertThat(entityManager.contains(member1)).isFalse();
+        assertThat(entityManager.contains(member3)).isTrue();
+        assertThat(entityManager.contains(teamA)).isTrue();
+        assertThat(memberRepository.findByUsername("member1").get(0).getAge()).isEqualTo(11);
+        assertThat(memberRepository.findByUsername("member3").get(0).getAge()).isEqualTo(30);
+    }
+
+    @Test
+    public void indexAdvisorTest(){
+        TeamDSL teamA = new TeamDSL("teamA");
+        entityManager.persist(teamA);
+        entityManager.persist(new MemberDSL("member1", 10, teamA));
+
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setTeamName("teamA");
+        condition.setAgeGoe(5);
+        memberRepository.searchByKeyset(condition, null, 10);
+
+        assertThat(indexAdvisor.recommendations()).containsKey(List.of("deleted_at", "team_id", "age", "member_id"));
+        assertThat(indexAdvisor.ddl()).anyMatch(ddl -> ddl.contains("(deleted_at, team_id, age, member_id)"));
+        //GET /actuator/indexadvisor/3
+        assertThat(new IndexAdvisorEndpoint(indexAdvisor).migration("3"))
+                .startsWith("-- V3__member_search_indexes.sql")
+                .contains("(deleted_at, team_id, age, member_id);");
+    }
+
+    //레포지토리가 실제로 보낸 SQL(p6spy로 받은 값 포함 SQL)을 EXPLAIN 해서 옵티마이저가 고른 인덱스를 확인
+    @Test
+    public void explainSearchIndexTest(){
+        String member = indexAdvisor.tableName(MemberDSL.class);
+        String team = indexAdvisor.tableName(TeamDSL.class);
+        //거의 빈 테이블이면 옵티마이저가 전체 스캔을 고르므로 분포가 있는 데이터를 넣는다.
+        List<TeamDSL> teams = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            TeamDSL teamDSL = new TeamDSL("explainTeam" + i);
+            entityManager.persist(teamDSL);
+            teams.add(teamDSL);
+        }
+        for (int i = 0; i < 2000; i++) {
+            entityManager.persist(new MemberDSL("explain" + i, i % 100, teams.get(i % teams.size())));
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        MemberSearchCondition teamAge = new MemberSearchCondition();
+        teamAge.setTeamName("explainTeam3");
+        teamAge.setAgeGoe(90);
+        assertThat(chosenKey(member, () -> memberRepository.searchByKeyset(teamAge, null, 10)))
+                .isEqualTo("idx_member_team_age");
+
+        MemberSearchCondition age = new MemberSearchCondition();
+        age.setAgeGoe(95);
+        assertThat(chosenKey(member, () -> memberRepository.searchByKeyset(age, null, 10)))
+                .isEqualTo("idx_member_age");
+
+        MemberSearchCondition username = new MemberSearchCondition();
+        username.setUsername("explain7");
+        assertThat(chosenKey(member, () -> memberRepository.search(username)))
+                .isEqualTo("idx_member_username");
+
+        assertThat(chosenKey(team, () -> teamIdResolver.resolve("explainTeam5")))
+                .isEqualTo("idx_team_name");
+    }
+
+    //work가 마지막으로 table을 읽은 SQL의 EXPLAIN에서 table 행의 key
+    private String chosenKey(String table, Runnable work) {
+        sqlCapture.statements.clear();
+        work.run();
+        String sql = null;
+        for (String statement : sqlCapture.statements) {
+            if (statement.trim().toLowerCase().startsWith("select") && statement.contains(table)) {
+                sql = statement;
+            }
+        }
+        assertThat(sql).as(table + " 를 읽는 SQL").isNotNull();
+        //MySQL EXPLAIN: id, select_type, table, partitions, type, possible_keys, key, ...
+        List<?> rows = entityManager.createNativeQuery("explain " + sql).getResultList();
+        for (Object row : rows) {
+            Object[] columns = (Object[]) row;
+            if (String.valueOf(columns[2]).startsWith(table)) {
+                return String.valueOf(columns[6]);
+            }
+        }
+        throw new AssertionError("EXPLAIN에 " + table + " 이 없습니다: " + sql);
+    }
+
+    @TestConfiguration
+    static class SqlCaptureConfig {
+        @Bean
+        SqlCapture sqlCapture() {
+            return new SqlCapture();
+        }
+    }
+
+    //p6spy 스타터가 JdbcEventListener 빈을 등록해준다. 바인딩 값까지 채운 SQL을 모은다.
+    static class SqlCapture extends JdbcEventListener {
+        private final List<String> statements = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onAfterAnyExecute(StatementInformation statementInformation, long timeElapsedNanos, SQLException e) {
+            statements.add(statementInformation.getSqlWithValues());
+        }
+    }
+
+    //id만 먼저 페이징하고 그래프는 id로. 쿼리 수는 페이지 크기와 상관없이 고정
+    @Test
+    public void entityPageTest(){
+        TeamDSL teamA = new TeamDSL("teamA");
+        TeamDSL teamB = new TeamDSL("teamB");
+        TeamDSL teamC = new TeamDSL("teamC");
+        entityManager.persist(teamA);
+        entityManager.persist(teamB);
+        entityManager.persist(teamC);
+        entityManager.persist(new MemberDSL("member1", 10, teamA));
+        entityManager.persist(new MemberDSL("member2", 20, teamA));
+        entityManager.persist(new MemberDSL("member3", 30, teamB));
+        entityManager.persist(new MemberDSL("member4", 40, teamC));
+        entityManager.flush();
+        entityManager.clear();
+
+        QueryCounter.start();
+        try {
+            Page<MemberDSL> members = memberRepository.searchEntityPage(new MemberSearchCondition(), PageRequest.of(0, 3));
+            assertThat(members.getContent()).extracting(m -> m.getTeam().getName()).containsExactly("teamA", "teamA", "teamB");
+            assertThat(members.getTotalElements()).isEqualTo(4);
+            //id, 회원 + 팀, count
+            assertThat(QueryCounter.count()).isEqualTo(3);
+        } finally {
+            QueryCounter.stop();
+        }
+        entityManager.clear();
+
+        MemberSearchCondition older = new MemberSearchCondition();
+        older.setAgeGoe(20);
+        QueryCounter.start();
+        try {
+            Page<TeamDSL> teams = memberRepository.searchTeamPage(older, PageRequest.of(0, 2));
+            assertThat(teams.getContent()).extracting("name").containsExactly("teamA", "teamB");
+            assertThat(teams.getContent()).extracting(team -> team.getMembers().size()).containsExactly(2, 1);
+            assertThat(teams.getTotalElements()).isEqualTo(3);
+            //팀 id, 팀, 두 팀의 회원(한 번), count
+            assertThat(QueryCounter.count()).isEqualTo(4);
+        } finally {
+            QueryCounter.stop();
+        }
+    }
+
+    //삭제하면 검색에서 바로 빠지고, 옮긴 뒤에도 as-of 조회로는 보인다.
+    @Test
+    public void softDeleteAndAsOfTest(){
+        TeamDSL teamA = new TeamDSL("teamA");
+        entityManager.persist(teamA);
+        MemberDSL member1 = new MemberDSL("member1", 10, teamA);
+        entityManager.persist(member1);
+        entityManager.persist(new MemberDSL("member2", 20, teamA));
+        entityManager.persist(new MemberDSL("member3", 30, teamA));
+        entityManager.flush();
+        LocalDateTime beforeDelete = LocalDateTime.now();
+
+        member1.softDelete();
+        entityManager.flush();
+        MemberSearchCondition member2 = new MemberSearchCondition();
+        member2.setUsername("member2");
+        assertThat(memberRepository.bulkSoftDelete(member2).getTotal()).isEqualTo(1);
+
+        MemberSearchCondition all = new MemberSearchCondition();
+        assertThat(memberRepository.search(all)).extracting("username").containsExactly("member3");
+        assertThat(memberRepository.searchAsOf(all, beforeDelete)).extracting("username")
+                .containsExactly("member1", "member2", "member3");
+
+        assertThat(archiveRepository.archiveDeleted(LocalDateTime.now().plusSeconds(1))).isEqualTo(2);
+        entityManager.clear();
+        assertThat(memberRepository.findByUsername("member1")).isEmpty();
+
+        MemberSearchCondition olderInTeamA = new MemberSearchCondition();
+        olderInTeamA.setTeamName("teamA");
+        olderInTeamA.setAgeGoe(15);
+        assertThat(memberRepository.searchAsOf(olderInTeamA, beforeDelete))
+                .extracting("username", "teamName")
+                .containsExactly(tuple("member2", "teamA"), tuple("member3", "teamA"));
+        assertThat(memberRepository.searchAsOf(all, LocalDateTime.now())).extracting("username")
+                .containsExactly("member3");
+    }
+
+    //created_at이 없는 옛 row는 처음부터 있던 회원으로 본다(아카이브로 옮긴 뒤에도).
+    @Test
+    public void asOfWithoutCreatedAtTest(){
+        MemberDSL legacy = new MemberDSL("legacy1", 10);
+        MemberDSL legacyDeleted = new MemberDSL("legacy2", 20);
+        entityManager.persist(legacy);
+        entityManager.persist(legacyDeleted);
+        entityManager.flush();
+        entityManager.createQuery("update MemberDSL m set m.createdAt = null where m.id in :ids")
+                .setParameter("ids", List.of(legacy.getId(), legacyDeleted.getId()))
+                .executeUpdate();
+        LocalDateTime longAgo = LocalDateTime.now().minusYears(10);
+
+        MemberSearchCondition legacyOnly = new MemberSearchCondition();
+        legacyOnly.setUsername("legacy");
+        legacyOnly.setUsernameMatch(UsernameMatch.PREFIX);
+        assertThat(memberRepository.searchAsOf(legacyOnly, longAgo)).extracting("username")
+                .containsExactly("legacy1", "legacy2");
+
+        assertThat(memberRepository.bulkSoftDelete(usernameIs("legacy2")).getTotal()).isEqualTo(1);
+        assertThat(archiveRepository.archiveDeleted(LocalDateTime.now().plusSeconds(1))).isEqualTo(1);
+        entityManager.clear();
+        assertThat(memberRepository.searchAsOf(legacyOnly, longAgo)).extracting("username")
+                .containsExactly("legacy1", "legacy2");
+    }
+
+    private static MemberSearchCondition usernameIs(String username) {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername(username);
+        return condition;
+    }
+
+    //읽기 전용 트랜잭션에서만 캐시를 쓴다. 회원이 바뀌면 다시 조회
+    @Test
+    @Transactional(readOnly = true)
+    public void resultCacheTest(){
+        resultCache.invalidateAll();
+        AtomicInteger loads = new AtomicInteger();
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setTeamName("teamA");
+        MemberSearchCondition sameCondition = new MemberSearchCondition();
+        sameCondition.setUsername("");
+        sameCondition.setTeamName("teamA");
+
+        resultCache.search(condition, () -> { loads.incrementAndGet(); return List.of(); });
+        resultCache.search(sameCondition, () -> { loads.incrementAndGet(); return List.of(); });
+        assertThat(loads.get()).isEqualTo(1);
+
+        eventPublisher.publishEvent(MemberChangedEvent.bulk());
+        resultCache.search(condition, () -> { loads.incrementAndGet(); return List.of(); });
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    //같은 키 동시 요청은 조회 한 번. 한 키를 조회하는 동안에도 다른 키는 기다리지 않는다(트랜잭션 없는 스레드에서).
+    @Test
+    public void resultCacheSingleFlightTest() throws Exception {
+        resultCache.invalidateAll();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MemberSearchCondition slow = new MemberSearchCondition();
+        slow.setTeamName("slowTeam");
+        MemberSearchCondition other = new MemberSearchCondition();
+        other.setTeamName("otherTeam");
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Future<List<MemberTeamDto>> first = executor.submit(() -> resultCache.search(slow, () -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return List.of();
+            }));
+            assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+            Future<List<MemberTeamDto>> second = executor.submit(() -> resultCache.search(slow, () -> {
+                loads.incrementAndGet();
+                return List.of();
+            }));
+            assertThat(executor.submit(() -> resultCache.search(other, List::of)).get(5, TimeUnit.SECONDS)).isEmpty();
+
+            release.countDown();
+            first.get(5, TimeUnit.SECONDS);
+            second.get(5, TimeUnit.SECONDS);
+            assertThat(loads.get()).isEqualTo(1);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
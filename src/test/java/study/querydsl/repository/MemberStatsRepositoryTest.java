@@ -0,0 +1,120 @@
+package study.querydsl.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.TeamStatsDto;
+import study.querydsl.entity.MemberDSL;
+import study.querydsl.entity.TeamDSL;
+import study.querydsl.monitor.QueryCounter;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+/**
+ * 커밋 후 이벤트로 집계를 고치는지 보려면 실제로 커밋해야 하므로 @Transactional 없이 돌리고 끝나면 지운다.
+ */
+@SpringBootTest
+class MemberStatsRepositoryTest {
+
+    @Autowired
+    EntityManager entityManager;
+    @Autowired
+    MemberStatsRepository memberStatsRepository;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    List<Long> memberIds = new ArrayList<>();
+    List<Long> teamIds = new ArrayList<>();
+
+    @AfterEach
+    public void after() {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            //엔티티로 지워야 커밋 후 이벤트로 메모리 집계도 같이 빠진다.
+            memberIds.forEach(id -> entityManager.remove(entityManager.find(MemberDSL.class, id)));
+            entityManager.flush();
+            teamIds.forEach(id -> entityManager.remove(entityManager.find(TeamDSL.class, id)));
+        });
+        QueryCounter.stop();
+    }
+
+    //회원을 여러 건 바꿔도 진행 중인 쓰기는 트랜잭션당 하나로 센다(건수만큼 동기화를 쌓지 않는다).
+    @Test
+    public void writesInFlightCountedOncePerTransaction(){
+        AtomicInteger writesInFlight =
+                (AtomicInteger) ReflectionTestUtils.getField(memberStatsRepository, "writesInFlight");
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            TeamDSL team = persist(new TeamDSL("statsInFlight"));
+            for (int i = 0; i < 5; i++) {
+                persist(new MemberDSL("statsInFlight" + i, i, team));
+            }
+            entityManager.flush();
+            assertThat(writesInFlight.get()).isEqualTo(1);
+        });
+        assertThat(writesInFlight.get()).isZero();
+    }
+
+    @Test
+    public void incrementalStatsTest(){
+        TransactionTemplate readWrite = new TransactionTemplate(transactionManager);
+        readWrite.executeWithoutResult(status -> {
+            TeamDSL teamA = persist(new TeamDSL("statsTeamA"));
+            TeamDSL teamB = persist(new TeamDSL("statsTeamB"));
+            persist(new MemberDSL("stats1", 10, teamA));
+            persist(new MemberDSL("stats2", 20, teamA));
+            persist(new MemberDSL("stats3", 30, teamB));
+        });
+        //트랜잭션 밖(읽기 전용)에서 한 번 불러서 메모리 집계를 만든다.
+        memberStatsRepository.statsByTeam(new MemberSearchCondition());
+
+        readWrite.executeWithoutResult(status -> {
+            entityManager.find(MemberDSL.class, memberIds.get(0)).setAge(15);
+            entityManager.find(MemberDSL.class, memberIds.get(1)).setTeam(entityManager.find(TeamDSL.class, teamIds.get(1)));
+            entityManager.find(MemberDSL.class, memberIds.get(2)).softDelete();
+            persist(new MemberDSL("stats4", 40, entityManager.find(TeamDSL.class, teamIds.get(0))));
+            entityManager.find(TeamDSL.class, teamIds.get(1)).setName("StatsTeamB");
+        });
+        //롤백된 변경은 반영되지 않는다.
+        readWrite.executeWithoutResult(status -> {
+            entityManager.find(MemberDSL.class, memberIds.get(0)).setAge(99);
+            entityManager.flush();
+            status.setRollbackOnly();
+        });
+
+        //다시 group by 하지 않고 증감만으로 DB 결과와 같아야 한다.
+        QueryCounter.start();
+        List<TeamStatsDto> cached = memberStatsRepository.statsByTeam(new MemberSearchCondition());
+        assertThat(QueryCounter.count()).isZero();
+        QueryCounter.stop();
+        List<TeamStatsDto> fromDb = readWrite.execute(status -> memberStatsRepository.statsByTeam(new MemberSearchCondition()));
+        assertThat(cached).usingRecursiveFieldByFieldElementComparator().containsExactlyElementsOf(fromDb);
+
+        //팀 이름은 대소문자를 무시한다(DB 경로와 같다).
+        MemberSearchCondition teamB = new MemberSearchCondition();
+        teamB.setTeamName("STATSTEAMB");
+        assertThat(memberStatsRepository.statsByTeam(teamB))
+                .extracting("teamName", "count").containsExactly(tuple("StatsTeamB", 1L));
+        assertThat(readWrite.execute(status -> memberStatsRepository.statsByTeam(teamB)))
+                .extracting("teamName", "count").containsExactly(tuple("StatsTeamB", 1L));
+    }
+
+    private <T> T persist(T entity) {
+        entityManager.persist(entity);
+        if (entity instanceof MemberDSL) {
+            memberIds.add(((MemberDSL) entity).getId());
+        } else {
+            teamIds.add(((TeamDSL) entity).getId());
+        }
+        return entity;
+    }
+}
@@ -0,0 +1,150 @@
+package study.querydsl.repository;
+
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+import study.querydsl.dto.MemberSearchCondition;
+import study.querydsl.dto.MemberTeamDto;
+import study.querydsl.dto.QMemberTeamDto;
+import study.querydsl.entity.MemberDSL;
+import study.querydsl.entity.TeamDSL;
+import study.querydsl.monitor.QueryCounter;
+
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static study.querydsl.entity.QMemberDSL.memberDSL;
+import static study.querydsl.entity.QTeamDSL.teamDSL;
+
+@SpringBootTest
+@Transactional
+class TeamIdResolverTest {
+
+    @Autowired
+    EntityManager entityManager;
+    @Autowired
+    TeamIdResolver teamIdResolver;
+    @Autowired
+    JPAQueryFactory queryFactory;
+
+    @AfterEach
+    public void after() {
+        QueryCounter.stop();
+    }
+
+    //팀 이름이 바뀌거나 팀이 지워지면 TeamChangedEvent로 비워져서 옛 id를 주지 않는다.
+    @Test
+    public void invalidateOnRenameAndDelete(){
+        TeamDSL team = new TeamDSL("resolverTeam");
+        entityManager.persist(team);
+        entityManager.flush();
+        assertThat(teamIdResolver.resolve("resolverTeam")).isEqualTo(team.getId());
+
+        team.setName("renamedTeam");
+        entityManager.flush();
+        assertThat(teamIdResolver.resolve("resolverTeam")).isNull();
+        assertThat(teamIdResolver.resolve("renamedTeam")).isEqualTo(team.getId());
+
+        entityManager.remove(team);
+        entityManager.flush();
+        assertThat(teamIdResolver.resolve("renamedTeam")).isNull();
+    }
+
+    //없는 이름도 기억하고, 그 이름으로 팀이 생기면 비워진다.
+    @Test
+    public void negativeLookupIsCached(){
+        assertThat(teamIdResolver.resolve("ghostTeam")).isNull();
+        assertThat(teamIdResolver.isCached("ghostTeam")).isTrue();
+
+        QueryCounter.start();
+        assertThat(teamIdResolver.resolve("ghostTeam")).isNull();
+        assertThat(QueryCounter.count()).isZero();
+        QueryCounter.stop();
+
+        TeamDSL ghost = new TeamDSL("ghostTeam");
+        entityManager.persist(ghost);
+        entityManager.flush();
+        assertThat(teamIdResolver.isCached("ghostTeam")).isFalse();
+        assertThat(teamIdResolver.resolve("ghostTeam")).isEqualTo(ghost.getId());
+    }
+
+    //영속성 컨텍스트를 비워도 팀은 2차 캐시에서 꺼내므로 SQL이 나가지 않는다.
+    @Test
+    public void teamIsServedFromSecondLevelCache(){
+        TeamDSL team = new TeamDSL("cachedTeam");
+        entityManager.persist(team);
+        MemberDSL member = new MemberDSL("cachedMember", 10, team);
+        entityManager.persist(member);
+        entityManager.flush();
+        entityManager.clear();
+        entityManager.find(TeamDSL.class, team.getId());
+        entityManager.clear();
+        assertThat(entityManager.getEntityManagerFactory().getCache().contains(TeamDSL.class, team.getId())).isTrue();
+
+        MemberDSL found = entityManager.find(MemberDSL.class, member.getId());
+        QueryCounter.start();
+        assertThat(found.getTeam().getName()).isEqualTo("cachedTeam");
+        assertThat(QueryCounter.count()).isZero();
+    }
+
+    //team_id = ? 로 바꾼 조건과 팀 조인 후 이름 비교가 같은 row를 돌려준다(대소문자, 같은 이름 여러 개, 팀 없는 회원, 삭제된 회원 포함).
+    @Test
+    public void rewrittenPredicateMatchesJoin(){
+        TeamDSL teamA = new TeamDSL("teamA");
+        TeamDSL teamB = new TeamDSL("teamB");
+        TeamDSL teamC1 = new TeamDSL("teamC");
+        TeamDSL teamC2 = new TeamDSL("TEAMC");
+        for (TeamDSL team : List.of(teamA, teamB, teamC1, teamC2)) {
+            entityManager.persist(team);
+        }
+        TeamDSL[] teams = {teamA, teamB, teamC1, teamC2, null};
+        for (int i = 0; i < 30; i++) {
+            MemberDSL member = new MemberDSL("member" + i, i, teams[i % teams.length]);
+            if (i % 7 == 0) {
+                member.softDelete();
+            }
+            entityManager.persist(member);
+        }
+        entityManager.flush();
+
+        TeamIdResolver joinOnly = new TeamIdResolver(entityManager, 1, Duration.ZERO, Duration.ZERO) {
+            @Override
+            public Long resolve(String teamName) {
+                return null;
+            }
+        };
+        for (String teamName : new String[]{"teamA", "TEAMA", "teamB", "teamC", "none"}) {
+            for (Integer ageGoe : new Integer[]{null, 10}) {
+                MemberSearchCondition condition = new MemberSearchCondition();
+                condition.setTeamName(teamName);
+                condition.setAgeGoe(ageGoe);
+                MemberSearchPlan rewritten = MemberSearchPlan.of(condition, teamIdResolver, null);
+                MemberSearchPlan joined = MemberSearchPlan.of(condition, joinOnly, null);
+                assertThat(joined.requiresTeamJoin()).isTrue();
+
+                assertThat(fetch(rewritten))
+                        .as(condition.toString())
+                        .containsExactlyInAnyOrderElementsOf(fetch(joined));
+            }
+        }
+        //이름이 하나로 정해지는 팀만 id로 바뀐다.
+        MemberSearchCondition single = new MemberSearchCondition();
+        single.setTeamName("TEAMA");
+        assertThat(MemberSearchPlan.of(single, teamIdResolver, null).requiresTeamJoin()).isFalse();
+        MemberSearchCondition ambiguous = new MemberSearchCondition();
+        ambiguous.setTeamName("teamC");
+        assertThat(MemberSearchPlan.of(ambiguous, teamIdResolver, null).requiresTeamJoin()).isTrue();
+    }
+
+    private List<MemberTeamDto> fetch(MemberSearchPlan plan) {
+        return plan.forContent(queryFactory
+                        .select(new QMemberTeamDto(memberDSL.id, memberDSL.username, memberDSL.age, teamDSL.id, teamDSL.name))
+                        .from(memberDSL))
+                .fetch();
+    }
+}